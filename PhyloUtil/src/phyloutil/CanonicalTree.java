@@ -0,0 +1,289 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import phyloutil.misc.NewickConstants;
+
+/**
+ * Canonical form and structural hash of a rooted tree.
+ * 
+ * Two trees have the same canonical form (and the same hash) if they only
+ * differ in the order of the children of their nodes. Leaf labels are always
+ * part of the form; branch lengths and internal node labels (bootstrap
+ * values) are optional. The canonical string orders the children by their
+ * own canonical strings, while the 128-bit hash orders them by their hashes,
+ * so hashing a tree does not build any string.
+ * 
+ * @version $Revision$
+ */
+public final class CanonicalTree {
+
+	/**
+	 * Seed of the first half of the hash
+	 */
+	private static final long SEED1 = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Seed of the second half of the hash
+	 */
+	private static final long SEED2 = 0xD1B54A32D192ED03L;
+
+	/**
+	 * Multiplier of the string hash (FNV-1a prime)
+	 */
+	private static final long PRIME = 0x100000001B3L;
+
+	/**
+	 * Largest number of children sorted by insertion
+	 */
+	private static final int INSERTION_SORT_DEGREE = 8;
+
+	/**
+	 * Order of the 128-bit hashes
+	 */
+	private static final Comparator<long[]> HASH_ORDER = new Comparator<long[]>() {
+		public int compare(long[] pair1, long[] pair2) {
+			return SplitTable.compare(pair1[0], pair1[1], pair2[0], pair2[1]);
+		}
+	};
+
+	/**
+	 * Hidden constructor
+	 */
+	private CanonicalTree() {
+
+	}
+
+	/**
+	 * Returns the canonical Newick string of a tree
+	 * 
+	 * @param tree
+	 *            {@link TreeNode} root of the tree
+	 * @param lengths
+	 *            Whether to keep the branch lengths
+	 * @param labels
+	 *            Whether to keep the internal node labels
+	 * @return The canonical string of the tree
+	 */
+	public static String toString(TreeNode tree, boolean lengths, boolean labels) {
+
+		Map<TreeNode, String> strings = new IdentityHashMap<TreeNode, String>();
+
+		List<TreeNode> nodes = preorder(tree);
+
+		// Children come after their parent in pre-order
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+
+			TreeNode node = nodes.get(i);
+
+			StringBuffer buffer = new StringBuffer();
+
+			if (node.isLeaf()) {
+				buffer.append(label(node));
+			} else {
+				List<String> children = new ArrayList<String>();
+				for (TreeNode child : node.getChildren()) {
+					children.add(strings.remove(child));
+				}
+				Collections.sort(children);
+
+				buffer.append(NewickConstants.RIGHT_PARENTHESIS);
+				for (int j = 0, n = children.size(); j < n; j++) {
+					if (j > 0) {
+						buffer.append(NewickConstants.COMMA);
+					}
+					buffer.append(children.get(j));
+				}
+				buffer.append(NewickConstants.LEFT_PARENTHESIS);
+				if (labels) {
+					buffer.append(label(node));
+				}
+			}
+
+			if (lengths) {
+				buffer.append(NewickConstants.COLON);
+				buffer.append(node.getLength());
+			}
+
+			strings.put(node, buffer.toString());
+		}
+
+		return strings.get(tree) + NewickConstants.SEMI_COLON;
+	}
+
+	/**
+	 * Returns the 128-bit structural hash of a tree
+	 * 
+	 * @param tree
+	 *            {@link TreeNode} root of the tree
+	 * @param lengths
+	 *            Whether to hash the branch lengths
+	 * @param labels
+	 *            Whether to hash the internal node labels
+	 * @return The first and the last 64 bits of the hash
+	 */
+	public static long[] hash(TreeNode tree, boolean lengths, boolean labels) {
+
+		Map<TreeNode, long[]> hashes = new IdentityHashMap<TreeNode, long[]>();
+
+		List<TreeNode> nodes = preorder(tree);
+
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+
+			TreeNode node = nodes.get(i);
+
+			long hash1;
+			long hash2;
+
+			if (node.isLeaf()) {
+				hash1 = hash(label(node), SEED1);
+				hash2 = hash(label(node), SEED2);
+			} else {
+				int n = node.getChildrenCount();
+				long[][] children = new long[n][];
+				int k = 0;
+				for (TreeNode child : node.getChildren()) {
+					children[k++] = hashes.remove(child);
+				}
+				sort(children);
+
+				hash1 = SEED2 + n;
+				hash2 = SEED1 - n;
+				for (int j = 0; j < n; j++) {
+					hash1 = SplitTable.mix(hash1 * PRIME + children[j][0]);
+					hash2 = SplitTable.mix(hash2 * PRIME + children[j][1]);
+				}
+
+				if (labels) {
+					hash1 = SplitTable.mix(hash1 ^ hash(label(node), SEED1));
+					hash2 = SplitTable.mix(hash2 ^ hash(label(node), SEED2));
+				}
+			}
+
+			if (lengths) {
+				int bits = Float.floatToIntBits(node.getLength());
+				hash1 = SplitTable.mix(hash1 * PRIME + bits);
+				hash2 = SplitTable.mix(hash2 * PRIME - bits);
+			}
+
+			hashes.put(node, new long[] { hash1, hash2 });
+		}
+
+		return hashes.get(tree);
+	}
+
+	/**
+	 * Returns the 128-bit structural hash of a tree as 32 hexadecimal digits,
+	 * for example to be used as a map key or written to a report
+	 * 
+	 * @param tree
+	 *            {@link TreeNode} root of the tree
+	 * @param lengths
+	 *            Whether to hash the branch lengths
+	 * @param labels
+	 *            Whether to hash the internal node labels
+	 * @return The hexadecimal hash of the tree
+	 */
+	public static String key(TreeNode tree, boolean lengths, boolean labels) {
+		long[] hash = hash(tree, lengths, labels);
+		return hex(hash[0]) + hex(hash[1]);
+	}
+
+	/**
+	 * Returns the nodes of a tree, each before its children (the children are
+	 * taken as they are, since the callers sort them anyway)
+	 */
+	private static List<TreeNode> preorder(TreeNode tree) {
+		List<TreeNode> nodes = new ArrayList<TreeNode>();
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(tree);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			nodes.add(node);
+			if (!node.isLeaf()) {
+				for (TreeNode child : node.getChildren()) {
+					stack.push(child);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Sorts the hashes of the children of a node: by insertion for the two or
+	 * three children of most nodes, otherwise by {@link Arrays#sort(Object[],
+	 * Comparator)} so that large polytomies do not take quadratic time
+	 */
+	private static void sort(long[][] children) {
+		int n = children.length;
+		if (n > INSERTION_SORT_DEGREE) {
+			Arrays.sort(children, HASH_ORDER);
+			return;
+		}
+		for (int i = 1; i < n; i++) {
+			long[] pair = children[i];
+			int j = i;
+			while (j > 0 && HASH_ORDER.compare(children[j - 1], pair) > 0) {
+				children[j] = children[j - 1];
+				j--;
+			}
+			children[j] = pair;
+		}
+	}
+
+	/**
+	 * Returns the label of a node (empty if none)
+	 */
+	private static String label(TreeNode node) {
+		return node.getLabel() == null ? "" : node.getLabel();
+	}
+
+	/**
+	 * Returns the 64-bit hash of a string
+	 */
+	private static long hash(String str, long seed) {
+		long h = seed;
+		for (int i = 0, n = str.length(); i < n; i++) {
+			h = (h ^ str.charAt(i)) * PRIME;
+		}
+		return SplitTable.mix(h ^ str.length());
+	}
+
+	/**
+	 * Returns 16 hexadecimal digits of a long
+	 */
+	private static String hex(long value) {
+		String str = Long.toHexString(value);
+		StringBuffer buffer = new StringBuffer();
+		for (int i = str.length(); i < 16; i++) {
+			buffer.append('0');
+		}
+		buffer.append(str);
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,484 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Persistent state of a tree clustering that grows one tree at a time.
+ * 
+ * The state holds the names of the clustered trees, their {@link UnionFind}
+ * sets and an inverted index of the taxa (taxon to tree indices). A new tree
+ * is linked to every known tree sharing at least the minimum number of taxa
+ * with it (tree-level overlap, which is the same as the cluster-level
+ * overlap of {@link PhyloCluster} for a minimum of one taxon), so adding trees
+ * one by one gives the same clusters as clustering all of them at once.
+ * 
+ * Each cluster has a stable id. When clusters merge, the merged cluster keeps
+ * the smallest id and the other ids are recorded as absorbed until the next
+ * {@link #load(File)}.
+ * 
+ * @version $Revision$
+ */
+public final class ClusterState {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * File format tag
+	 */
+	private static final int MAGIC = 0x50434C53;
+
+	/**
+	 * File format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Minimum number of overlapping taxa
+	 */
+	private final int minimumOverlap;
+
+	/**
+	 * Tree names in insertion order
+	 */
+	private final List<String> names = new ArrayList<String>();
+
+	/**
+	 * Tree index by name
+	 */
+	private final Map<String, Integer> trees = new HashMap<String, Integer>();
+
+	/**
+	 * Clusters of the trees
+	 */
+	private UnionFind sets = new UnionFind(0);
+
+	/**
+	 * Cluster id of each tree (valid for the roots of the sets)
+	 */
+	private int[] ids = new int[16];
+
+	/**
+	 * Next cluster id
+	 */
+	private int nextId = 1;
+
+	/**
+	 * Inverted index of the taxa
+	 */
+	private final Map<String, Posting> index = new HashMap<String, Posting>();
+
+	/**
+	 * Cluster ids absorbed since the state was loaded, with the id that
+	 * absorbed them
+	 */
+	private final Map<Integer, Integer> absorbed = new HashMap<Integer, Integer>();
+
+	/**
+	 * Shared taxa counts of the tree being added (sparse accumulator)
+	 */
+	private int[] counts = new int[16];
+
+	/**
+	 * Non-zero entries of the counts
+	 */
+	private int[] touched = new int[16];
+
+	/**
+	 * Growable list of tree indices
+	 */
+	private static final class Posting {
+
+		/**
+		 * Tree indices
+		 */
+		private int[] trees = new int[2];
+
+		/**
+		 * Number of tree indices
+		 */
+		private int size = 0;
+
+		/**
+		 * Appends a tree index
+		 */
+		private void add(int tree) {
+			if (size == trees.length) {
+				int[] grown = new int[2 * size];
+				System.arraycopy(trees, 0, grown, 0, size);
+				trees = grown;
+			}
+			trees[size++] = tree;
+		}
+	}
+
+	/**
+	 * Creates an empty state
+	 * 
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 */
+	public ClusterState(int minimumOverlap) {
+		this.minimumOverlap = Math.max(1, minimumOverlap);
+	}
+
+	/**
+	 * Returns the minimum number of overlapping taxa
+	 * 
+	 * @return The minimum number of overlapping taxa
+	 */
+	public int getMinimumOverlap() {
+		return minimumOverlap;
+	}
+
+	/**
+	 * Checks whether a tree is already clustered
+	 * 
+	 * @param name
+	 *            Tree name
+	 * @return True if the tree is already clustered, otherwise false
+	 */
+	public boolean contains(String name) {
+		return trees.containsKey(name);
+	}
+
+	/**
+	 * Adds a tree and merges the clusters it overlaps
+	 * 
+	 * @param name
+	 *            Tree name
+	 * @param taxa
+	 *            Taxa of the tree
+	 * @return The index of the tree
+	 */
+	public int add(String name, Iterable<String> taxa) {
+
+		Integer known = trees.get(name);
+		if (known != null) {
+			return known.intValue();
+		}
+
+		int tree = sets.add();
+		names.add(name);
+		trees.put(name, Integer.valueOf(tree));
+
+		if (tree == ids.length) {
+			int[] grown = new int[2 * tree];
+			System.arraycopy(ids, 0, grown, 0, tree);
+			ids = grown;
+			counts = new int[2 * tree];
+			touched = new int[2 * tree];
+		}
+
+		ids[tree] = nextId++;
+
+		// Count the taxa shared with each known tree
+		Set<String> distinct = new HashSet<String>();
+		int m = 0;
+		for (String taxon : taxa) {
+			if (!distinct.add(taxon)) {
+				continue;
+			}
+			Posting posting = index.get(taxon);
+			if (posting == null) {
+				posting = new Posting();
+				index.put(taxon, posting);
+			}
+			for (int i = 0; i < posting.size; i++) {
+				int other = posting.trees[i];
+				if (counts[other] == 0) {
+					touched[m++] = other;
+				}
+				if (++counts[other] == minimumOverlap) {
+					union(tree, other);
+				}
+			}
+			posting.add(tree);
+		}
+
+		for (int i = 0; i < m; i++) {
+			counts[touched[i]] = 0;
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Merges the clusters of two trees, keeping the smallest cluster id
+	 */
+	private void union(int tree1, int tree2) {
+		int id1 = ids[sets.find(tree1)];
+		int id2 = ids[sets.find(tree2)];
+		if (sets.union(tree1, tree2)) {
+			ids[sets.find(tree1)] = Math.min(id1, id2);
+			absorbed.put(Integer.valueOf(Math.max(id1, id2)), Integer.valueOf(Math.min(id1, id2)));
+		}
+	}
+
+	/**
+	 * Returns the number of trees
+	 * 
+	 * @return The number of trees
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Returns the number of clusters
+	 * 
+	 * @return The number of clusters
+	 */
+	public int getClusterCount() {
+		return sets.count();
+	}
+
+	/**
+	 * Returns the name of a tree
+	 * 
+	 * @param tree
+	 *            Tree index
+	 * @return The name of the tree
+	 */
+	public String getName(int tree) {
+		return names.get(tree);
+	}
+
+	/**
+	 * Returns the cluster id of a tree
+	 * 
+	 * @param tree
+	 *            Tree index
+	 * @return The cluster id of the tree
+	 */
+	public int getCluster(int tree) {
+		return ids[sets.find(tree)];
+	}
+
+	/**
+	 * Returns the number of trees in the cluster of a tree
+	 * 
+	 * @param tree
+	 *            Tree index
+	 * @return The size of the cluster of the tree
+	 */
+	public int getClusterSize(int tree) {
+		return sets.size(tree);
+	}
+
+	/**
+	 * Returns the number of distinct taxa of each tree
+	 * 
+	 * @return The number of taxa by tree index
+	 */
+	public int[] getTaxonCounts() {
+		int[] taxa = new int[names.size()];
+		for (Posting posting : index.values()) {
+			for (int i = 0; i < posting.size; i++) {
+				taxa[posting.trees[i]]++;
+			}
+		}
+		return taxa;
+	}
+
+	/**
+	 * Returns the next cluster id. All the clusters created later have a
+	 * larger or equal id.
+	 * 
+	 * @return The next cluster id
+	 */
+	public int getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * Returns the current id of an absorbed cluster
+	 * 
+	 * @param id
+	 *            Cluster id
+	 * @return The id of the cluster that holds the trees of the cluster now
+	 */
+	public int resolve(int id) {
+		int current = id;
+		Integer survivor = null;
+		while ((survivor = absorbed.get(Integer.valueOf(current))) != null) {
+			current = survivor.intValue();
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the cluster ids absorbed since the state was loaded
+	 * 
+	 * @return The absorbed cluster ids
+	 */
+	public Set<Integer> getAbsorbed() {
+		return absorbed.keySet();
+	}
+
+	/**
+	 * Saves the state to a file. The state is written to a temporary file
+	 * first, so a failure leaves the previous state untouched.
+	 * 
+	 * @param file
+	 *            State file
+	 * @throws Exception
+	 */
+	public void save(File file) throws Exception {
+
+		File temporary = new File(file.getPath() + ".tmp");
+
+		DataOutputStream out = null;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(minimumOverlap);
+			out.writeInt(nextId);
+
+			int n = names.size();
+			out.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				out.writeUTF(names.get(i));
+				out.writeInt(ids[i]);
+			}
+
+			sets.write(out);
+
+			out.writeInt(index.size());
+			for (Map.Entry<String, Posting> entry : index.entrySet()) {
+				Posting posting = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeInt(posting.size);
+				for (int i = 0; i < posting.size; i++) {
+					out.writeInt(posting.trees[i]);
+				}
+			}
+
+			out.close();
+			out = null;
+
+			Commons.replace(temporary, file);
+
+		} catch (Exception exception) {
+			String msg = "Failed saving cluster state \"" + file.getPath() + "\": " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (Exception e) {
+					String msg = "Failed closing cluster state: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads a state saved by {@link #save(File)}
+	 * 
+	 * @param file
+	 *            State file
+	 * @return {@link ClusterState} loaded from the file
+	 * @throws Exception
+	 */
+	public static ClusterState load(File file) throws Exception {
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a cluster state file");
+			}
+
+			ClusterState state = new ClusterState(in.readInt());
+			state.nextId = in.readInt();
+
+			int n = in.readInt();
+			state.ids = new int[Math.max(16, n)];
+			state.counts = new int[state.ids.length];
+			state.touched = new int[state.ids.length];
+			for (int i = 0; i < n; i++) {
+				String name = in.readUTF();
+				state.names.add(name);
+				state.trees.put(name, Integer.valueOf(i));
+				state.ids[i] = in.readInt();
+			}
+
+			state.sets = UnionFind.read(in);
+
+			int m = in.readInt();
+			for (int t = 0; t < m; t++) {
+				String taxon = in.readUTF();
+				Posting posting = new Posting();
+				int size = in.readInt();
+				posting.trees = new int[Math.max(2, size)];
+				for (int i = 0; i < size; i++) {
+					posting.trees[i] = in.readInt();
+				}
+				posting.size = size;
+				state.index.put(taxon, posting);
+			}
+
+			return state;
+
+		} catch (Exception exception) {
+			String msg = "Failed loading cluster state \"" + file.getPath() + "\": " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (Exception e) {
+					String msg = "Failed closing cluster state: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+}
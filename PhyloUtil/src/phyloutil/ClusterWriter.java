@@ -0,0 +1,469 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Writes the clusters of {@link PhyloCluster} to an output folder.
+ * 
+ * The clusters can be written as a manifest, without touching the trees: a
+ * tab separated file with one line per tree (tree, cluster, number of trees in
+ * the cluster, number of taxa in the tree), or the same content in a compact
+ * binary file. The lines of a block of clusters are formatted by the
+ * available processors and the blocks are streamed to the file in order.
+ * 
+ * The clusters can also be written as one folder per cluster holding hard
+ * links, symbolic links or copies of its trees. Links are created with the
+ * <code>ln</code> command, and the trees that cannot be linked (for example
+ * hard links across file systems) are copied.
+ * 
+ * @version $Revision$
+ */
+public final class ClusterWriter {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Tab separated manifest
+	 */
+	public static final String OUTPUT_MANIFEST = "manifest";
+
+	/**
+	 * Binary manifest
+	 */
+	public static final String OUTPUT_BINARY = "binary";
+
+	/**
+	 * Folders of hard links
+	 */
+	public static final String OUTPUT_LINK = "link";
+
+	/**
+	 * Folders of symbolic links
+	 */
+	public static final String OUTPUT_SYMLINK = "symlink";
+
+	/**
+	 * Folders of copies
+	 */
+	public static final String OUTPUT_COPY = "copy";
+
+	/**
+	 * Default output
+	 */
+	public static final String DEFAULT_OUTPUT = OUTPUT_MANIFEST;
+
+	/**
+	 * Name of the tab separated manifest in the output folder
+	 */
+	public static final String MANIFEST_FILE_NAME = "clusters.tsv";
+
+	/**
+	 * Name of the binary manifest in the output folder
+	 */
+	public static final String BINARY_FILE_NAME = "clusters.bin";
+
+	/**
+	 * Binary manifest format tag
+	 */
+	private static final int MAGIC = 0x50434C4D;
+
+	/**
+	 * Binary manifest format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Number of trees formatted per block of the manifest
+	 */
+	private static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * Maximum number of trees per <code>ln</code> command
+	 */
+	private static final int LINK_BATCH_SIZE = 256;
+
+	/**
+	 * Utility class
+	 */
+	private ClusterWriter() {
+	}
+
+	/**
+	 * Checks whether an output is known
+	 * 
+	 * @param output
+	 *            Output
+	 * @return True if the output is known, otherwise false
+	 */
+	public static boolean isValid(String output) {
+		return output.equalsIgnoreCase(OUTPUT_MANIFEST) || output.equalsIgnoreCase(OUTPUT_BINARY) || output.equalsIgnoreCase(OUTPUT_LINK) || output.equalsIgnoreCase(OUTPUT_SYMLINK) || output.equalsIgnoreCase(OUTPUT_COPY);
+	}
+
+	/**
+	 * Writes clusters to an output folder
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param clusters
+	 *            File names of the trees of each cluster
+	 * @param taxa
+	 *            Number of taxa of each tree by file name
+	 * @param output
+	 *            {@link #OUTPUT_MANIFEST}, {@link #OUTPUT_BINARY},
+	 *            {@link #OUTPUT_LINK}, {@link #OUTPUT_SYMLINK} or
+	 *            {@link #OUTPUT_COPY}
+	 * @throws Exception
+	 */
+	public static void write(String infolder, String outfolder, List<List<String>> clusters, Map<String, Integer> taxa, String output) throws Exception {
+		try {
+
+			if (!isValid(output)) {
+				throw new Exception("Invalid output: " + output);
+			}
+
+			long start = System.currentTimeMillis();
+
+			File odir = new File(outfolder);
+			if (!odir.exists()) {
+				odir.mkdir();
+			}
+
+			StringBuffer buffer = new StringBuffer();
+			buffer.append(PhyloCluster.CLUSTER_PREFIX);
+			for (int i = 0, n = Integer.toString(clusters.size()).length(); i < n; i++) {
+				buffer.append("0");
+			}
+			NumberFormat format = new DecimalFormat(buffer.toString());
+
+			logger.info("Writing clusters to destination folder...");
+
+			int threads = Runtime.getRuntime().availableProcessors();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+			try {
+				if (output.equalsIgnoreCase(OUTPUT_MANIFEST) || output.equalsIgnoreCase(OUTPUT_BINARY)) {
+					boolean binary = output.equalsIgnoreCase(OUTPUT_BINARY);
+					File file = new File(outfolder + Commons.getFileSeparator() + (binary ? BINARY_FILE_NAME : MANIFEST_FILE_NAME));
+					int[] ids = new int[clusters.size()];
+					for (int i = 0; i < ids.length; i++) {
+						ids[i] = i + 1;
+					}
+					manifest(executor, 2 * threads, file, clusters, ids, taxa, format, binary);
+				} else {
+					folders(executor, infolder, outfolder, clusters, format, output);
+				}
+			} finally {
+				executor.shutdown();
+			}
+
+			logger.info("Finished writing clusters to destination folder in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+		} catch (Exception exception) {
+			String msg = "Failed writing clusters: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		}
+	}
+
+	/**
+	 * Writes the manifest of clusters with given ids (for example the stable
+	 * ids of a {@link ClusterState}) to an output folder, replacing the
+	 * previous manifest once complete
+	 * 
+	 * @param outfolder
+	 *            Output folder
+	 * @param clusters
+	 *            File names of the trees of each cluster
+	 * @param ids
+	 *            Id of each cluster
+	 * @param taxa
+	 *            Number of taxa of each tree by file name
+	 * @param format
+	 *            Format of the cluster ids in the tab separated manifest
+	 * @param binary
+	 *            Whether to write the binary manifest instead of the tab
+	 *            separated one
+	 * @throws Exception
+	 */
+	public static void manifest(String outfolder, List<List<String>> clusters, int[] ids, Map<String, Integer> taxa, NumberFormat format, boolean binary) throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			File file = new File(outfolder + Commons.getFileSeparator() + (binary ? BINARY_FILE_NAME : MANIFEST_FILE_NAME));
+			manifest(executor, 2 * threads, file, clusters, ids, taxa, format, binary);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Streams the manifest of the clusters to a temporary file, which replaces
+	 * the manifest once complete. At most a given number of blocks are
+	 * pending at any time.
+	 */
+	private static void manifest(ExecutorService executor, int pending, File file, List<List<String>> clusters, final int[] ids, final Map<String, Integer> taxa, final NumberFormat format, final boolean binary) throws Exception {
+
+		File temporary = new File(file.getPath() + ".tmp");
+
+		OutputStream out = null;
+
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16);
+
+			if (binary) {
+				int trees = 0;
+				for (List<String> cluster : clusters) {
+					trees += cluster.size();
+				}
+				DataOutputStream header = new DataOutputStream(out);
+				header.writeInt(MAGIC);
+				header.writeInt(VERSION);
+				header.writeInt(clusters.size());
+				header.writeInt(trees);
+				header.flush();
+			}
+
+			LinkedList<Future<byte[]>> futures = new LinkedList<Future<byte[]>>();
+
+			int first = 0;
+			int n = clusters.size();
+
+			while (first < n || !futures.isEmpty()) {
+
+				// Submit the next blocks, each ending at a cluster boundary
+				while (first < n && futures.size() < pending) {
+					int last = first;
+					int size = 0;
+					while (last < n && size < BLOCK_SIZE) {
+						size += clusters.get(last++).size();
+					}
+					final int from = first;
+					final List<List<String>> block = clusters.subList(first, last);
+					futures.add(executor.submit(new Callable<byte[]>() {
+						public byte[] call() throws Exception {
+							return binary ? binary(block, from, ids, taxa) : text(block, from, ids, taxa, format);
+						}
+					}));
+					first = last;
+				}
+
+				out.write(futures.removeFirst().get());
+			}
+
+			out.close();
+			out = null;
+
+			Commons.replace(temporary, file);
+
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (Exception e) {
+					String msg = "Failed closing manifest: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the manifest lines of a block of clusters
+	 */
+	private static byte[] text(List<List<String>> block, int first, int[] ids, Map<String, Integer> taxa, NumberFormat format) throws Exception {
+		StringBuffer buffer = new StringBuffer();
+		String lineSeparator = Commons.getLineSeparator();
+		int i = first;
+		for (List<String> cluster : block) {
+			String id;
+			// DecimalFormat is not thread safe
+			synchronized (format) {
+				id = format.format(ids[i++]);
+			}
+			for (String tree : cluster) {
+				buffer.append(tree);
+				buffer.append(Commons.TAB);
+				buffer.append(id);
+				buffer.append(Commons.TAB);
+				buffer.append(cluster.size());
+				buffer.append(Commons.TAB);
+				buffer.append(count(taxa, tree));
+				buffer.append(lineSeparator);
+			}
+		}
+		return buffer.toString().getBytes("UTF-8");
+	}
+
+	/**
+	 * Returns the binary manifest records of a block of clusters: the cluster
+	 * number and size, then the name and number of taxa of each tree
+	 */
+	private static byte[] binary(List<List<String>> block, int first, int[] ids, Map<String, Integer> taxa) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int i = first;
+		for (List<String> cluster : block) {
+			out.writeInt(ids[i++]);
+			out.writeInt(cluster.size());
+			for (String tree : cluster) {
+				out.writeUTF(tree);
+				out.writeInt(count(taxa, tree));
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the number of taxa of a tree (zero if unknown)
+	 */
+	private static int count(Map<String, Integer> taxa, String tree) {
+		Integer count = taxa.get(tree);
+		return count == null ? 0 : count.intValue();
+	}
+
+	/**
+	 * Creates one folder per cluster with links to or copies of its trees,
+	 * one cluster per task
+	 */
+	private static void folders(ExecutorService executor, final String infolder, final String outfolder, List<List<String>> clusters, NumberFormat format, final String output) throws Exception {
+
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+		int i = 1;
+		for (final List<String> cluster : clusters) {
+
+			final File dir = new File(outfolder + Commons.getFileSeparator() + format.format(i++));
+
+			futures.add(executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					add(infolder, dir, cluster, output);
+					return null;
+				}
+			}));
+		}
+
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+	}
+
+	/**
+	 * Adds trees to the folder of a cluster as links or copies
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param dir
+	 *            Folder of the cluster (created if needed)
+	 * @param trees
+	 *            File names of the trees
+	 * @param output
+	 *            {@link #OUTPUT_LINK}, {@link #OUTPUT_SYMLINK} or
+	 *            {@link #OUTPUT_COPY}
+	 * @throws Exception
+	 */
+	public static void add(String infolder, File dir, List<String> trees, String output) throws Exception {
+		dir.mkdir();
+		boolean copy = output.equalsIgnoreCase(OUTPUT_COPY);
+		if (!copy) {
+			link(infolder, dir, trees, output.equalsIgnoreCase(OUTPUT_SYMLINK));
+		}
+		// Copies whatever is not linked
+		for (String tree : trees) {
+			File ofile = new File(dir, tree);
+			if (copy || !ofile.exists()) {
+				Commons.copy(new File(infolder + Commons.getFileSeparator() + tree), ofile);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an output is a folder per cluster
+	 * 
+	 * @param output
+	 *            Output
+	 * @return True for {@link #OUTPUT_LINK}, {@link #OUTPUT_SYMLINK} and
+	 *         {@link #OUTPUT_COPY}, otherwise false
+	 */
+	public static boolean isFolder(String output) {
+		return output.equalsIgnoreCase(OUTPUT_LINK) || output.equalsIgnoreCase(OUTPUT_SYMLINK) || output.equalsIgnoreCase(OUTPUT_COPY);
+	}
+
+	/**
+	 * Links the trees of a cluster into its folder, a batch of trees per
+	 * <code>ln</code> command. Failures are logged and left to be copied.
+	 */
+	private static void link(String infolder, File dir, List<String> cluster, boolean symbolic) {
+
+		for (int first = 0, n = cluster.size(); first < n; first += LINK_BATCH_SIZE) {
+
+			List<String> command = new ArrayList<String>();
+			command.add("ln");
+			if (symbolic) {
+				command.add("-s");
+			}
+			for (String tree : cluster.subList(first, Math.min(n, first + LINK_BATCH_SIZE))) {
+				command.add(new File(infolder + Commons.getFileSeparator() + tree).getAbsolutePath());
+			}
+			command.add(dir.getPath());
+
+			try {
+				Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+				ByteArrayOutputStream messages = new ByteArrayOutputStream();
+				InputStream in = process.getInputStream();
+				Commons.copy(in, messages);
+				int status = process.waitFor();
+				if (status != 0) {
+					logger.warning("Failed linking trees into " + dir.getPath() + ": " + messages.toString().trim());
+				}
+			} catch (Exception e) {
+				String msg = "Failed linking trees into " + dir.getPath() + ": " + e.getMessage();
+				logger.log(Level.WARNING, msg, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Disjoint sets of the integers from 0 to n - 1 that many threads can merge
+ * at the same time without locks.
+ * 
+ * A root is always linked under the smaller root, with a compare and set, so
+ * a parent is never larger than its child and the root of each set is its
+ * smallest element, whatever the order of the merges. Paths are halved with
+ * compare and set as well.
+ * 
+ * @version $Revision$
+ */
+public final class ConcurrentUnionFind {
+
+	/**
+	 * Parent of each element (roots are their own parents)
+	 */
+	private final AtomicIntegerArray parents;
+
+	/**
+	 * Number of sets
+	 */
+	private final AtomicInteger count;
+
+	/**
+	 * Creates n singleton sets
+	 * 
+	 * @param n
+	 *            Number of elements
+	 */
+	public ConcurrentUnionFind(int n) {
+		parents = new AtomicIntegerArray(n);
+		for (int i = 0; i < n; i++) {
+			parents.set(i, i);
+		}
+		count = new AtomicInteger(n);
+	}
+
+	/**
+	 * Returns the root of the set of an element
+	 * 
+	 * @param element
+	 *            Element
+	 * @return The root (smallest element) of the set of the element
+	 */
+	public int find(int element) {
+		int i = element;
+		while (true) {
+			int parent = parents.get(i);
+			if (parent == i) {
+				return i;
+			}
+			int grandparent = parents.get(parent);
+			if (grandparent != parent) {
+				parents.compareAndSet(i, parent, grandparent);
+			}
+			i = grandparent;
+		}
+	}
+
+	/**
+	 * Merges the sets of two elements
+	 * 
+	 * @param element1
+	 *            First element
+	 * @param element2
+	 *            Second element
+	 * @return True if this call merged two different sets, otherwise false
+	 */
+	public boolean union(int element1, int element2) {
+		while (true) {
+			int root1 = find(element1);
+			int root2 = find(element2);
+			if (root1 == root2) {
+				return false;
+			}
+			if (root1 < root2) {
+				int root = root1;
+				root1 = root2;
+				root2 = root;
+			}
+			// Fails if root1 got linked by another thread in the meantime
+			if (parents.compareAndSet(root1, root1, root2)) {
+				count.decrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether two elements are in the same set
+	 * 
+	 * @param element1
+	 *            First element
+	 * @param element2
+	 *            Second element
+	 * @return True if the two elements are in the same set, otherwise false
+	 */
+	public boolean connected(int element1, int element2) {
+		while (true) {
+			int root1 = find(element1);
+			int root2 = find(element2);
+			if (root1 == root2) {
+				return true;
+			}
+			// root1 is still a root, so the sets were different at that time
+			if (parents.get(root1) == root1) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of elements
+	 * 
+	 * @return The number of elements
+	 */
+	public int size() {
+		return parents.length();
+	}
+
+	/**
+	 * Returns the number of sets
+	 * 
+	 * @return The number of sets
+	 */
+	public int count() {
+		return count.get();
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.Arrays;
+
+/**
+ * A growing set of non-negative integers (dense ids), kept either as a sorted
+ * array or as a bitmap, whichever is smaller. A set starts as a sorted array
+ * and turns into a bitmap once it holds more than one value in 32 of its
+ * range, and never turns back.
+ * 
+ * Intersections and unions of two bitmaps work on 64 values at a time with
+ * plain loops over <code>long</code> words (and {@link Long#bitCount(long)}),
+ * which the JIT compiler unrolls and maps to population count instructions.
+ * The other cases merge the sorted arrays or probe the bitmap.
+ * 
+ * @version $Revision$
+ */
+public final class IntSet {
+
+	/**
+	 * Sorted values (array form)
+	 */
+	private int[] values;
+
+	/**
+	 * Bits of the values (bitmap form, null in array form)
+	 */
+	private long[] words;
+
+	/**
+	 * Number of values
+	 */
+	private int size;
+
+	/**
+	 * Creates an empty set
+	 */
+	public IntSet() {
+		values = new int[4];
+	}
+
+	/**
+	 * Creates a set from values
+	 * 
+	 * @param values
+	 *            Values, in any order and with duplicates
+	 * @return The set of the values
+	 */
+	public static IntSet of(int[] values) {
+		int[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || sorted[i] != sorted[n - 1]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		IntSet set = new IntSet();
+		set.values = sorted;
+		set.size = n;
+		set.compact();
+		return set;
+	}
+
+	/**
+	 * Returns the number of values
+	 * 
+	 * @return The number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks whether a value is in the set
+	 * 
+	 * @param value
+	 *            Value
+	 * @return True if the value is in the set, otherwise false
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+		}
+		if (words != null) {
+			int w = value >>> 6;
+			return w < words.length && (words[w] & (1L << value)) != 0;
+		}
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+
+	/**
+	 * Adds a value
+	 * 
+	 * @param value
+	 *            Value (non-negative)
+	 * @return True if the value was not in the set, otherwise false
+	 */
+	public boolean add(int value) {
+		if (words != null) {
+			grow(value);
+			int w = value >>> 6;
+			long bit = 1L << value;
+			if ((words[w] & bit) != 0) {
+				return false;
+			}
+			words[w] |= bit;
+			size++;
+			return true;
+		}
+		int i = Arrays.binarySearch(values, 0, size, value);
+		if (i >= 0) {
+			return false;
+		}
+		i = -i - 1;
+		if (size == values.length) {
+			int[] grown = new int[Math.max(4, 2 * size)];
+			System.arraycopy(values, 0, grown, 0, size);
+			values = grown;
+		}
+		System.arraycopy(values, i, values, i + 1, size - i);
+		values[i] = value;
+		size++;
+		compact();
+		return true;
+	}
+
+	/**
+	 * Adds the values of another set (union)
+	 * 
+	 * @param other
+	 *            Other set
+	 */
+	public void addAll(IntSet other) {
+		if (other.size == 0) {
+			return;
+		}
+		if (words == null && other.words != null) {
+			toBitmap(other.words.length << 6);
+		}
+		if (words != null) {
+			if (other.words != null) {
+				long[] b = other.words;
+				grow((b.length << 6) - 1);
+				long[] a = words;
+				int added = 0;
+				for (int i = 0; i < b.length; i++) {
+					added += Long.bitCount(b[i] & ~a[i]);
+					a[i] |= b[i];
+				}
+				size += added;
+			} else {
+				for (int i = 0; i < other.size; i++) {
+					add(other.values[i]);
+				}
+			}
+			return;
+		}
+		// Merges two sorted arrays
+		int[] a = values;
+		int[] b = other.values;
+		int[] merged = new int[size + other.size];
+		int i = 0, j = 0, n = 0;
+		while (i < size && j < other.size) {
+			if (a[i] < b[j]) {
+				merged[n++] = a[i++];
+			} else if (a[i] > b[j]) {
+				merged[n++] = b[j++];
+			} else {
+				merged[n++] = a[i++];
+				j++;
+			}
+		}
+		while (i < size) {
+			merged[n++] = a[i++];
+		}
+		while (j < other.size) {
+			merged[n++] = b[j++];
+		}
+		values = merged;
+		size = n;
+		compact();
+	}
+
+	/**
+	 * Counts the values shared with another set, stopping at a limit
+	 * 
+	 * @param other
+	 *            Other set
+	 * @param limit
+	 *            Count at which to stop
+	 * @return The number of shared values, or the limit if it is reached
+	 */
+	public int intersect(IntSet other, int limit) {
+		if (limit <= 0) {
+			return 0;
+		}
+		if (words != null && other.words != null) {
+			long[] a = words;
+			long[] b = other.words;
+			int count = 0;
+			for (int i = 0, n = Math.min(a.length, b.length); i < n; i++) {
+				count += Long.bitCount(a[i] & b[i]);
+				if (count >= limit) {
+					return limit;
+				}
+			}
+			return count;
+		}
+		if (words != null) {
+			return other.intersect(this, limit);
+		}
+		int count = 0;
+		if (other.words != null || other.size > 32 * size) {
+			// Probes the other set for each value
+			for (int i = 0; i < size; i++) {
+				if (other.contains(values[i]) && ++count >= limit) {
+					return limit;
+				}
+			}
+			return count;
+		}
+		if (size > 32 * other.size) {
+			return other.intersect(this, limit);
+		}
+		int[] a = values;
+		int[] b = other.values;
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				if (++count >= limit) {
+					return limit;
+				}
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the values
+	 * 
+	 * @return The values in increasing order
+	 */
+	public int[] toArray() {
+		int[] array = new int[size];
+		if (words == null) {
+			System.arraycopy(values, 0, array, 0, size);
+		} else {
+			int n = 0;
+			for (int i = 0; i < words.length; i++) {
+				long word = words[i];
+				while (word != 0) {
+					array[n++] = (i << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+				}
+			}
+		}
+		return array;
+	}
+
+	/**
+	 * Turns a sorted array into a bitmap once the bitmap is smaller
+	 */
+	private void compact() {
+		if (words == null && size > 0 && 32L * size > values[size - 1] + 64L) {
+			toBitmap(values[size - 1] + 1);
+		}
+	}
+
+	/**
+	 * Turns a sorted array into a bitmap of a given range
+	 */
+	private void toBitmap(int range) {
+		words = new long[Math.max(1, (range + 63) >>> 6)];
+		for (int i = 0; i < size; i++) {
+			int value = values[i];
+			if (value >>> 6 >= words.length) {
+				grow(value);
+			}
+			words[value >>> 6] |= 1L << value;
+		}
+		values = null;
+	}
+
+	/**
+	 * Grows the bitmap to hold a value
+	 */
+	private void grow(int value) {
+		int w = value >>> 6;
+		if (w >= words.length) {
+			long[] grown = new long[Math.max(w + 1, 2 * words.length)];
+			System.arraycopy(words, 0, grown, 0, words.length);
+			words = grown;
+		}
+	}
+}
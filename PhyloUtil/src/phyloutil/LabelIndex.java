@@ -0,0 +1,231 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the node labels of a tree, answering the queries of
+ * {@link TreeNode#find(String, boolean)} with the same results (the first
+ * matching node in preorder) without searching the whole tree.
+ * 
+ * Exact labels are looked up in a hash table. The labels starting with a
+ * prefix form a range of the sorted labels, found with two binary searches,
+ * and a sparse table returns the first node of the range in constant time.
+ * Regular expressions are compiled once and kept for later queries.
+ * 
+ * @version $Revision$
+ */
+public final class LabelIndex {
+
+	/**
+	 * Nodes in preorder
+	 */
+	private final TreeNode[] nodes;
+
+	/**
+	 * Preorder index of the first node of each label
+	 */
+	private final Map<String, Integer> labels = new HashMap<String, Integer>();
+
+	/**
+	 * Labels in increasing order
+	 */
+	private final String[] sorted;
+
+	/**
+	 * Index of the first node in preorder in each range [k, k + 2^p) of the
+	 * sorted labels (level p)
+	 */
+	private final int[][] table;
+
+	/**
+	 * Compiled regular expressions
+	 */
+	private final Map<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+
+	/**
+	 * Indexes the labels of a tree
+	 * 
+	 * @param tree
+	 *            Root of the tree
+	 */
+	public LabelIndex(TreeNode tree) {
+
+		List<TreeNode> list = new ArrayList<TreeNode>();
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(tree);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			list.add(node);
+			if (!node.isLeaf()) {
+				List<TreeNode> children = new ArrayList<TreeNode>();
+				for (TreeNode child : node.getChildren()) {
+					children.add(child);
+				}
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+
+		int n = list.size();
+
+		nodes = list.toArray(new TreeNode[n]);
+
+		Integer[] order = new Integer[n];
+		for (int v = 0; v < n; v++) {
+			order[v] = Integer.valueOf(v);
+			if (!labels.containsKey(nodes[v].getLabel())) {
+				labels.put(nodes[v].getLabel(), order[v]);
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer v1, Integer v2) {
+				return nodes[v1.intValue()].getLabel().compareTo(nodes[v2.intValue()].getLabel());
+			}
+		});
+
+		sorted = new String[n];
+		int levels = 1;
+		while ((1 << levels) <= n) {
+			levels++;
+		}
+		table = new int[levels][];
+		table[0] = new int[n];
+		for (int k = 0; k < n; k++) {
+			sorted[k] = nodes[order[k].intValue()].getLabel();
+			table[0][k] = order[k].intValue();
+		}
+		for (int p = 1; p < levels; p++) {
+			int half = 1 << (p - 1);
+			int[] previous = table[p - 1];
+			int[] current = new int[n - (1 << p) + 1];
+			for (int k = 0; k < current.length; k++) {
+				current[k] = Math.min(previous[k], previous[k + half]);
+			}
+			table[p] = current;
+		}
+	}
+
+	/**
+	 * Returns the first node in preorder with a label
+	 * 
+	 * @param label
+	 *            Label
+	 * @return The first node with the label, or null if there is none
+	 */
+	public TreeNode get(String label) {
+		Integer v = labels.get(label);
+		return v == null ? null : nodes[v.intValue()];
+	}
+
+	/**
+	 * Returns the first node in preorder with a label starting with a prefix
+	 * (as {@link TreeNode#find(String)})
+	 * 
+	 * @param prefix
+	 *            Prefix
+	 * @return The first matching node, or null if there is none
+	 */
+	public TreeNode find(String prefix) {
+
+		int n = sorted.length;
+
+		// First label not smaller than the prefix
+		int low = 0;
+		int high = n;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle].compareTo(prefix) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int from = low;
+
+		// First label after it not starting with the prefix
+		high = n;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle].startsWith(prefix)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int to = low;
+
+		if (from == to) {
+			return null;
+		}
+
+		int p = 31 - Integer.numberOfLeadingZeros(to - from);
+		return nodes[Math.min(table[p][from], table[p][to - (1 << p)])];
+	}
+
+	/**
+	 * Returns the first node in preorder matching a query (as
+	 * {@link TreeNode#find(String, boolean)})
+	 * 
+	 * @param query
+	 *            Prefix or regular expression
+	 * @param regexp
+	 *            Whether the query is a regular expression matching the whole
+	 *            label or a prefix
+	 * @return The first matching node, or null if there is none
+	 */
+	public TreeNode find(String query, boolean regexp) {
+		if (!regexp) {
+			return find(query);
+		}
+		Pattern pattern = patterns.get(query);
+		if (pattern == null) {
+			pattern = Pattern.compile(query);
+			patterns.put(query, pattern);
+		}
+		return find(pattern);
+	}
+
+	/**
+	 * Returns the first node in preorder whose whole label matches a regular
+	 * expression
+	 * 
+	 * @param pattern
+	 *            Compiled regular expression
+	 * @return The first matching node, or null if there is none
+	 */
+	public TreeNode find(Pattern pattern) {
+		for (TreeNode node : nodes) {
+			if (pattern.matcher(node.getLabel()).matches()) {
+				return node;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Distances between all the leaves of a tree, either patristic (sum of the
+ * branch lengths) or topological (number of branches), as returned by
+ * {@link TreeNodeUtil#getDistance(TreeNode, TreeNode)}.
+ * 
+ * The leaves are numbered in leaf order. The distance between two leaves is
+ * found from their distances to the root and the distance of their lowest
+ * common ancestor to the root. The lowest common ancestor of leaves
+ * <code>i &lt; j</code> is the shallowest of the lowest common ancestors of
+ * the consecutive leaves from <code>i</code> to <code>j</code>, which a sparse
+ * table finds in constant time, and a whole row of distances takes a single
+ * sweep keeping the shallowest ancestor so far.
+ * 
+ * @version $Revision$
+ */
+public final class LeafDistances {
+
+	/**
+	 * Leaves in leaf order
+	 */
+	private final TreeNode[] leaves;
+
+	/**
+	 * Distance of each leaf to the root
+	 */
+	private final double[] lengths;
+
+	/**
+	 * Number of branches from the root to each leaf
+	 */
+	private final int[] depths;
+
+	/**
+	 * Distance to the root of the lowest common ancestor of leaves k and k + 1
+	 */
+	private final double[] ancestorLengths;
+
+	/**
+	 * Number of branches from the root to the lowest common ancestor of
+	 * leaves k and k + 1
+	 */
+	private final int[] ancestorDepths;
+
+	/**
+	 * Index k of the shallowest ancestor in each range [k, k + 2^p) of
+	 * consecutive leaves (level p)
+	 */
+	private final int[][] table;
+
+	/**
+	 * Prepares the distances between the leaves of a tree in linear time
+	 * (plus the sparse table)
+	 * 
+	 * @param tree
+	 *            Root of the tree
+	 */
+	public LeafDistances(TreeNode tree) {
+
+		List<TreeNode> list = new ArrayList<TreeNode>();
+		List<Double> leafLengths = new ArrayList<Double>();
+		List<Integer> leafDepths = new ArrayList<Integer>();
+		List<Double> lcaLengths = new ArrayList<Double>();
+		List<Integer> lcaDepths = new ArrayList<Integer>();
+
+		// Preorder. The nodes between two consecutive leaves are the path
+		// down from the child of their lowest common ancestor to the second
+		// leaf, so the parent of the node right after a leaf is the lowest
+		// common ancestor of the leaf and the next leaf
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		Stack<Double> stackLengths = new Stack<Double>();
+		Stack<Integer> stackDepths = new Stack<Integer>();
+		stack.push(tree);
+		stackLengths.push(Double.valueOf(0));
+		stackDepths.push(Integer.valueOf(0));
+
+		boolean afterLeaf = false;
+
+		while (!stack.isEmpty()) {
+
+			TreeNode node = stack.pop();
+			double length = stackLengths.pop().doubleValue();
+			int depth = stackDepths.pop().intValue();
+
+			if (afterLeaf) {
+				// Depth and length of the parent
+				lcaLengths.add(Double.valueOf(length - node.getLength()));
+				lcaDepths.add(Integer.valueOf(depth - 1));
+			}
+
+			if (node.isLeaf()) {
+				list.add(node);
+				leafLengths.add(Double.valueOf(length));
+				leafDepths.add(Integer.valueOf(depth));
+				afterLeaf = true;
+			} else {
+				afterLeaf = false;
+				List<TreeNode> children = new ArrayList<TreeNode>();
+				for (TreeNode child : node.getChildren()) {
+					children.add(child);
+				}
+				for (int i = children.size() - 1; i >= 0; i--) {
+					TreeNode child = children.get(i);
+					stack.push(child);
+					stackLengths.push(Double.valueOf(length + child.getLength()));
+					stackDepths.push(Integer.valueOf(depth + 1));
+				}
+			}
+		}
+
+		int n = list.size();
+
+		leaves = list.toArray(new TreeNode[n]);
+		lengths = new double[n];
+		depths = new int[n];
+		for (int i = 0; i < n; i++) {
+			lengths[i] = leafLengths.get(i).doubleValue();
+			depths[i] = leafDepths.get(i).intValue();
+		}
+
+		int m = lcaDepths.size();
+		ancestorLengths = new double[m];
+		ancestorDepths = new int[m];
+		for (int k = 0; k < m; k++) {
+			ancestorLengths[k] = lcaLengths.get(k).doubleValue();
+			ancestorDepths[k] = lcaDepths.get(k).intValue();
+		}
+
+		int levels = 1;
+		while ((1 << levels) <= m) {
+			levels++;
+		}
+		table = new int[levels][];
+		table[0] = new int[m];
+		for (int k = 0; k < m; k++) {
+			table[0][k] = k;
+		}
+		for (int p = 1; p < levels; p++) {
+			int half = 1 << (p - 1);
+			int[] previous = table[p - 1];
+			int[] current = new int[m - (1 << p) + 1];
+			for (int k = 0; k < current.length; k++) {
+				current[k] = shallower(previous[k], previous[k + half]);
+			}
+			table[p] = current;
+		}
+	}
+
+	/**
+	 * Returns the number of leaves
+	 * 
+	 * @return The number of leaves
+	 */
+	public int size() {
+		return leaves.length;
+	}
+
+	/**
+	 * Returns a leaf
+	 * 
+	 * @param i
+	 *            Index of the leaf, in leaf order
+	 * @return The leaf
+	 */
+	public TreeNode getLeaf(int i) {
+		return leaves[i];
+	}
+
+	/**
+	 * Returns the distance between two leaves in constant time
+	 * 
+	 * @param i
+	 *            Index of the first leaf
+	 * @param j
+	 *            Index of the second leaf
+	 * @param topological
+	 *            Whether to count the branches instead of summing their
+	 *            lengths
+	 * @return The distance between the two leaves
+	 */
+	public float getDistance(int i, int j, boolean topological) {
+		if (i == j) {
+			return 0;
+		}
+		int from = Math.min(i, j);
+		int to = Math.max(i, j) - 1;
+		int p = 31 - Integer.numberOfLeadingZeros(to - from + 1);
+		int k = shallower(table[p][from], table[p][to - (1 << p) + 1]);
+		if (topological) {
+			return depths[i] + depths[j] - 2 * ancestorDepths[k];
+		}
+		return (float) (lengths[i] + lengths[j] - 2 * ancestorLengths[k]);
+	}
+
+	/**
+	 * Returns the distances from a leaf to the first leaves in linear time
+	 * 
+	 * @param i
+	 *            Index of the leaf
+	 * @param topological
+	 *            Whether to count the branches instead of summing their
+	 *            lengths
+	 * @param row
+	 *            Distances to the leaves from 0 to the length of the row (at
+	 *            most the number of leaves)
+	 */
+	public void getRow(int i, boolean topological, float[] row) {
+		fill(i, topological, row, 0, Math.min(row.length, leaves.length));
+	}
+
+	/**
+	 * Returns the packed lower triangular matrix of the distances between all
+	 * the leaves, computed using all the available processors. The distance
+	 * between leaves <code>i &gt; j</code> is at index
+	 * <code>i * (i - 1) / 2 + j</code> (see {@link PhyloDistance#offset(int)}).
+	 * 
+	 * @param topological
+	 *            Whether to count the branches instead of summing their
+	 *            lengths
+	 * @return The packed matrix
+	 * @throws Exception
+	 */
+	public float[] getMatrix(boolean topological) throws Exception {
+
+		final int n = leaves.length;
+
+		long size = PhyloDistance.offset(n);
+		if (size > Integer.MAX_VALUE) {
+			throw new Exception("Too many leaves for an array: " + n);
+		}
+
+		final float[] matrix = new float[(int) size];
+		final boolean _topological = topological;
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+			// Rows are interleaved so that all threads get the same work
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				final int step = threads;
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						for (int i = n - 1 - first; i > 0; i -= step) {
+							fill(i, _topological, matrix, (int) PhyloDistance.offset(i), i);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		return matrix;
+	}
+
+	/**
+	 * Writes the distances from leaf i to leaves 0 to length - 1 at an offset
+	 * of an array, sweeping away from the leaf with the shallowest ancestor
+	 * so far
+	 */
+	private void fill(int i, boolean topological, float[] out, int offset, int length) {
+
+		int depth = Integer.MAX_VALUE;
+		double ancestor = 0;
+
+		for (int j = i - 1; j >= 0; j--) {
+			if (ancestorDepths[j] < depth) {
+				depth = ancestorDepths[j];
+				ancestor = ancestorLengths[j];
+			}
+			if (j < length) {
+				out[offset + j] = distance(i, j, depth, ancestor, topological);
+			}
+		}
+
+		if (i < length) {
+			out[offset + i] = 0;
+		}
+
+		depth = Integer.MAX_VALUE;
+		for (int j = i + 1; j < length; j++) {
+			if (ancestorDepths[j - 1] < depth) {
+				depth = ancestorDepths[j - 1];
+				ancestor = ancestorLengths[j - 1];
+			}
+			out[offset + j] = distance(i, j, depth, ancestor, topological);
+		}
+	}
+
+	/**
+	 * Returns the distance between two leaves given their lowest common
+	 * ancestor
+	 */
+	private float distance(int i, int j, int depth, double ancestor, boolean topological) {
+		if (topological) {
+			return depths[i] + depths[j] - 2 * depth;
+		}
+		return (float) (lengths[i] + lengths[j] - 2 * ancestor);
+	}
+
+	/**
+	 * Returns the index of the shallower of two consecutive leaf ancestors
+	 */
+	private int shallower(int k1, int k2) {
+		return ancestorDepths[k2] < ancestorDepths[k1] ? k2 : k1;
+	}
+}
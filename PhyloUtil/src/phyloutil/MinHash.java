@@ -0,0 +1,231 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.Set;
+
+/**
+ * MinHash signatures of taxon sets. The fraction of equal values in the
+ * signatures of two sets is an estimate of their Jaccard similarity (the
+ * number of shared taxa divided by the number of taxa in either set).
+ * 
+ * @version $Revision$
+ */
+public final class MinHash {
+
+	/**
+	 * Default signature size
+	 */
+	public static final int DEFAULT_SIZE = 128;
+
+	/**
+	 * Default seed
+	 */
+	public static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+	/**
+	 * Multiplier of the string hash (FNV-1a prime)
+	 */
+	private static final long PRIME = 0x100000001B3L;
+
+	/**
+	 * Seeds of the hash functions
+	 */
+	private final long[] seeds;
+
+	/**
+	 * Creates a MinHash of the default size
+	 */
+	public MinHash() {
+		this(DEFAULT_SIZE, DEFAULT_SEED);
+	}
+
+	/**
+	 * Creates a MinHash
+	 * 
+	 * @param size
+	 *            Number of hash functions (signature size)
+	 * @param seed
+	 *            Seed of the hash functions
+	 */
+	public MinHash(int size, long seed) {
+		seeds = new long[size];
+		long s = seed;
+		for (int i = 0; i < size; i++) {
+			s += 0x9E3779B97F4A7C15L;
+			seeds[i] = SplitTable.mix(s);
+		}
+	}
+
+	/**
+	 * Returns the signature size
+	 * 
+	 * @return The number of hash functions
+	 */
+	public int size() {
+		return seeds.length;
+	}
+
+	/**
+	 * Returns the signature of a set of taxa
+	 * 
+	 * @param taxa
+	 *            Taxa (duplicates do not change the signature)
+	 * @return The minimum value of each hash function over the taxa
+	 */
+	public int[] signature(Iterable<String> taxa) {
+		int[] signature = new int[seeds.length];
+		signature(taxa, signature, 0);
+		return signature;
+	}
+
+	/**
+	 * Writes the signature of a set of taxa into an array
+	 * 
+	 * @param taxa
+	 *            Taxa (duplicates do not change the signature)
+	 * @param signature
+	 *            Target array
+	 * @param offset
+	 *            Offset of the signature in the target array
+	 * @return The number of taxa (with duplicates)
+	 */
+	public int signature(Iterable<String> taxa, int[] signature, int offset) {
+		int n = seeds.length;
+		for (int i = 0; i < n; i++) {
+			signature[offset + i] = Integer.MAX_VALUE;
+		}
+		int count = 0;
+		for (String taxon : taxa) {
+			long h = hash(taxon);
+			for (int i = 0; i < n; i++) {
+				int value = (int) (SplitTable.mix(h ^ seeds[i]) >>> 33);
+				if (value < signature[offset + i]) {
+					signature[offset + i] = value;
+				}
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the estimated Jaccard similarity of two signatures
+	 * 
+	 * @param signature1
+	 *            Array of the first signature
+	 * @param offset1
+	 *            Offset of the first signature
+	 * @param signature2
+	 *            Array of the second signature
+	 * @param offset2
+	 *            Offset of the second signature
+	 * @param size
+	 *            Signature size
+	 * @return The fraction of equal values
+	 */
+	public static float similarity(int[] signature1, int offset1, int[] signature2, int offset2, int size) {
+		int equal = 0;
+		for (int i = 0; i < size; i++) {
+			if (signature1[offset1 + i] == signature2[offset2 + i]) {
+				equal++;
+			}
+		}
+		return equal / (float) size;
+	}
+
+	/**
+	 * Returns the hash of one band of a signature
+	 * 
+	 * @param signature
+	 *            Array of the signature
+	 * @param offset
+	 *            Offset of the signature
+	 * @param band
+	 *            Band index
+	 * @param rows
+	 *            Number of values per band
+	 * @return 64-bit hash of the band, different for each band index
+	 */
+	public static long band(int[] signature, int offset, int band, int rows) {
+		long h = SplitTable.mix(DEFAULT_SEED + band);
+		for (int i = band * rows, n = i + rows; i < n; i++) {
+			h = SplitTable.mix(h * PRIME + signature[offset + i]);
+		}
+		return h;
+	}
+
+	/**
+	 * Chooses the number of values per band for a signature size and a
+	 * similarity threshold. Two sets share a band with probability 1 - (1 -
+	 * s^r)^b for a similarity s, r rows and b bands; the steepest split whose
+	 * midpoint (1/b)^(1/r) stays below the threshold is chosen, so that most
+	 * pairs above the threshold become candidates.
+	 * 
+	 * @param size
+	 *            Signature size
+	 * @param threshold
+	 *            Jaccard similarity threshold
+	 * @return The number of values per band (a divisor of the size)
+	 */
+	public static int rows(int size, float threshold) {
+		int best = 1;
+		for (int r = 1; r <= size; r++) {
+			if (size % r == 0) {
+				double midpoint = Math.pow(1.0 / (size / r), 1.0 / r);
+				if (midpoint <= 0.9 * threshold) {
+					best = r;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the exact Jaccard similarity of two sets of taxa
+	 * 
+	 * @param taxa1
+	 *            First set
+	 * @param taxa2
+	 *            Second set
+	 * @return The number of shared taxa divided by the number of taxa in
+	 *         either set (zero for two empty sets)
+	 */
+	public static float jaccard(Set<String> taxa1, Set<String> taxa2) {
+		int shared = 0;
+		for (String taxon : taxa1) {
+			if (taxa2.contains(taxon)) {
+				shared++;
+			}
+		}
+		int union = taxa1.size() + taxa2.size() - shared;
+		return union == 0 ? 0 : shared / (float) union;
+	}
+
+	/**
+	 * Returns the 64-bit hash of a taxon
+	 */
+	private static long hash(String taxon) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0, n = taxon.length(); i < n; i++) {
+			h = (h ^ taxon.charAt(i)) * PRIME;
+		}
+		return SplitTable.mix(h);
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Approximate clustering of trees by the Jaccard similarity of their taxon
+ * sets, with MinHash signatures and locality sensitive hashing (LSH).
+ * 
+ * Trees are added one at a time and only their signatures are kept (no trees
+ * and no taxa), so the memory per tree (about four bytes per signature value
+ * and per band, plus its name) does not depend on the number of taxa. The
+ * signatures are stored in fixed-size chunks, so adding trees never copies the
+ * earlier ones and the number of trees is only limited by the memory (and by
+ * {@link Integer#MAX_VALUE}). The signature is cut into bands, and a new tree is compared with the most
+ * recent trees that have an identical band. Two trees are linked if their
+ * estimated similarity reaches the threshold, and the clusters are the
+ * connected components of these links.
+ * 
+ * The taxa of a uniform random sample of the trees are kept aside to measure
+ * the recall and the precision of the links between the sampled trees against
+ * the links of their exact similarities.
+ * 
+ * @version $Revision$
+ */
+public final class MinHashClusterer {
+
+	/**
+	 * Default size of the evaluation sample
+	 */
+	public static final int DEFAULT_SAMPLE_SIZE = 1000;
+
+	/**
+	 * Maximum number of trees compared per band
+	 */
+	private static final int MAXIMUM_CANDIDATES = 16;
+
+	/**
+	 * Number of trees per chunk of signatures (a power of two)
+	 */
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_TREES = 1 << CHUNK_BITS;
+
+	/**
+	 * Jaccard similarity threshold
+	 */
+	private final float threshold;
+
+	/**
+	 * Signature hash functions
+	 */
+	private final MinHash minhash;
+
+	/**
+	 * Number of values per band
+	 */
+	private final int rows;
+
+	/**
+	 * Number of bands
+	 */
+	private final int bands;
+
+	/**
+	 * Signatures of all trees, in chunks of {@link #CHUNK_TREES} trees (one
+	 * block per tree)
+	 */
+	private final List<int[]> signatures = new ArrayList<int[]>();
+
+	/**
+	 * Previous tree in the same bucket, for each tree and band, in chunks of
+	 * {@link #CHUNK_TREES} trees
+	 */
+	private final List<int[]> next = new ArrayList<int[]>();
+
+	/**
+	 * Bucket keys (band hashes) of the open addressing table
+	 */
+	private long[] keys;
+
+	/**
+	 * Last tree of each bucket (-1 for empty slots)
+	 */
+	private int[] heads;
+
+	/**
+	 * Number of used buckets
+	 */
+	private int buckets = 0;
+
+	/**
+	 * Clusters
+	 */
+	private final UnionFind sets = new UnionFind(0);
+
+	/**
+	 * Names of the trees
+	 */
+	private final List<String> names = new ArrayList<String>();
+
+	/**
+	 * Number of compared pairs
+	 */
+	private long comparisons = 0;
+
+	/**
+	 * Maximum size of the evaluation sample
+	 */
+	private final int sampleSize;
+
+	/**
+	 * Indices of the sampled trees
+	 */
+	private final List<Integer> sample = new ArrayList<Integer>();
+
+	/**
+	 * Taxa of the sampled trees
+	 */
+	private final List<Set<String>> sampleTaxa = new ArrayList<Set<String>>();
+
+	/**
+	 * Random generator of the sample
+	 */
+	private final Random random = new Random(MinHash.DEFAULT_SEED);
+
+	/**
+	 * Creates a clusterer with the default signature and sample sizes
+	 * 
+	 * @param threshold
+	 *            Jaccard similarity threshold
+	 */
+	public MinHashClusterer(float threshold) {
+		this(threshold, MinHash.DEFAULT_SIZE, DEFAULT_SAMPLE_SIZE);
+	}
+
+	/**
+	 * Creates a clusterer
+	 * 
+	 * @param threshold
+	 *            Jaccard similarity threshold
+	 * @param size
+	 *            Signature size
+	 * @param sampleSize
+	 *            Number of trees kept to evaluate the clustering
+	 */
+	public MinHashClusterer(float threshold, int size, int sampleSize) {
+		this.threshold = threshold;
+		this.minhash = new MinHash(size, MinHash.DEFAULT_SEED);
+		this.rows = MinHash.rows(size, threshold);
+		this.bands = size / rows;
+		this.sampleSize = sampleSize;
+		allocate(1024);
+	}
+
+	/**
+	 * Adds a tree and links it to the similar trees already added
+	 * 
+	 * @param name
+	 *            Name of the tree
+	 * @param taxa
+	 *            Taxa of the tree
+	 * @return The index of the tree
+	 * @throws IllegalStateException
+	 *             If there are already {@link Integer#MAX_VALUE} trees
+	 */
+	public int add(String name, Iterable<String> taxa) {
+
+		if (names.size() == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many trees: " + names.size());
+		}
+
+		int size = minhash.size();
+
+		int tree = sets.add();
+		names.add(name);
+
+		if ((tree & (CHUNK_TREES - 1)) == 0) {
+			signatures.add(new int[CHUNK_TREES * size]);
+			next.add(new int[CHUNK_TREES * bands]);
+		}
+
+		int[] signature = signatures.get(tree >>> CHUNK_BITS);
+		int offset = (tree & (CHUNK_TREES - 1)) * size;
+		int count = minhash.signature(taxa, signature, offset);
+
+		int[] links = next.get(tree >>> CHUNK_BITS);
+		int link = (tree & (CHUNK_TREES - 1)) * bands;
+
+		for (int band = 0; band < bands; band++) {
+
+			links[link + band] = -1;
+
+			// Trees without taxa are left alone
+			if (count == 0) {
+				continue;
+			}
+
+			long key = MinHash.band(signature, offset, band, rows);
+			int slot = slot(key);
+
+			if (heads[slot] == -1) {
+				keys[slot] = key;
+				buckets++;
+			} else {
+				int candidate = heads[slot];
+				for (int i = 0; i < MAXIMUM_CANDIDATES && candidate != -1; i++) {
+					if (!sets.connected(tree, candidate)) {
+						comparisons++;
+						int[] other = signatures.get(candidate >>> CHUNK_BITS);
+						if (MinHash.similarity(signature, offset, other, (candidate & (CHUNK_TREES - 1)) * size, size) >= threshold) {
+							sets.union(tree, candidate);
+						}
+					}
+					candidate = next.get(candidate >>> CHUNK_BITS)[(candidate & (CHUNK_TREES - 1)) * bands + band];
+				}
+				links[link + band] = heads[slot];
+			}
+
+			heads[slot] = tree;
+
+			if (2 * buckets > heads.length) {
+				allocate(2 * heads.length);
+			}
+		}
+
+		// Reservoir sampling
+		if (sample.size() < sampleSize) {
+			sample.add(Integer.valueOf(tree));
+			sampleTaxa.add(toSet(taxa));
+		} else {
+			int i = random.nextInt(tree + 1);
+			if (i < sampleSize) {
+				sample.set(i, Integer.valueOf(tree));
+				sampleTaxa.set(i, toSet(taxa));
+			}
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Returns the number of trees
+	 * 
+	 * @return The number of trees
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Returns the name of a tree
+	 * 
+	 * @param tree
+	 *            Tree index
+	 * @return The name of the tree
+	 */
+	public String getName(int tree) {
+		return names.get(tree);
+	}
+
+	/**
+	 * Returns the number of compared pairs
+	 * 
+	 * @return The number of compared pairs
+	 */
+	public long getComparisons() {
+		return comparisons;
+	}
+
+	/**
+	 * Returns the number of clusters
+	 * 
+	 * @return The number of clusters
+	 */
+	public int getClusterCount() {
+		return sets.count();
+	}
+
+	/**
+	 * Returns the names of the trees of each cluster
+	 * 
+	 * @return The clusters, in the order of their first tree
+	 */
+	public List<List<String>> getClusters() {
+		int n = names.size();
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = -1;
+		}
+		List<List<String>> clusters = new ArrayList<List<String>>();
+		for (int i = 0; i < n; i++) {
+			int root = sets.find(i);
+			if (ids[root] == -1) {
+				ids[root] = clusters.size();
+				clusters.add(new ArrayList<String>());
+			}
+			clusters.get(ids[root]).add(names.get(i));
+		}
+		return clusters;
+	}
+
+	/**
+	 * Compares the links of the sampled pairs of trees with their exact
+	 * Jaccard similarities. A sampled pair is exact if its Jaccard similarity
+	 * reaches the threshold, and found if {@link #add(String, Iterable)} links
+	 * it: the earlier tree is among the candidates of the later one in some
+	 * band and their estimated similarity reaches the threshold (a pair that
+	 * was skipped because its trees were already in the same cluster is
+	 * counted as it would have been compared). Pairs that only end up in the
+	 * same cluster through other trees are not counted either way.
+	 * 
+	 * @return The recall, the precision, the number of exact pairs and the
+	 *         number of found pairs (recall and precision are 1 when there is
+	 *         nothing to find or nothing found)
+	 */
+	public float[] evaluate() {
+
+		int exact = 0;
+		int predicted = 0;
+		int correct = 0;
+
+		for (int i = 0, n = sample.size(); i < n; i++) {
+			int tree1 = sample.get(i).intValue();
+			for (int j = i + 1; j < n; j++) {
+				int tree2 = sample.get(j).intValue();
+
+				boolean truth = MinHash.jaccard(sampleTaxa.get(i), sampleTaxa.get(j)) >= threshold;
+				boolean prediction = tree1 < tree2 ? linked(tree1, tree2) : linked(tree2, tree1);
+
+				if (truth) {
+					exact++;
+				}
+				if (prediction) {
+					predicted++;
+					if (truth) {
+						correct++;
+					}
+				}
+			}
+		}
+
+		float recall = exact == 0 ? 1 : correct / (float) exact;
+		float precision = predicted == 0 ? 1 : correct / (float) predicted;
+
+		return new float[] { recall, precision, exact, predicted };
+	}
+
+	/**
+	 * Checks whether a tree was linked to an earlier tree when it was added:
+	 * the earlier tree is one of the first {@link #MAXIMUM_CANDIDATES} trees
+	 * of its bucket in a band they share, and their signatures are similar
+	 * enough
+	 */
+	private boolean linked(int earlier, int tree) {
+
+		int size = minhash.size();
+
+		int[] signature1 = signatures.get(earlier >>> CHUNK_BITS);
+		int offset1 = (earlier & (CHUNK_TREES - 1)) * size;
+		int[] signature2 = signatures.get(tree >>> CHUNK_BITS);
+		int offset2 = (tree & (CHUNK_TREES - 1)) * size;
+
+		int[] links = next.get(tree >>> CHUNK_BITS);
+		int link = (tree & (CHUNK_TREES - 1)) * bands;
+
+		for (int band = 0; band < bands; band++) {
+			if (MinHash.band(signature1, offset1, band, rows) == MinHash.band(signature2, offset2, band, rows)) {
+				int candidate = links[link + band];
+				for (int i = 0; i < MAXIMUM_CANDIDATES && candidate != -1; i++) {
+					if (candidate == earlier) {
+						return MinHash.similarity(signature1, offset1, signature2, offset2, size) >= threshold;
+					}
+					candidate = next.get(candidate >>> CHUNK_BITS)[(candidate & (CHUNK_TREES - 1)) * bands + band];
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the taxa as a set
+	 */
+	private static Set<String> toSet(Iterable<String> taxa) {
+		Set<String> set = new HashSet<String>();
+		for (String taxon : taxa) {
+			set.add(taxon);
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the slot of a band hash (either its current slot or the empty
+	 * slot where it would go)
+	 */
+	private int slot(long key) {
+		int mask = heads.length - 1;
+		int slot = (int) key & mask;
+		while (heads[slot] != -1 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Allocates (or grows) the bucket table
+	 */
+	private void allocate(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldHeads = heads;
+
+		keys = new long[capacity];
+		heads = new int[capacity];
+		for (int i = 0; i < capacity; i++) {
+			heads[i] = -1;
+		}
+
+		if (oldHeads != null) {
+			for (int i = 0; i < oldHeads.length; i++) {
+				if (oldHeads[i] != -1) {
+					int slot = slot(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					heads[slot] = oldHeads[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Read-only table of new names for old names, kept outside the Java heap so
+ * that tables of millions of names neither fill the heap nor slow down the
+ * garbage collector.
+ * 
+ * The names are stored one after the other in UTF-8 in a direct buffer, each
+ * entry as the hash of the old name, the old name and the new name, each name
+ * preceded by its length. An open addressing hash table (linear probing, at
+ * most half full) in another direct buffer holds the offsets of the entries.
+ * The old names are compared with the looked up names without decoding them,
+ * so only a found new name is turned into a string. The entries take at most
+ * 2 GB. A table can be shared between threads once it is loaded.
+ * 
+ * @version $Revision$
+ */
+public final class NameTable {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Empty slot of the hash table
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * Initial number of slots of the hash table and bytes of the entries
+	 */
+	private static final int INITIAL_SLOTS = 1 << 10;
+	private static final int INITIAL_BYTES = 1 << 16;
+
+	/**
+	 * Offsets of the entries (or {@link #EMPTY})
+	 */
+	private IntBuffer slots;
+
+	/**
+	 * Entries
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * Number of names
+	 */
+	private int size;
+
+	/**
+	 * Creates an empty table
+	 */
+	public NameTable() {
+		slots = slots(INITIAL_SLOTS);
+		data = ByteBuffer.allocateDirect(INITIAL_BYTES);
+	}
+
+	/**
+	 * Loads a table from a file, one tab-separated pair of old and new names
+	 * (in UTF-8) per line. Blank lines and comments are skipped.
+	 * 
+	 * @param filename
+	 *            Table file
+	 * @return The table
+	 * @throws Exception
+	 */
+	public static NameTable load(String filename) throws Exception {
+
+		NameTable table = new NameTable();
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0 || line.startsWith(Commons.COMMENT_STARTER)) {
+					continue;
+				}
+				int tab = line.indexOf(Commons.TAB);
+				if (tab == -1) {
+					throw new Exception("Invalid line: " + line);
+				}
+				table.put(line.substring(0, tab), line.substring(tab + Commons.TAB.length()));
+			}
+		} catch (Exception exception) {
+			String msg = "Failed loading names from " + filename + ": " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Exception e) {
+					String msg = "Failed closing names file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+
+		logger.info("Loaded " + table.size() + " names (" + table.data.position() + " bytes) from " + filename);
+
+		return table;
+	}
+
+	/**
+	 * Sets the new name of an old name, replacing the previous one if any
+	 * 
+	 * @param name
+	 *            Old name
+	 * @param newName
+	 *            New name
+	 * @throws Exception
+	 */
+	public void put(String name, String newName) throws Exception {
+
+		byte[] key = name.getBytes("UTF-8");
+		byte[] value = newName.getBytes("UTF-8");
+
+		int hash = hash(name);
+
+		int entry = data.position();
+		int bytes = 12 + key.length + value.length;
+		if (bytes > Integer.MAX_VALUE - entry) {
+			throw new Exception("Too many names");
+		}
+		if (data.remaining() < bytes) {
+			grow(entry + bytes);
+		}
+		data.putInt(hash);
+		data.putInt(key.length);
+		data.put(key);
+		data.putInt(value.length);
+		data.put(value);
+
+		int slot = find(name, hash);
+		if (slots.get(slot) == EMPTY) {
+			size++;
+			if (2 * size > slots.capacity()) {
+				rehash();
+				slot = find(name, hash);
+			}
+		}
+		// The entry of a replaced name is left unused
+		slots.put(slot, entry);
+	}
+
+	/**
+	 * Returns the new name of an old name
+	 * 
+	 * @param name
+	 *            Old name
+	 * @return The new name, or null if the name is not in the table
+	 */
+	public String get(String name) {
+
+		int entry = slots.get(find(name, hash(name)));
+		if (entry == EMPTY) {
+			return null;
+		}
+
+		int offset = entry + 8 + data.getInt(entry + 4);
+		byte[] value = new byte[data.getInt(offset)];
+		// A view of its own, as other threads may be reading
+		ByteBuffer view = data.duplicate();
+		view.position(offset + 4);
+		view.get(value);
+		try {
+			return new String(value, "UTF-8");
+		} catch (Exception e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of names
+	 * 
+	 * @return The number of names
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slot of a name, or the empty slot where it would go
+	 */
+	private int find(String name, int hash) {
+		int mask = slots.capacity() - 1;
+		int slot = hash & mask;
+		while (true) {
+			int entry = slots.get(slot);
+			if (entry == EMPTY || (data.getInt(entry) == hash && equals(entry + 4, name))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Checks whether a stored old name is a name, decoding the UTF-8 bytes
+	 * one character at a time
+	 */
+	private boolean equals(int offset, String name) {
+
+		int length = data.getInt(offset);
+		int i = offset + 4;
+		int end = i + length;
+		int j = 0;
+		int n = name.length();
+
+		while (i < end) {
+			int b = data.get(i++) & 0xff;
+			int c;
+			if (b < 0x80) {
+				c = b;
+			} else if (b < 0xe0) {
+				c = ((b & 0x1f) << 6) | (data.get(i++) & 0x3f);
+			} else if (b < 0xf0) {
+				c = ((b & 0x0f) << 12) | ((data.get(i++) & 0x3f) << 6) | (data.get(i++) & 0x3f);
+			} else {
+				// Supplementary character: a surrogate pair in the string
+				c = ((b & 0x07) << 18) | ((data.get(i++) & 0x3f) << 12) | ((data.get(i++) & 0x3f) << 6) | (data.get(i++) & 0x3f);
+				if (j + 1 >= n || name.charAt(j++) != (char) (0xd800 + ((c - 0x10000) >> 10))) {
+					return false;
+				}
+				c = 0xdc00 + ((c - 0x10000) & 0x3ff);
+			}
+			if (j >= n || name.charAt(j++) != c) {
+				return false;
+			}
+		}
+
+		return j == n;
+	}
+
+	/**
+	 * Doubles the number of slots and puts the entries back
+	 */
+	private void rehash() {
+		IntBuffer old = slots;
+		slots = slots(2 * old.capacity());
+		int mask = slots.capacity() - 1;
+		for (int i = 0; i < old.capacity(); i++) {
+			int entry = old.get(i);
+			if (entry != EMPTY) {
+				int slot = data.getInt(entry) & mask;
+				while (slots.get(slot) != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				slots.put(slot, entry);
+			}
+		}
+	}
+
+	/**
+	 * Moves the entries to a larger buffer
+	 */
+	private void grow(int minimum) {
+		long capacity = data.capacity();
+		while (capacity < minimum) {
+			capacity *= 2;
+		}
+		ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE));
+		data.flip();
+		larger.put(data);
+		data = larger;
+	}
+
+	/**
+	 * Returns an empty hash table
+	 */
+	private static IntBuffer slots(int n) {
+		IntBuffer buffer = ByteBuffer.allocateDirect(4 * n).asIntBuffer();
+		for (int i = 0; i < n; i++) {
+			buffer.put(i, EMPTY);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Spreads the hash code of a name over the low bits
+	 */
+	private static int hash(String name) {
+		int h = name.hashCode();
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
+}
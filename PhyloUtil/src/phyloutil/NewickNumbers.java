@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+/**
+ * Parses the numbers of Newick trees (branch lengths and support values)
+ * straight from a range of characters, giving exactly the same results as
+ * {@link Float#parseFloat(String)} and {@link Double#parseDouble(String)}.
+ * 
+ * Plain decimal numbers (optional sign, digits with an optional point and an
+ * optional exponent) with at most 15 significant digits and a decimal exponent
+ * of at most 22 are computed with a single double multiplication or division
+ * of two exact values, which is correctly rounded. The rest (more digits,
+ * white space, NaN, hexadecimal and so on, or a double that falls exactly
+ * halfway between two floats) go through the standard methods.
+ * 
+ * @version $Revision$
+ */
+public final class NewickNumbers {
+
+	/**
+	 * Exact powers of ten in double
+	 */
+	private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21,
+			1e22 };
+
+	/**
+	 * Maximum number of significant digits of the fast path (10^15 < 2^53)
+	 */
+	private static final int MAX_DIGITS = 15;
+
+	/**
+	 * Bits of a double mantissa below the precision of a float, and their
+	 * value halfway between two floats
+	 */
+	private static final long FLOAT_ROUNDING_BITS = (1L << 29) - 1;
+	private static final long FLOAT_HALFWAY = 1L << 28;
+
+	private NewickNumbers() {
+	}
+
+	/**
+	 * Parses a float from a range of characters
+	 * 
+	 * @param text
+	 *            Characters
+	 * @param from
+	 *            Index of the first character
+	 * @param to
+	 *            Index after the last character
+	 * @return The float, as {@link Float#parseFloat(String)}
+	 * @throws NumberFormatException
+	 *             If the range is not a number
+	 */
+	public static float parseFloat(CharSequence text, int from, int to) {
+		double value = parse(text, from, to);
+		// Rounding a double on a halfway point again may go the wrong way
+		if (!Double.isNaN(value) && (Double.doubleToRawLongBits(value) & FLOAT_ROUNDING_BITS) != FLOAT_HALFWAY) {
+			return (float) value;
+		}
+		return Float.parseFloat(text.subSequence(from, to).toString());
+	}
+
+	/**
+	 * Parses a double from a range of characters
+	 * 
+	 * @param text
+	 *            Characters
+	 * @param from
+	 *            Index of the first character
+	 * @param to
+	 *            Index after the last character
+	 * @return The double, as {@link Double#parseDouble(String)}
+	 * @throws NumberFormatException
+	 *             If the range is not a number
+	 */
+	public static double parseDouble(CharSequence text, int from, int to) {
+		double value = parse(text, from, to);
+		if (!Double.isNaN(value)) {
+			return value;
+		}
+		return Double.parseDouble(text.subSequence(from, to).toString());
+	}
+
+	/**
+	 * Parses a plain decimal number
+	 * 
+	 * @return The correctly rounded double, or NaN if the number is not on the
+	 *         fast path
+	 */
+	private static double parse(CharSequence text, int from, int to) {
+
+		int i = from;
+
+		boolean negative = false;
+		if (i < to && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+			negative = text.charAt(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0; // Significant digits
+		int seen = 0; // All digits
+		int exponent = 0;
+
+		while (i < to && isDigit(text.charAt(i))) {
+			int digit = text.charAt(i++) - '0';
+			seen++;
+			if (digits > 0 || digit != 0) {
+				mantissa = 10 * mantissa + digit;
+				digits++;
+			}
+		}
+		if (i < to && text.charAt(i) == '.') {
+			i++;
+			while (i < to && isDigit(text.charAt(i))) {
+				int digit = text.charAt(i++) - '0';
+				seen++;
+				if (digits > 0 || digit != 0) {
+					mantissa = 10 * mantissa + digit;
+					digits++;
+				}
+				exponent--;
+			}
+		}
+		if (seen == 0 || digits > MAX_DIGITS) {
+			return Double.NaN;
+		}
+
+		if (i < to && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < to && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+				negativeExponent = text.charAt(i) == '-';
+				i++;
+			}
+			int start = i;
+			int value = 0;
+			while (i < to && isDigit(text.charAt(i))) {
+				if (i - start == 4) {
+					return Double.NaN;
+				}
+				value = 10 * value + text.charAt(i++) - '0';
+			}
+			if (i == start) {
+				return Double.NaN;
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+
+		if (i != to) {
+			return Double.NaN;
+		}
+
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (exponent >= 0 && exponent < POWERS.length) {
+			value = mantissa * POWERS[exponent];
+		} else if (exponent < 0 && -exponent < POWERS.length) {
+			value = mantissa / POWERS[-exponent];
+		} else {
+			return Double.NaN;
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Checks whether a character is an ASCII digit
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
@@ -18,6 +18,8 @@
 
 package phyloutil;
 
+import java.util.Stack;
+
 import phyloutil.misc.NewickConstants;
 
 /**
@@ -52,7 +54,11 @@ public final class NewickParser {
 	}
 
 	/**
-	 * Parses a tree string into a {@link TreeNode}
+	 * Parses a tree string into a {@link TreeNode}. The string is scanned once
+	 * from left to right while the open internal nodes are kept on an explicit
+	 * stack, so the depth of the tree is not limited by the thread stack size.
+	 * Nodes get their ids in pre-order, starting after the maximum id of the
+	 * parent (if any).
 	 * 
 	 * @param _str
 	 *            The string to parse
@@ -64,114 +70,148 @@ public final class NewickParser {
 
 		String str = _str.trim();
 
-		TreeNode tree = new TreeNode();
+		int id = TreeNode.DEFAULT_ROOT_ID;
+		int level = TreeNode.DEFAULT_ROOT_LEVEL;
 
-		if (parent == null) {
-			tree.setLevel(TreeNode.DEFAULT_ROOT_LEVEL);
-			tree.setId(TreeNode.DEFAULT_ROOT_ID);
-		} else {
-			tree.setLevel(parent.getLevel() + 1);
-			tree.setId(parent.getMaximumId() + 1);
+		if (parent != null) {
+			id = parent.getMaximumId() + 1;
+			level = parent.getLevel() + 1;
 		}
 
-		// Null parent means this is the root of the tree
-		tree.setParent(parent);
-
 		if (str.indexOf(NewickConstants.RIGHT_PARENTHESIS) == -1) {
-
 			// Terminal node
-			int colon = str.lastIndexOf(NewickConstants.COLON);
-			if (colon != -1) {
-
-				float length = Float.parseFloat(str.substring(colon + 1, str.length()));
-
-				tree.setLength(length);
-
-				String label = str.substring(0, colon);
-				tree.setLabel(label);
-			} else {
-				String label = str.substring(0, str.length());
-				tree.setLabel(label);
-			}
-
+			TreeNode tree = newNode(parent, id, level);
+			setLeaf(tree, str, 0, str.length());
 			return tree;
 		}
 
-		int right = 0;
-		int left = 0;
-
-		int start = str.indexOf(NewickConstants.RIGHT_PARENTHESIS);
-		int end = str.lastIndexOf(NewickConstants.LEFT_PARENTHESIS);
-
-		float length = 0;
-		String label = "";
-
-		boolean dummy = false;
-
-		if (end < str.length() - 1) {
+		Stack<TreeNode> stack = new Stack<TreeNode>();
 
-			// Internal (dummy?) node
+		TreeNode tree = null;
 
-			dummy = true;
-
-			int colon = str.indexOf(NewickConstants.COLON, end);
-			if (colon != -1) {
-				length = Float.parseFloat(str.substring(colon + 1, str.length()));
-				label = str.substring(end + 1, colon);
-			} else {
-				label = str.substring(end + 1, str.length());
-			}
-
-		}
-
-		String substr = str.substring(start + 1, end);
+		// The internal node that has just been closed and is waiting for its
+		// label and branch length. If null, then the pending text is a leaf.
+		TreeNode closed = null;
 
 		int index = 0;
 
-		for (int i = 0, n = substr.length(); i < n; i++) {
+		for (int i = 0, n = str.length(); i < n; i++) {
 
-			char c = substr.charAt(i);
+			char c = str.charAt(i);
 
-			// If within single quotes, all characters are skipped.
 			if (c == NewickConstants.RIGHT_PARENTHESIS) {
 
-				// Count the number of opening parentheses
-				left++;
-
-			} else if (c == NewickConstants.LEFT_PARENTHESIS) {
-
-				// Count the number of closing parentheses
-				right++;
+				TreeNode top = stack.isEmpty() ? parent : stack.peek();
+				TreeNode node = newNode(top, id++, level + stack.size());
 
-			} else if (c == NewickConstants.COMMA) {
-
-				// There is a split (branch)
-				if (right - left == 0) {
-
-					// It has to be between whole sub-trees
-					// I.E. The number of closing parentheses should match the
-					// number of opening parentheses
-					String leftstr = substr.substring(index, i);
+				if (tree == null) {
+					tree = node;
+				}
 
-					TreeNode child = parse(leftstr, tree);
+				stack.push(node);
+				index = i + 1;
 
-					tree.addChild(child);
+			} else if (c == NewickConstants.COMMA || c == NewickConstants.LEFT_PARENTHESIS) {
 
-					index = i + 1;
+				if (closed != null) {
+					setInternal(closed, str, index, i);
+					closed = null;
+				} else if (!stack.isEmpty()) {
+					TreeNode leaf = newNode(stack.peek(), id++, level + stack.size());
+					setLeaf(leaf, str, index, i);
+				}
 
+				if (c == NewickConstants.LEFT_PARENTHESIS && !stack.isEmpty()) {
+					closed = stack.pop();
 				}
+
+				index = i + 1;
 			}
 		}
 
-		if (dummy) {
-			tree.setLabel(label);
-			tree.setLength(length);
+		if (closed != null) {
+			setInternal(closed, str, index, str.length());
 		}
 
-		String remaining = substr.substring(index, substr.length());
-		TreeNode child = parse(remaining, tree);
-		tree.addChild(child);
-
 		return tree;
 	}
+
+	/**
+	 * Creates a new node and attaches it to its parent
+	 * 
+	 * @param parent
+	 *            The parent of the new node (null for the root)
+	 * @param id
+	 *            The node id
+	 * @param level
+	 *            The node level
+	 * @return The new {@link TreeNode}
+	 */
+	private static TreeNode newNode(TreeNode parent, int id, int level) {
+		TreeNode node = new TreeNode();
+		node.setId(id);
+		node.setLevel(level);
+		node.setParent(parent);
+		return node;
+	}
+
+	/**
+	 * Sets the label and the branch length of a terminal node
+	 * 
+	 * @param leaf
+	 *            The terminal node
+	 * @param str
+	 *            The tree string
+	 * @param from
+	 *            The start of the text of the node (label[:length])
+	 * @param to
+	 *            The end of the text of the node
+	 */
+	private static void setLeaf(TreeNode leaf, String str, int from, int to) {
+		while (from < to && str.charAt(from) <= ' ') {
+			from++;
+		}
+		while (to > from && str.charAt(to - 1) <= ' ') {
+			to--;
+		}
+		int colon = str.lastIndexOf(NewickConstants.COLON, to - 1);
+		if (colon >= from) {
+			leaf.setLength(NewickNumbers.parseFloat(str, colon + 1, to));
+			leaf.setLabel(str.substring(from, colon));
+		} else {
+			leaf.setLabel(str.substring(from, to));
+		}
+	}
+
+	/**
+	 * Sets the label and the branch length of an internal node
+	 * 
+	 * @param internal
+	 *            The internal node
+	 * @param str
+	 *            The tree string
+	 * @param from
+	 *            The start of the text following the closing parenthesis of
+	 *            the node ([label][:length])
+	 * @param to
+	 *            The end of the text of the node
+	 */
+	private static void setInternal(TreeNode internal, String str, int from, int to) {
+		while (from < to && str.charAt(from) <= ' ') {
+			from++;
+		}
+		while (to > from && str.charAt(to - 1) <= ' ') {
+			to--;
+		}
+		if (from == to) {
+			return;
+		}
+		int colon = str.indexOf(NewickConstants.COLON, from);
+		if (colon != -1 && colon < to) {
+			internal.setLength(NewickNumbers.parseFloat(str, colon + 1, to));
+			internal.setLabel(str.substring(from, colon));
+		} else {
+			internal.setLabel(str.substring(from, to));
+		}
+	}
 }
\ No newline at end of file
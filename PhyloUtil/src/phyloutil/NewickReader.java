@@ -0,0 +1,115 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import phyloutil.misc.NewickConstants;
+
+/**
+ * Reads trees one by one from a stream holding any number of Newick trees,
+ * each terminated by a semicolon. Line breaks are dropped and each tree is
+ * trimmed, as in {@link TreeNodeUtil#load(File)}. Only one tree is kept in
+ * memory at a time.
+ * 
+ * @version $Revision$
+ */
+public class NewickReader {
+
+	/**
+	 * Underlying reader
+	 */
+	private final Reader reader;
+
+	/**
+	 * Creates a reader over a stream of trees
+	 * 
+	 * @param reader
+	 *            {@link Reader} to read the trees from
+	 */
+	public NewickReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+	}
+
+	/**
+	 * Creates a reader over a file of trees
+	 * 
+	 * @param file
+	 *            Tree file
+	 * @throws IOException
+	 */
+	public NewickReader(File file) throws IOException {
+		this(new FileReader(file));
+	}
+
+	/**
+	 * Returns the text of the next tree (with its semicolon)
+	 * 
+	 * @return The next tree string or null at the end of the stream
+	 * @throws IOException
+	 */
+	public String next() throws IOException {
+
+		StringBuffer buffer = new StringBuffer();
+
+		int c;
+
+		while ((c = reader.read()) != -1) {
+			if (c != '\n' && c != '\r') {
+				buffer.append((char) c);
+				if (c == NewickConstants.SEMI_COLON) {
+					return buffer.toString().trim();
+				}
+			}
+		}
+
+		// A last tree without a semicolon
+		String str = buffer.toString().trim();
+		if (str.length() > 0) {
+			return str + NewickConstants.SEMI_COLON;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Parses the next tree
+	 * 
+	 * @return {@link TreeNode} root of the next tree or null at the end of the
+	 *         stream
+	 * @throws IOException
+	 */
+	public TreeNode nextTree() throws IOException {
+		String str = next();
+		return str == null ? null : NewickParser.parse(str);
+	}
+
+	/**
+	 * Closes the underlying reader
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,413 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.NewickConstants;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Rewrites the labels and branch lengths of Newick trees on the fly, one
+ * token at a time, without building the trees.
+ * 
+ * Each node is a token of text (label and optional branch length) before a
+ * comma, a closing parenthesis or a semicolon, and the token after a closing
+ * parenthesis belongs to an internal node. The tokens go through a chain of
+ * {@link Rewrite}s in order, and everything else (parentheses, white space,
+ * the order of the children, untouched branch lengths) is copied as it is, so
+ * the memory used does not grow with the size of the trees. Labels may be
+ * quoted with single quotes.
+ * 
+ * @version $Revision$
+ */
+public final class NewickRewriter {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * A rewrite of the labels and branch lengths of the nodes. The default
+	 * methods leave them unchanged.
+	 */
+	public abstract static class Rewrite {
+
+		/**
+		 * Rewrites the label of a node
+		 * 
+		 * @param label
+		 *            Label (possibly empty)
+		 * @param leaf
+		 *            Whether the node is a leaf
+		 * @return The new label
+		 */
+		public String label(String label, boolean leaf) {
+			return label;
+		}
+
+		/**
+		 * Rewrites the branch length of a node (only called for the nodes
+		 * with a branch length). Returning {@link Float#NaN} removes the
+		 * branch length, and the rest of the chain is skipped.
+		 * 
+		 * @param length
+		 *            Branch length
+		 * @param leaf
+		 *            Whether the node is a leaf
+		 * @return The new branch length
+		 */
+		public float length(float length, boolean leaf) {
+			return length;
+		}
+	}
+
+	/**
+	 * Expecting a leaf token (after an opening parenthesis or a comma)
+	 */
+	private static final int STATE_LEAF = 0;
+
+	/**
+	 * Expecting an internal node token (after a closing parenthesis)
+	 */
+	private static final int STATE_INTERNAL = 1;
+
+	/**
+	 * Between trees (a token before a semicolon is a single leaf tree)
+	 */
+	private static final int STATE_START = 2;
+
+	/**
+	 * Number of characters read at once
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Rewrites, applied in order
+	 */
+	private final List<Rewrite> rewrites = new ArrayList<Rewrite>();
+
+	/**
+	 * Creates a rewriter with no rewrites
+	 */
+	public NewickRewriter() {
+	}
+
+	/**
+	 * Creates a rewriter
+	 * 
+	 * @param rewrites
+	 *            Rewrites, applied in order
+	 */
+	public NewickRewriter(List<Rewrite> rewrites) {
+		this.rewrites.addAll(rewrites);
+	}
+
+	/**
+	 * Adds a rewrite at the end of the chain
+	 * 
+	 * @param rewrite
+	 *            Rewrite
+	 * @return This rewriter
+	 */
+	public NewickRewriter add(Rewrite rewrite) {
+		rewrites.add(rewrite);
+		return this;
+	}
+
+	/**
+	 * Rewrites the trees of a file into another file
+	 * 
+	 * @param infile
+	 *            Input file
+	 * @param outfile
+	 *            Output file
+	 * @return Number of nodes
+	 * @throws Exception
+	 */
+	public long rewrite(File infile, File outfile) throws Exception {
+
+		Reader reader = null;
+		Writer writer = null;
+
+		try {
+			reader = new BufferedReader(new FileReader(infile));
+			writer = new BufferedWriter(new FileWriter(outfile));
+			return rewrite(reader, writer);
+		} catch (Exception exception) {
+			String msg = "Failed rewriting " + infile + ": " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Exception e) {
+					String msg = "Failed closing input file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing output file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rewrites the trees of a stream into another stream (the streams are
+	 * left open)
+	 * 
+	 * @param in
+	 *            Input (buffered by the caller if needed)
+	 * @param out
+	 *            Output (buffered by the caller if needed)
+	 * @return Number of nodes
+	 * @throws IOException
+	 */
+	public long rewrite(Reader in, Writer out) throws IOException {
+
+		StringBuffer token = new StringBuffer();
+
+		int state = STATE_START;
+		boolean quoted = false;
+		long count = 0;
+
+		char[] buffer = new char[BUFFER_SIZE];
+
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			for (int i = 0; i < n; i++) {
+
+				char c = buffer[i];
+
+				if (quoted) {
+					token.append(c);
+					if (c == NewickConstants.SINGLE_QUOTE) {
+						quoted = false;
+					}
+					continue;
+				}
+
+				switch (c) {
+				case NewickConstants.SINGLE_QUOTE:
+					quoted = true;
+					token.append(c);
+					break;
+
+				case NewickConstants.RIGHT_PARENTHESIS:
+					// Opening parenthesis
+					out.write(token.toString());
+					token.setLength(0);
+					out.write(c);
+					state = STATE_LEAF;
+					break;
+
+				case NewickConstants.COMMA:
+				case NewickConstants.LEFT_PARENTHESIS:
+				case NewickConstants.SEMI_COLON:
+					if (state == STATE_START && (c != NewickConstants.SEMI_COLON || token.toString().trim().length() == 0)) {
+						out.write(token.toString());
+					} else {
+						node(token, state != STATE_INTERNAL, out);
+						count++;
+					}
+					token.setLength(0);
+					out.write(c);
+					if (c == NewickConstants.COMMA) {
+						state = STATE_LEAF;
+					} else if (c == NewickConstants.LEFT_PARENTHESIS) {
+						// Closing parenthesis
+						state = STATE_INTERNAL;
+					} else {
+						state = STATE_START;
+					}
+					break;
+
+				default:
+					token.append(c);
+				}
+			}
+		}
+
+		// White space after the last tree
+		out.write(token.toString());
+		out.flush();
+
+		return count;
+	}
+
+	/**
+	 * Rewrites the token of a node, keeping the white space around it
+	 */
+	private void node(StringBuffer token, boolean leaf, Writer out) throws IOException {
+
+		int from = 0;
+		int to = token.length();
+		while (from < to && Character.isWhitespace(token.charAt(from))) {
+			from++;
+		}
+		while (to > from && Character.isWhitespace(token.charAt(to - 1))) {
+			to--;
+		}
+
+		// Last colon outside quotes
+		int colon = -1;
+		boolean quoted = false;
+		for (int i = from; i < to; i++) {
+			char c = token.charAt(i);
+			if (c == NewickConstants.SINGLE_QUOTE) {
+				quoted = !quoted;
+			} else if (c == NewickConstants.COLON && !quoted) {
+				colon = i;
+			}
+		}
+
+		String label = token.substring(from, colon == -1 ? to : colon);
+		String length = colon == -1 ? null : token.substring(colon + 1, to);
+
+		for (Rewrite rewrite : rewrites) {
+			label = rewrite.label(label, leaf);
+		}
+
+		if (length != null && !rewrites.isEmpty()) {
+			float original = NewickNumbers.parseFloat(token, colon + 1, to);
+			float value = original;
+			for (int i = 0; i < rewrites.size() && !Float.isNaN(value); i++) {
+				value = rewrites.get(i).length(value, leaf);
+			}
+			// Untouched lengths keep their original text
+			if (Float.isNaN(value)) {
+				length = null;
+			} else if (Float.floatToIntBits(value) != Float.floatToIntBits(original)) {
+				length = Float.toString(value);
+			}
+		}
+
+		out.write(token.substring(0, from));
+		out.write(label);
+		if (length != null) {
+			out.write(NewickConstants.COLON);
+			out.write(length);
+		}
+		out.write(token.substring(to));
+	}
+
+	/**
+	 * Returns a rewrite that removes the internal labels that are not
+	 * bootstrap values of at least a minimum (as
+	 * {@link TreeNodeUtil#clean(TreeNode, float)})
+	 * 
+	 * @param min
+	 *            Minimum bootstrap value
+	 * @return The rewrite
+	 */
+	public static Rewrite bootstrap(final float min) {
+		return new Rewrite() {
+			public String label(String label, boolean leaf) {
+				if (leaf) {
+					return label;
+				}
+				float bootstrap = TreeNode.isNumber(label) ? NewickNumbers.parseFloat(label, 0, label.length()) : 0;
+				return bootstrap < min ? "" : label;
+			}
+		};
+	}
+
+	/**
+	 * Returns a rewrite that takes the log10 of the scaled branch lengths,
+	 * turning the lengths that are not positive into zero (as
+	 * {@link TreeNodeUtil#transform(TreeNode, float)})
+	 * 
+	 * @param scale
+	 *            Scale of the branch lengths before the log10
+	 * @return The rewrite
+	 */
+	public static Rewrite log10(final float scale) {
+		return new Rewrite() {
+			public float length(float length, boolean leaf) {
+				return length > 0 ? (float) Math.log10(scale * length) : 0;
+			}
+		};
+	}
+
+	/**
+	 * Returns a rewrite that multiplies the branch lengths by a factor
+	 * 
+	 * @param factor
+	 *            Factor
+	 * @return The rewrite
+	 */
+	public static Rewrite scale(final float factor) {
+		return new Rewrite() {
+			public float length(float length, boolean leaf) {
+				return factor * length;
+			}
+		};
+	}
+
+	/**
+	 * Returns a rewrite that removes the branch lengths
+	 * 
+	 * @return The rewrite
+	 */
+	public static Rewrite strip() {
+		return new Rewrite() {
+			public float length(float length, boolean leaf) {
+				return Float.NaN;
+			}
+		};
+	}
+
+	/**
+	 * Returns a rewrite that renames the leaves found in a {@link NameTable},
+	 * leaving the other leaves unchanged
+	 * 
+	 * @param names
+	 *            New name of each old name
+	 * @return The rewrite
+	 */
+	public static Rewrite rename(final NameTable names) {
+		return new Rewrite() {
+			public String label(String label, boolean leaf) {
+				if (!leaf) {
+					return label;
+				}
+				String name = names.get(label);
+				return name == null ? label : name;
+			}
+		};
+	}
+}
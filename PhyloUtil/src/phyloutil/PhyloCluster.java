@@ -18,11 +18,22 @@
 
 package phyloutil;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +42,27 @@ import phyloutil.misc.Commons;
 /**
  * Phylogenetic trees clustering tool
  * 
+ * Two modes are available when more than one overlapping taxon is required.
+ * In the cluster mode (the default), a tree joins a cluster if it shares
+ * enough taxa with the union of the taxa of all the trees of the cluster, so
+ * clusters keep growing as they merge. In the tree mode, two trees are linked
+ * if they share enough taxa with each other and the clusters are the
+ * connected components of these links, which does not depend on the order of
+ * the merges. Both modes are the same with a minimum overlap of one taxon.
+ * 
+ * For very large collections, the Jaccard mode links two trees if the
+ * Jaccard similarity of their taxa (estimated with MinHash signatures, see
+ * {@link MinHashClusterer}) reaches a threshold given instead of the minimum
+ * overlap. The trees are streamed and only their signatures are kept.
+ * 
+ * The hierarchy mode clusters the trees for a list of minimum overlaps, or for
+ * every overlap at which clusters merge, from a single count of the taxa
+ * shared by each pair of trees (tree-level overlap, single linkage), and
+ * writes a nested table with the cluster of each tree at each overlap.
+ * 
+ * The clusters are written as a manifest of the trees by default; folders of
+ * links to or copies of the trees are optional (see {@link ClusterWriter}).
+ * 
  * @author Ahmed Moustafa
  * @version $Revision: 1.2 $
  */
@@ -44,22 +76,111 @@ public class PhyloCluster {
 	/**
 	 * Tree cluster name prefix
 	 */
-	private static final String CLUSTER_PREFIX = "cluster";
+	static final String CLUSTER_PREFIX = "cluster";
+
+	/**
+	 * Overlap between a tree and the union of the taxa of a cluster
+	 */
+	public static final String MODE_CLUSTER = "cluster";
+
+	/**
+	 * Overlap between two trees
+	 */
+	public static final String MODE_TREE = "tree";
+
+	/**
+	 * Approximate Jaccard similarity between two trees
+	 */
+	public static final String MODE_JACCARD = "jaccard";
+
+	/**
+	 * Clusters for several minimum overlaps between two trees
+	 */
+	public static final String MODE_HIERARCHY = "hierarchy";
+
+	/**
+	 * All the minimum overlaps at which clusters merge
+	 */
+	public static final String THRESHOLDS_ALL = "all";
+
+	/**
+	 * Name of the hierarchy table in the output folder
+	 */
+	public static final String HIERARCHY_FILE_NAME = "hierarchy.tsv";
+
+	/**
+	 * Default mode
+	 */
+	public static final String DEFAULT_MODE = MODE_CLUSTER;
+
+	/**
+	 * A tree loaded in a cluster by itself
+	 */
+	private static final class LoadedTree {
+
+		/**
+		 * File name
+		 */
+		private String name;
+
+		/**
+		 * Cluster of the tree (empty if the tree failed to load)
+		 */
+		private TreeCluster cluster;
+
+		/**
+		 * Structural hash (null if the tree failed to load)
+		 */
+		private String key;
+
+		/**
+		 * Number of taxa
+		 */
+		private int taxa;
+	}
 
 	/**
 	 * @param args
 	 *            The command line arguments
 	 */
 	public static void main(String[] args) {
-		if (args.length == 3) {
+		if (args.length >= 3 && args.length <= 5) {
 			try {
 				String ifolder = args[0]; // Folder with input trees
 				String ofolder = args[1]; // Folder for output trees
-				int minimum = Integer.parseInt(args[2]); // Minimum number of
-				// overlapping OTUs
+				String mode = args.length >= 4 ? args[3] : DEFAULT_MODE;
+				String output = args.length == 5 ? args[4] : ClusterWriter.DEFAULT_OUTPUT;
 
 				int in = new File(ifolder).list().length;
-				int out = cluster(ifolder, ofolder, minimum).size();
+				String out = null;
+
+				if (mode.equalsIgnoreCase(MODE_JACCARD)) {
+					float threshold = Float.parseFloat(args[2]); // Minimum
+					// Jaccard similarity
+					out = Integer.toString(approximate(ifolder, ofolder, threshold, output).size());
+				} else if (mode.equalsIgnoreCase(MODE_HIERARCHY)) {
+					int[] thresholds = null; // Minimum numbers of overlapping
+					// OTUs, comma separated, or all
+					if (!args[2].equalsIgnoreCase(THRESHOLDS_ALL)) {
+						String[] tokens = args[2].split(",");
+						thresholds = new int[tokens.length];
+						for (int i = 0; i < tokens.length; i++) {
+							thresholds[i] = Integer.parseInt(tokens[i].trim());
+						}
+					}
+					StringBuffer buffer = new StringBuffer();
+					for (Integer count : hierarchy(ifolder, ofolder, thresholds).values()) {
+						if (buffer.length() > 0) {
+							buffer.append(Commons.TAB);
+						}
+						buffer.append(count);
+					}
+					out = buffer.toString();
+				} else {
+					int minimum = Integer.parseInt(args[2]); // Minimum number of
+					// overlapping OTUs
+					out = Integer.toString(cluster(ifolder, ofolder, minimum, mode, output).size());
+				}
 				
 				
 				System.out.println (ifolder + Commons.TAB + in + Commons.TAB + out);
@@ -71,6 +192,8 @@ public class PhyloCluster {
 			}
 		} else {
 			logger.severe("Invalid number of arguments: " + args.length);
+			String outputs = "[" + ClusterWriter.OUTPUT_MANIFEST + "|" + ClusterWriter.OUTPUT_BINARY + "|" + ClusterWriter.OUTPUT_LINK + "|" + ClusterWriter.OUTPUT_SYMLINK + "|" + ClusterWriter.OUTPUT_COPY + "]";
+			System.err.println("Expected: infolder outfolder minimum [" + MODE_CLUSTER + "|" + MODE_TREE + "] " + outputs + " or infolder outfolder threshold " + MODE_JACCARD + " " + outputs + " or infolder outfolder minimum,minimum,...|" + THRESHOLDS_ALL + " " + MODE_HIERARCHY);
 			System.exit(1);
 		}
 	}
@@ -102,111 +225,665 @@ public class PhyloCluster {
 	 * @throws Exception
 	 */
 	public static List<TreeCluster> cluster(String infolder, String outfolder, int minimumOverlap) throws Exception {
+		return cluster(infolder, outfolder, minimumOverlap, DEFAULT_MODE);
+	}
+
+	/**
+	 * Clusters trees from an input folder
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 * @param mode
+	 *            {@link #MODE_CLUSTER} or {@link #MODE_TREE}
+	 * @return Clustered trees
+	 * @throws Exception
+	 */
+	public static List<TreeCluster> cluster(String infolder, String outfolder, int minimumOverlap, String mode) throws Exception {
+		return cluster(infolder, outfolder, minimumOverlap, mode, ClusterWriter.DEFAULT_OUTPUT);
+	}
+
+	/**
+	 * Clusters trees from an input folder
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 * @param mode
+	 *            {@link #MODE_CLUSTER} or {@link #MODE_TREE}
+	 * @param output
+	 *            Output of the clusters (see {@link ClusterWriter})
+	 * @return Clustered trees
+	 * @throws Exception
+	 */
+	public static List<TreeCluster> cluster(String infolder, String outfolder, int minimumOverlap, String mode, String output) throws Exception {
 		try {
 
-			File idir = new File(infolder);
-			String[] files = idir.list();
+			if (!mode.equalsIgnoreCase(MODE_CLUSTER) && !mode.equalsIgnoreCase(MODE_TREE)) {
+				throw new Exception("Invalid mode: " + mode);
+			}
+
+			if (!ClusterWriter.isValid(output)) {
+				throw new Exception("Invalid output: " + output);
+			}
 
 			File odir = new File(outfolder);
 			if (!odir.exists()) {
 				odir.mkdir();
 			}
 
-			int total = 0;
-
 			long start1 = System.currentTimeMillis();
 
-			List<TreeCluster> clusters = new ArrayList<TreeCluster>();
+			logger.info("Started clustering trees...");
+
+			// Number of taxa of each tree
+			Map<String, Integer> taxa = new HashMap<String, Integer>();
+
+			List<TreeCluster> clusters = load(infolder, taxa, minimumOverlap, true);
+
+			if (minimumOverlap <= 1) {
+				clusters = components(clusters);
+			} else if (mode.equalsIgnoreCase(MODE_TREE)) {
+				clusters = components(clusters, minimumOverlap);
+			} else {
+				clusters = rounds(clusters, minimumOverlap);
+			}
+
+			long end1 = System.currentTimeMillis();
+
+			logger.info("Found: " + clusters.size() + " clusters");
+
+			logger.info("Finished clustering trees in " + (end1 - start1) + " milliseconds");
+
+			List<List<String>> trees = new ArrayList<List<String>>();
+			for (TreeCluster cluster : clusters) {
+				List<String> names = new ArrayList<String>();
+				for (String name : cluster.getFiles()) {
+					names.add(name);
+				}
+				trees.add(names);
+			}
+
+			ClusterWriter.write(infolder, outfolder, trees, taxa, output);
+
+			return clusters;
+
+		} catch (Exception exception) {
+			String msg = "Failed clustering trees: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg);
+		}
+	}
+
+	/**
+	 * Loads the trees of an input folder in parallel, each tree in a cluster
+	 * by itself
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param taxa
+	 *            Map receiving the number of taxa of each tree
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 * @param deduplicate
+	 *            Whether the trees identical to an already loaded one join
+	 *            its cluster directly
+	 * @return The clusters, in file name order (a tree that fails to load
+	 *         gives an empty cluster)
+	 * @throws Exception
+	 */
+	private static List<TreeCluster> load(String infolder, Map<String, Integer> taxa, int minimumOverlap, boolean deduplicate) throws Exception {
+
+		String[] files = new File(infolder).list();
+		Arrays.sort(files);
+
+		List<TreeCluster> clusters = new ArrayList<TreeCluster>();
+
+		// Clusters of the distinct trees by their structural hash
+		Map<String, TreeCluster> distinct = new HashMap<String, TreeCluster>();
+
+		// Dense ids of the taxa and trees of this run
+		final TaxonDictionary taxonIds = new TaxonDictionary();
+		final TaxonDictionary treeIds = new TaxonDictionary();
+
+		// Tree ids in file name order, whatever the loading order
+		List<File> infiles = new ArrayList<File>();
+		for (String filename : files) {
+			File infile = new File(infolder + Commons.getFileSeparator() + filename);
+			if (infile.isFile() && infile.canRead()) {
+				infiles.add(infile);
+				treeIds.add(filename);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+		try {
+			// Load all trees in parallel
+			List<Future<LoadedTree>> futures = new ArrayList<Future<LoadedTree>>();
+			for (final File infile : infiles) {
+				futures.add(executor.submit(new Callable<LoadedTree>() {
+					public LoadedTree call() {
+						return load(infile, taxonIds, treeIds);
+					}
+				}));
+			}
+
+			// Put each tree in a cluster by itself, except the trees
+			// identical to an already loaded one: these would be merged
+			// with it anyway, so they join its cluster directly
+			for (Future<LoadedTree> future : futures) {
+				LoadedTree loaded = future.get();
+				if (loaded.key == null) {
+					clusters.add(loaded.cluster);
+				} else {
+					taxa.put(loaded.name, Integer.valueOf(loaded.taxa));
+					TreeCluster cluster = deduplicate ? distinct.get(loaded.key) : null;
+					if (cluster != null) {
+						cluster.merge(loaded.cluster);
+					} else {
+						clusters.add(loaded.cluster);
+						// A tree with fewer taxa than the minimum overlap
+						// does not overlap its copies
+						if (deduplicate && loaded.cluster.overlaps(loaded.cluster, minimumOverlap)) {
+							distinct.put(loaded.key, loaded.cluster);
+						}
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		logger.info("Processed: " + infiles.size() + " trees");
+
+		return clusters;
+	}
+
+	/**
+	 * Loads a tree in a cluster by itself
+	 * 
+	 * @param infile
+	 *            Tree file
+	 * @param taxonIds
+	 *            Dictionary of the taxa
+	 * @param treeIds
+	 *            Dictionary of the tree file names
+	 * @return The loaded tree
+	 */
+	private static LoadedTree load(File infile, TaxonDictionary taxonIds, TaxonDictionary treeIds) {
+
+		long start = System.currentTimeMillis();
+
+		LoadedTree loaded = new LoadedTree();
+		loaded.name = infile.getName();
+		loaded.cluster = new TreeCluster(taxonIds, treeIds);
+
+		logger.info("Processing: " + loaded.name + " ... ");
+
+		try {
+			TreeNode tree = TreeNodeUtil.load(infile);
+			loaded.cluster.add(infile, tree);
+			loaded.taxa = loaded.cluster.getTaxonCount();
+			loaded.key = CanonicalTree.key(tree, false, false);
+		} catch (Exception e) {
+			String msg = "Failed adding '" + loaded.name + "': " + e.getMessage();
+			logger.log(Level.SEVERE, msg, e);
+			loaded.cluster = new TreeCluster(taxonIds, treeIds);
+			loaded.key = null;
+		}
+
+		logger.info("Finished processing " + loaded.name + " in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+		return loaded;
+	}
+
+	/**
+	 * Clusters the trees of an input folder by the approximate Jaccard
+	 * similarity of their taxa
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param threshold
+	 *            Minimum Jaccard similarity
+	 * @return The file names of the trees of each cluster
+	 * @throws Exception
+	 */
+	public static List<List<String>> approximate(String infolder, String outfolder, float threshold) throws Exception {
+		return approximate(infolder, outfolder, threshold, ClusterWriter.DEFAULT_OUTPUT);
+	}
+
+	/**
+	 * Clusters the trees of an input folder by the approximate Jaccard
+	 * similarity of their taxa
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param threshold
+	 *            Minimum Jaccard similarity
+	 * @param output
+	 *            Output of the clusters (see {@link ClusterWriter})
+	 * @return The file names of the trees of each cluster
+	 * @throws Exception
+	 */
+	public static List<List<String>> approximate(String infolder, String outfolder, float threshold, String output) throws Exception {
+		try {
+
+			if (!ClusterWriter.isValid(output)) {
+				throw new Exception("Invalid output: " + output);
+			}
+
+			File odir = new File(outfolder);
+			if (!odir.exists()) {
+				odir.mkdir();
+			}
+
+			long start = System.currentTimeMillis();
+
+			MinHashClusterer clusterer = new MinHashClusterer(threshold);
+
+			// Number of taxa of each tree
+			Map<String, Integer> counts = new HashMap<String, Integer>();
 
 			logger.info("Started clustering trees...");
 
-			// Load all trees and put each tree in a cluster by itself
+			String[] files = new File(infolder).list();
+			Arrays.sort(files);
+
 			for (String filename : files) {
-				String infullpath = infolder + Commons.getFileSeparator() + filename;
-				File infile = new File(infullpath);
+				File infile = new File(infolder + Commons.getFileSeparator() + filename);
 				if (infile.isFile() && infile.canRead()) {
-					long start2 = System.currentTimeMillis();
-					total++;
-					logger.info("Processing: " + filename + " ... ");
-					TreeCluster cluster = new TreeCluster();
-					cluster.add(infile);
-					clusters.add(cluster);
-					long end2 = System.currentTimeMillis();
-					logger.info("Finished processing " + filename + " in " + (end2 - start2) + " milliseconds");
+					List<String> taxa = new ArrayList<String>();
+					try {
+						for (TreeNode node : TreeNodeUtil.load(infile).iterator()) {
+							taxa.add(node.getLabel());
+						}
+					} catch (Exception e) {
+						String msg = "Failed adding '" + filename + "': " + e.getMessage();
+						logger.log(Level.SEVERE, msg, e);
+					}
+					counts.put(filename, Integer.valueOf(new HashSet<String>(taxa).size()));
+					clusterer.add(filename, taxa);
 				}
 			}
 
-			boolean finished = true;
-			int round = 0;
+			List<List<String>> clusters = clusterer.getClusters();
 
-			// Start clustering
-			do {
-				logger.info("Clustering round # " + ++round);
-				finished = true;
+			logger.info("Processed: " + clusterer.size() + " trees");
+			logger.info("Found: " + clusters.size() + " clusters after " + clusterer.getComparisons() + " comparisons");
 
-				List<TreeCluster> remove = new ArrayList<TreeCluster>();
+			float[] evaluation = clusterer.evaluate();
+			logger.info("Sampled pairs: recall = " + evaluation[0] + ", precision = " + evaluation[1] + " (" + (int) evaluation[2] + " exact pairs, " + (int) evaluation[3] + " found pairs)");
 
-				for (int i = 0, n = clusters.size(); i < n - 1; i++) {
+			logger.info("Finished clustering trees in " + (System.currentTimeMillis() - start) + " milliseconds");
 
-					TreeCluster cluster1 = clusters.get(i);
+			ClusterWriter.write(infolder, outfolder, clusters, counts, output);
 
-					for (int j = i + 1; j < n; j++) {
+			return clusters;
 
-						TreeCluster cluster2 = clusters.get(j);
+		} catch (Exception exception) {
+			String msg = "Failed clustering trees: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg);
+		}
+	}
+
+	/**
+	 * Merges the clusters that share at least one taxon. The clusters are
+	 * the connected components of the graph linking each cluster to its
+	 * taxa: each cluster is joined, in a {@link ConcurrentUnionFind}, with the
+	 * first cluster that claimed each of its taxa, so the time is linear in
+	 * the total number of taxa of the clusters. The clusters are shared by
+	 * all the available processors.
+	 * 
+	 * @param clusters
+	 *            Clusters to be merged
+	 * @return The merged clusters, in the order of their first cluster
+	 * @throws Exception
+	 */
+	public static List<TreeCluster> components(List<TreeCluster> clusters) throws Exception {
+
+		long start = System.currentTimeMillis();
+
+		final int n = clusters.size();
+
+		final int[][] taxa = new int[n][];
+		int m = ids(clusters, taxa);
+
+		// First cluster (plus one) of each taxon
+		final AtomicIntegerArray first = new AtomicIntegerArray(m);
+
+		final ConcurrentUnionFind sets = new ConcurrentUnionFind(n);
+
+		final int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
 
-						if (cluster1.overlaps(cluster2, minimumOverlap)) {
-							// Merge two overlapping clustering
-							cluster1.merge(cluster2);
-							remove.add(cluster2);
-							finished = false;
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int t = 0; t < threads; t++) {
+				final int offset = t;
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						for (int i = offset; i < n; i += threads) {
+							for (int taxon : taxa[i]) {
+								if (!first.compareAndSet(taxon, 0, i + 1)) {
+									sets.union(i, first.get(taxon) - 1);
+								}
+							}
 						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		List<TreeCluster> merged = merge(clusters, sets);
+
+		logger.info("Finished clustering in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+		return merged;
+	}
+
+	/**
+	 * Merges the clusters that share at least a minimum number of taxa with
+	 * each other (not with the merged clusters). The shared taxa of each pair
+	 * of clusters are counted through an inverted index of the taxa, so only
+	 * the pairs sharing at least one taxon are visited, and the pairs reaching
+	 * the minimum overlap are joined in a {@link ConcurrentUnionFind}. The
+	 * rows of the count are shared by all the available processors.
+	 * 
+	 * @param clusters
+	 *            Clusters to be merged
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 * @return The merged clusters, in the order of their first cluster
+	 * @throws Exception
+	 */
+	public static List<TreeCluster> components(List<TreeCluster> clusters, final int minimumOverlap) throws Exception {
+
+		if (minimumOverlap <= 1) {
+			return components(clusters);
+		}
+
+		long start = System.currentTimeMillis();
+
+		final int n = clusters.size();
+
+		// Dense taxon ids and sorted postings (cluster indices) per taxon
+		final int[][] taxa = new int[n][];
+		int[] lengths = new int[ids(clusters, taxa)];
+		for (int i = 0; i < n; i++) {
+			for (int taxon : taxa[i]) {
+				lengths[taxon]++;
+			}
+		}
+		final int[][] postings = new int[lengths.length][];
+		for (int t = 0; t < lengths.length; t++) {
+			postings[t] = new int[lengths[t]];
+			lengths[t] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int taxon : taxa[i]) {
+				postings[taxon][lengths[taxon]++] = i;
+			}
+		}
+
+		final int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		final ConcurrentUnionFind sets = new ConcurrentUnionFind(n);
+		int links = 0;
+
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() {
+						return Integer.valueOf(pairs(taxa, postings, minimumOverlap, first, threads, sets));
+					}
+				}));
+			}
+
+			for (Future<Integer> future : futures) {
+				links += future.get().intValue();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		List<TreeCluster> merged = merge(clusters, sets);
+
+		logger.info("Finished clustering with " + links + " overlapping pairs in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+		return merged;
+	}
+
+	/**
+	 * Counts the shared taxa of the pairs (i, j), with i &lt; j, for the rows
+	 * i = first, first + step, ... in a sparse accumulator (a dense count array
+	 * and the list of its non-zero entries, which is all that is cleared
+	 * between rows), and joins the pairs reaching the minimum overlap
+	 * 
+	 * @return The number of pairs reaching the minimum overlap
+	 */
+	private static int pairs(int[][] taxa, int[][] postings, int minimumOverlap, int first, int step, ConcurrentUnionFind sets) {
+
+		int n = taxa.length;
+
+		int[] counts = new int[n];
+		int[] touched = new int[n];
+		int links = 0;
+
+		for (int i = first; i < n; i += step) {
+
+			int m = 0;
+
+			for (int taxon : taxa[i]) {
+				int[] posting = postings[taxon];
+				// Only the pairs with a larger index
+				int k = Arrays.binarySearch(posting, i) + 1;
+				for (; k < posting.length; k++) {
+					int j = posting[k];
+					if (counts[j] == 0) {
+						touched[m++] = j;
+					}
+					if (++counts[j] == minimumOverlap) {
+						sets.union(i, j);
+						links++;
 					}
 				}
-				// Remove clusters that have been merged into others
-				clusters.removeAll(remove);
-			} while (!finished);
+			}
 
-			logger.info("Finished clustering in " + round + " rounds(s)");
+			for (int k = 0; k < m; k++) {
+				counts[touched[k]] = 0;
+			}
+		}
 
-			long end1 = System.currentTimeMillis();
+		return links;
+	}
 
-			logger.info("Processed: " + total + " trees");
-			logger.info("Found: " + clusters.size() + " clusters");
+	/**
+	 * Clusters the trees of an input folder for several minimum overlaps
+	 * between two trees and writes the nested table of the clusters (see
+	 * {@link #HIERARCHY_FILE_NAME}). The taxa shared by each pair of trees
+	 * are counted once, and the pairs are joined by decreasing overlap in a
+	 * {@link UnionFind}, so the clusters of each minimum overlap are those of
+	 * {@link #MODE_TREE} and nest into the clusters of the smaller ones.
+	 * 
+	 * The table has one line per tree with its file name and its cluster
+	 * number for each minimum overlap, in increasing order of the minimum
+	 * overlaps. Clusters are numbered in the order of their first tree, and
+	 * the lines are sorted by cluster.
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param thresholds
+	 *            Minimum numbers of overlapping taxa, or null for every
+	 *            number at which clusters merge
+	 * @return The number of clusters for each minimum overlap, in increasing
+	 *         order of the minimum overlaps
+	 * @throws Exception
+	 */
+	public static Map<Integer, Integer> hierarchy(String infolder, String outfolder, int[] thresholds) throws Exception {
+		try {
 
-			logger.info("Finished clustering trees in " + (end1 - start1) + " milliseconds");
+			File odir = new File(outfolder);
+			if (!odir.exists()) {
+				odir.mkdir();
+			}
 
-			StringBuffer buffer = new StringBuffer();
-			buffer.append(CLUSTER_PREFIX);
-			for (int i = 0, n = new Integer(clusters.size()).toString().length(); i < n; i++) {
-				buffer.append("0");
+			long start = System.currentTimeMillis();
+
+			logger.info("Started clustering trees...");
+
+			List<TreeCluster> clusters = new ArrayList<TreeCluster>();
+			for (TreeCluster cluster : load(infolder, new HashMap<String, Integer>(), 1, false)) {
+				if (cluster.size() > 0) {
+					clusters.add(cluster);
+				}
 			}
 
-			NumberFormat numberFormat = new DecimalFormat(buffer.toString());
-			
-			logger.info("Writing clusters to destination folder...");
+			final int n = clusters.size();
 
-			int i = 1;
-			for (TreeCluster cluster : clusters) {
+			final int[][] taxa = new int[n][];
+			int m = ids(clusters, taxa);
 
-				String id = numberFormat.format(i);
+			// Minimum overlaps in decreasing order
+			int[] levels = null;
+			int smallest = 2;
+			if (thresholds != null) {
+				int[] sorted = thresholds.clone();
+				Arrays.sort(sorted);
+				List<Integer> distinct = new ArrayList<Integer>();
+				for (int i = sorted.length - 1; i >= 0; i--) {
+					int threshold = Math.max(1, sorted[i]);
+					if (distinct.isEmpty() || distinct.get(distinct.size() - 1).intValue() != threshold) {
+						distinct.add(Integer.valueOf(threshold));
+					}
+				}
+				levels = new int[distinct.size()];
+				for (int i = 0; i < levels.length; i++) {
+					levels[i] = distinct.get(i).intValue();
+				}
+				// One shared taxon is handled without counting the pairs
+				smallest = levels[levels.length - 1] > 1 ? levels[levels.length - 1] : levels.length > 1 ? levels[levels.length - 2] : Integer.MAX_VALUE;
+			}
 
-				File dir = new File(outfolder + Commons.getFileSeparator() + id);
-				dir.mkdir();
+			int[] edges = smallest == Integer.MAX_VALUE ? new int[1] : edges(taxa, m, smallest);
+			int links = edges[0];
 
-				for (String tree : cluster.getFiles()) {
+			// Pairs by decreasing overlap (counting sort)
+			int maximum = 1;
+			for (int e = 0; e < links; e++) {
+				maximum = Math.max(maximum, edges[3 * e + 3]);
+			}
+			int[] offsets = new int[maximum + 2];
+			for (int e = 0; e < links; e++) {
+				offsets[maximum - edges[3 * e + 3] + 1]++;
+			}
+			for (int w = 1; w < offsets.length; w++) {
+				offsets[w] += offsets[w - 1];
+			}
+			int[] order = new int[links];
+			for (int e = 0; e < links; e++) {
+				order[offsets[maximum - edges[3 * e + 3]]++] = e;
+			}
 
-					File ifile = new File(infolder + Commons.getFileSeparator() + tree);
-					File ofile = new File(dir.getPath() + Commons.getFileSeparator() + tree);
+			if (levels == null) {
+				List<Integer> weights = new ArrayList<Integer>();
+				for (int e = 0; e < links; e++) {
+					int weight = edges[3 * order[e] + 3];
+					if (weights.isEmpty() || weights.get(weights.size() - 1).intValue() != weight) {
+						weights.add(Integer.valueOf(weight));
+					}
+				}
+				weights.add(Integer.valueOf(1));
+				levels = new int[weights.size()];
+				for (int i = 0; i < levels.length; i++) {
+					levels[i] = weights.get(i).intValue();
+				}
+			}
 
-					Commons.copy(ifile, ofile);
+			UnionFind sets = new UnionFind(n);
+
+			List<Integer> kept = new ArrayList<Integer>();
+			List<int[]> labels = new ArrayList<int[]>();
+			List<Integer> counts = new ArrayList<Integer>();
+
+			int e = 0;
+			for (int level : levels) {
+
+				int count = sets.count();
+
+				if (level > 1) {
+					for (; e < links && edges[3 * order[e] + 3] >= level; e++) {
+						sets.union(edges[3 * order[e] + 1], edges[3 * order[e] + 2]);
+					}
+				} else {
+					// Joins each tree with the first tree of each of its taxa
+					int[] first = new int[m];
+					for (int i = 0; i < n; i++) {
+						for (int taxon : taxa[i]) {
+							if (first[taxon] == 0) {
+								first[taxon] = i + 1;
+							} else {
+								sets.union(i, first[taxon] - 1);
+							}
+						}
+					}
 				}
 
-				i++;
+				// For every overlap, only the ones that merge clusters are kept
+				if (thresholds == null && level > 1 && !labels.isEmpty() && sets.count() == count) {
+					continue;
+				}
+
+				int[] label = new int[n];
+				int[] numbers = new int[n];
+				int number = 0;
+				for (int i = 0; i < n; i++) {
+					int root = sets.find(i);
+					if (numbers[root] == 0) {
+						numbers[root] = ++number;
+					}
+					label[i] = numbers[root];
+				}
+
+				kept.add(0, Integer.valueOf(level));
+				labels.add(0, label);
+				counts.add(0, Integer.valueOf(number));
 			}
-			
-			logger.info("Finished writing clusters to destination folder");
 
-			return clusters;
+			logger.info("Finished clustering with " + links + " overlapping pairs for " + kept.size() + " minimum overlaps in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			write(outfolder + Commons.getFileSeparator() + HIERARCHY_FILE_NAME, clusters, kept, labels);
+
+			Map<Integer, Integer> sizes = new LinkedHashMap<Integer, Integer>();
+			for (int i = 0; i < kept.size(); i++) {
+				sizes.put(kept.get(i), counts.get(i));
+			}
+
+			return sizes;
 
 		} catch (Exception exception) {
 			String msg = "Failed clustering trees: " + exception.getMessage();
@@ -214,4 +891,383 @@ public class PhyloCluster {
 			throw new Exception(msg);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Writes the nested table of the clusters of the trees
+	 * 
+	 * @param filename
+	 *            Output file
+	 * @param clusters
+	 *            Clusters of one tree each
+	 * @param levels
+	 *            Minimum overlaps in increasing order
+	 * @param labels
+	 *            Cluster number of each tree for each minimum overlap
+	 * @throws Exception
+	 */
+	private static void write(String filename, List<TreeCluster> clusters, List<Integer> levels, final List<int[]> labels) throws Exception {
+
+		int n = clusters.size();
+
+		// Lines by cluster at each minimum overlap, then in input order
+		Integer[] lines = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			lines[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(lines, new Comparator<Integer>() {
+			public int compare(Integer line1, Integer line2) {
+				for (int[] label : labels) {
+					int difference = label[line1.intValue()] - label[line2.intValue()];
+					if (difference != 0) {
+						return difference;
+					}
+				}
+				return line1.intValue() - line2.intValue();
+			}
+		});
+
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(filename));
+
+			StringBuffer buffer = new StringBuffer();
+			buffer.append(Commons.COMMENT_STARTER);
+			buffer.append("tree");
+			for (Integer level : levels) {
+				buffer.append(Commons.TAB);
+				buffer.append(level);
+			}
+			writer.write(buffer.toString());
+			writer.newLine();
+
+			for (Integer line : lines) {
+				buffer.setLength(0);
+				buffer.append(clusters.get(line.intValue()).getFiles().iterator().next());
+				for (int[] label : labels) {
+					buffer.append(Commons.TAB);
+					buffer.append(label[line.intValue()]);
+				}
+				writer.write(buffer.toString());
+				writer.newLine();
+			}
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing " + filename + ": " + e.getMessage();
+					logger.log(Level.SEVERE, msg, e);
+					throw new Exception(msg, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the pairs of clusters sharing at least a minimum number of
+	 * taxa, with the number of shared taxa, counted by all the available
+	 * processors
+	 * 
+	 * @param taxa
+	 *            Taxon ids of each cluster
+	 * @param m
+	 *            Number of taxon ids
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 * @return The number of pairs followed by the two clusters and the
+	 *         number of shared taxa of each pair
+	 * @throws Exception
+	 */
+	private static int[] edges(final int[][] taxa, int m, final int minimumOverlap) throws Exception {
+
+		int n = taxa.length;
+
+		int[] lengths = new int[m];
+		for (int i = 0; i < n; i++) {
+			for (int taxon : taxa[i]) {
+				lengths[taxon]++;
+			}
+		}
+		final int[][] postings = new int[m][];
+		for (int t = 0; t < m; t++) {
+			postings[t] = new int[lengths[t]];
+			lengths[t] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			for (int taxon : taxa[i]) {
+				postings[taxon][lengths[taxon]++] = i;
+			}
+		}
+
+		final int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		List<int[]> parts = new ArrayList<int[]>();
+		int size = 0;
+
+		try {
+			List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				futures.add(executor.submit(new Callable<int[]>() {
+					public int[] call() {
+						return weights(taxa, postings, minimumOverlap, first, threads);
+					}
+				}));
+			}
+			for (Future<int[]> future : futures) {
+				int[] part = future.get();
+				parts.add(part);
+				size += part[0];
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		int[] edges = new int[3 * size + 1];
+		edges[0] = size;
+		int offset = 1;
+		for (int[] part : parts) {
+			System.arraycopy(part, 1, edges, offset, 3 * part[0]);
+			offset += 3 * part[0];
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Counts the shared taxa of the pairs (i, j), with i &lt; j, for the rows
+	 * i = first, first + step, ... like {@link #pairs}, and keeps the pairs
+	 * reaching the minimum overlap with their final count
+	 * 
+	 * @return The number of pairs followed by the two clusters and the number
+	 *         of shared taxa of each pair
+	 */
+	private static int[] weights(int[][] taxa, int[][] postings, int minimumOverlap, int first, int step) {
+
+		int n = taxa.length;
+
+		int[] counts = new int[n];
+		int[] touched = new int[n];
+		int[] edges = new int[64];
+		int size = 0;
+
+		for (int i = first; i < n; i += step) {
+
+			int m = 0;
+
+			for (int taxon : taxa[i]) {
+				int[] posting = postings[taxon];
+				// Only the pairs with a larger index
+				int k = Arrays.binarySearch(posting, i) + 1;
+				for (; k < posting.length; k++) {
+					int j = posting[k];
+					if (counts[j]++ == 0) {
+						touched[m++] = j;
+					}
+				}
+			}
+
+			for (int k = 0; k < m; k++) {
+				int j = touched[k];
+				if (counts[j] >= minimumOverlap) {
+					if (3 * size + 4 > edges.length) {
+						int[] grown = new int[2 * edges.length];
+						System.arraycopy(edges, 0, grown, 0, 3 * size + 1);
+						edges = grown;
+					}
+					edges[3 * size + 1] = i;
+					edges[3 * size + 2] = j;
+					edges[3 * size + 3] = counts[j];
+					size++;
+				}
+				counts[j] = 0;
+			}
+		}
+
+		edges[0] = size;
+
+		return edges;
+	}
+
+	/**
+	 * Returns the taxon ids of each cluster. The ids of the dictionary of the
+	 * clusters are used if they all share it, otherwise the taxa are given
+	 * new ids.
+	 * 
+	 * @param clusters
+	 *            Clusters
+	 * @param taxa
+	 *            Array receiving the taxon ids of each cluster
+	 * @return The number of taxon ids
+	 */
+	private static int ids(List<TreeCluster> clusters, int[][] taxa) {
+		int n = clusters.size();
+		TaxonDictionary dictionary = n == 0 ? new TaxonDictionary() : clusters.get(0).getTaxonDictionary();
+		boolean shared = true;
+		for (int i = 0; i < n && shared; i++) {
+			shared = clusters.get(i).getTaxonDictionary() == dictionary;
+		}
+		if (shared) {
+			for (int i = 0; i < n; i++) {
+				taxa[i] = clusters.get(i).getTaxonIds();
+			}
+			return dictionary.size();
+		}
+		dictionary = new TaxonDictionary();
+		for (int i = 0; i < n; i++) {
+			List<Integer> ids = new ArrayList<Integer>();
+			for (String taxon : clusters.get(i).getTaxa()) {
+				ids.add(Integer.valueOf(dictionary.add(taxon)));
+			}
+			taxa[i] = new int[ids.size()];
+			for (int j = 0; j < taxa[i].length; j++) {
+				taxa[i][j] = ids.get(j).intValue();
+			}
+		}
+		return dictionary.size();
+	}
+
+	/**
+	 * Merges the clusters of each set
+	 * 
+	 * @param clusters
+	 *            Clusters to be merged
+	 * @param sets
+	 *            Sets of the cluster indices
+	 * @return The merged clusters, in the order of their first cluster
+	 */
+	private static List<TreeCluster> merge(List<TreeCluster> clusters, ConcurrentUnionFind sets) {
+
+		List<TreeCluster> merged = new ArrayList<TreeCluster>();
+		Map<Integer, TreeCluster> roots = new HashMap<Integer, TreeCluster>();
+
+		for (int i = 0, n = clusters.size(); i < n; i++) {
+			Integer root = Integer.valueOf(sets.find(i));
+			TreeCluster cluster = roots.get(root);
+			if (cluster == null) {
+				cluster = new TreeCluster(clusters.get(i).getTaxonDictionary(), clusters.get(i).getTreeDictionary());
+				roots.put(root, cluster);
+				merged.add(cluster);
+			}
+			cluster.merge(clusters.get(i));
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Merges overlapping clusters pairwise in rounds until no two clusters
+	 * overlap. Each cluster absorbs, in order, the following clusters that
+	 * overlap it as it grows; the next overlapping cluster is searched by all
+	 * the available processors, a window of clusters at a time, which gives
+	 * the same merges as a sequential search.
+	 * 
+	 * @param clusters
+	 *            Clusters to be merged
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa
+	 * @return The merged clusters
+	 * @throws Exception
+	 */
+	private static List<TreeCluster> rounds(List<TreeCluster> clusters, int minimumOverlap) throws Exception {
+
+		boolean finished = true;
+		int round = 0;
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+			// Start clustering
+			do {
+				logger.info("Clustering round # " + ++round);
+				finished = true;
+
+				List<TreeCluster> remove = new ArrayList<TreeCluster>();
+
+				for (int i = 0, n = clusters.size(); i < n - 1; i++) {
+
+					TreeCluster cluster1 = clusters.get(i);
+
+					int j = i + 1;
+					while ((j = next(executor, threads, cluster1, clusters, j, minimumOverlap)) < n) {
+						// Merge two overlapping clustering
+						TreeCluster cluster2 = clusters.get(j);
+						cluster1.merge(cluster2);
+						remove.add(cluster2);
+						finished = false;
+						j++;
+					}
+				}
+				// Remove clusters that have been merged into others
+				clusters.removeAll(remove);
+			} while (!finished);
+		} finally {
+			executor.shutdown();
+		}
+
+		logger.info("Finished clustering in " + round + " rounds(s)");
+
+		return clusters;
+	}
+
+	/**
+	 * Returns the index of the first cluster, from a given index on, that
+	 * overlaps a cluster (or the number of clusters if none does). Each
+	 * window of clusters is cut into one slice per thread.
+	 */
+	private static int next(ExecutorService executor, int threads, final TreeCluster cluster, final List<TreeCluster> clusters, int from, final int minimumOverlap) throws Exception {
+
+		int n = clusters.size();
+
+		// Small searches are not worth the threads
+		int slice = 64;
+
+		for (int start = from; start < n; start += threads * slice) {
+
+			int end = Math.min(n, start + threads * slice);
+
+			if (threads == 1 || end - start <= slice) {
+				for (int j = start; j < end; j++) {
+					if (cluster.overlaps(clusters.get(j), minimumOverlap)) {
+						return j;
+					}
+				}
+				continue;
+			}
+
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int first = start; first < end; first += slice) {
+				final int low = first;
+				final int high = Math.min(end, first + slice);
+				futures.add(executor.submit(new Callable<Integer>() {
+					public Integer call() {
+						for (int j = low; j < high; j++) {
+							if (cluster.overlaps(clusters.get(j), minimumOverlap)) {
+								return Integer.valueOf(j);
+							}
+						}
+						return Integer.valueOf(-1);
+					}
+				}));
+			}
+
+			// The slices are in order, so the first match is the smallest
+			int found = -1;
+			for (Future<Integer> future : futures) {
+				int j = future.get().intValue();
+				if (found == -1 && j != -1) {
+					found = j;
+				}
+			}
+			if (found != -1) {
+				return found;
+			}
+		}
+
+		return n;
+	}
+}
@@ -0,0 +1,451 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Incremental tree clustering tool.
+ * 
+ * Keeps a {@link ClusterState} in the output folder, next to the clusters
+ * written by {@link ClusterWriter}. Each run only loads the trees of the
+ * input folder that are not clustered yet. With a folder output, the new
+ * trees are linked or copied into the folders of their clusters, and the
+ * trees of merged clusters are moved into the folder of the cluster that
+ * absorbed them, leaving the folders of the other clusters untouched. With a
+ * manifest output, the manifest is rewritten with the stable cluster ids. The
+ * same output should be used on every run of an output folder. Trees that
+ * fail to load are skipped and tried again on the next run. One line is
+ * printed for each new or changed cluster (id, number of trees, status).
+ * 
+ * The changes to the output are recorded in a pending file before the state
+ * is saved, and the file is removed once they are done, so a run interrupted
+ * after saving the state finishes them on the next run. Both files are
+ * written to temporary files renamed over them. A missing state is recovered
+ * from its temporary file, and a run without a state refuses an output
+ * folder that already holds clusters rather than numbering them again.
+ * 
+ * @version $Revision$
+ */
+public class PhyloClusterUpdate {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Name of the state file in the output folder
+	 */
+	public static final String STATE_FILE_NAME = "phylocluster.state";
+
+	/**
+	 * Name of the file of the pending changes in the output folder
+	 */
+	public static final String PENDING_FILE_NAME = "phylocluster.pending";
+
+	/**
+	 * Status of a new cluster
+	 */
+	public static final String STATUS_NEW = "new";
+
+	/**
+	 * Status of a cluster that gained trees
+	 */
+	public static final String STATUS_CHANGED = "changed";
+
+	/**
+	 * Status of a cluster merged into another one
+	 */
+	public static final String STATUS_MERGED = "merged";
+
+	/**
+	 * Pending move of the trees of a merged cluster
+	 */
+	private static final String PENDING_MERGE = "merge";
+
+	/**
+	 * Pending addition of a new tree
+	 */
+	private static final String PENDING_ADD = "add";
+
+	/**
+	 * Cluster folder names
+	 */
+	private static final NumberFormat FORMAT = new DecimalFormat(PhyloCluster.CLUSTER_PREFIX + "000000");
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length >= 2 && args.length <= 4) {
+			try {
+				String ifolder = args[0]; // Folder with input trees
+				String ofolder = args[1]; // Folder with the clusters and state
+				int minimum = TreeCluster.DEFAULT_MINIMUM_OVERLAP;
+				if (args.length >= 3) {
+					minimum = Integer.parseInt(args[2]); // Minimum number of
+					// overlapping OTUs
+				}
+				String output = args.length == 4 ? args[3] : ClusterWriter.DEFAULT_OUTPUT;
+
+				for (Map.Entry<Integer, String> entry : update(ifolder, ofolder, minimum, output).entrySet()) {
+					System.out.println(FORMAT.format(entry.getKey().intValue()) + Commons.TAB + entry.getValue());
+				}
+
+			} catch (Exception e) {
+				String msg = "Failed updating clusters: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infolder outfolder [minimum [" + ClusterWriter.OUTPUT_MANIFEST + "|" + ClusterWriter.OUTPUT_BINARY + "|" + ClusterWriter.OUTPUT_LINK + "|"
+					+ ClusterWriter.OUTPUT_SYMLINK + "|" + ClusterWriter.OUTPUT_COPY + "]]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Adds the new trees of an input folder to the clusters of an output
+	 * folder
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param minimumOverlap
+	 *            Minimum number of overlapping taxa (only used for a new
+	 *            output folder)
+	 * @param output
+	 *            Output (see {@link ClusterWriter})
+	 * @return The changed clusters by id, each with its number of trees and
+	 *         status separated by a tab
+	 * @throws Exception
+	 */
+	public static Map<Integer, String> update(String infolder, String outfolder, int minimumOverlap, String output) throws Exception {
+		try {
+
+			if (!ClusterWriter.isValid(output)) {
+				throw new Exception("Invalid output: " + output);
+			}
+
+			long start = System.currentTimeMillis();
+
+			File odir = new File(outfolder);
+			if (!odir.exists()) {
+				odir.mkdir();
+			}
+
+			File stateFile = new File(outfolder + Commons.getFileSeparator() + STATE_FILE_NAME);
+			File pendingFile = new File(outfolder + Commons.getFileSeparator() + PENDING_FILE_NAME);
+
+			ClusterState state = null;
+			if (stateFile.exists()) {
+				state = ClusterState.load(stateFile);
+			} else {
+				state = recover(stateFile);
+			}
+
+			if (state != null) {
+				if (state.getMinimumOverlap() != Math.max(1, minimumOverlap)) {
+					logger.warning("Keeping the minimum overlap of the existing clusters: " + state.getMinimumOverlap());
+				}
+			} else if (hasClusters(odir)) {
+				// New ids would collide with the existing clusters
+				throw new Exception("Missing " + stateFile.getPath() + " for the existing clusters");
+			} else {
+				state = new ClusterState(minimumOverlap);
+			}
+
+			// Changes of an interrupted run
+			if (pendingFile.exists()) {
+				finish(infolder, outfolder, state, pendingFile, output);
+			}
+
+			int known = state.size();
+			int firstNewId = state.getNextId();
+
+			String[] files = new File(infolder).list();
+			Arrays.sort(files);
+
+			List<Integer> added = new ArrayList<Integer>();
+
+			for (String filename : files) {
+				File infile = new File(infolder + Commons.getFileSeparator() + filename);
+				if (infile.isFile() && infile.canRead() && !state.contains(filename)) {
+					List<String> taxa = new ArrayList<String>();
+					try {
+						for (TreeNode node : TreeNodeUtil.load(infile).iterator()) {
+							taxa.add(node.getLabel());
+						}
+					} catch (Exception e) {
+						// Not clustered, so the next run tries it again
+						String msg = "Skipping '" + filename + "': " + e.getMessage();
+						logger.log(Level.WARNING, msg, e);
+						continue;
+					}
+					added.add(Integer.valueOf(state.add(filename, taxa)));
+				}
+			}
+
+			logger.info("Added " + added.size() + " trees to " + known + " clustered trees");
+
+			Map<Integer, String> changes = new LinkedHashMap<Integer, String>();
+
+			List<String> pending = new ArrayList<String>();
+
+			// Move the trees of the absorbed clusters that are already written
+			for (Integer id : state.getAbsorbed()) {
+				if (id.intValue() < firstNewId) {
+					int survivor = state.resolve(id.intValue());
+					pending.add(PENDING_MERGE + Commons.TAB + id + Commons.TAB + survivor);
+					changes.put(id, "0" + Commons.TAB + STATUS_MERGED + Commons.TAB + FORMAT.format(survivor));
+				}
+			}
+
+			// Add the new trees
+			for (Integer tree : added) {
+				int id = state.getCluster(tree.intValue());
+				pending.add(PENDING_ADD + Commons.TAB + id + Commons.TAB + state.getName(tree.intValue()));
+				String status = id < firstNewId ? STATUS_CHANGED : STATUS_NEW;
+				changes.put(Integer.valueOf(id), state.getClusterSize(tree.intValue()) + Commons.TAB + status);
+			}
+
+			if (!changes.isEmpty()) {
+				writePending(pendingFile, state.size(), pending);
+				state.save(stateFile);
+				finish(infolder, outfolder, state, pendingFile, output);
+			}
+
+			logger.info("Finished updating " + state.getClusterCount() + " clusters in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return changes;
+
+		} catch (Exception exception) {
+			String msg = "Failed updating clusters: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		}
+	}
+
+	/**
+	 * Applies the pending changes to the output if they belong to the saved
+	 * state (otherwise the state was not saved, and the run is repeated from
+	 * the start), then removes the pending file. Applying the changes twice
+	 * gives the same output.
+	 */
+	private static void finish(String infolder, String outfolder, ClusterState state, File pendingFile, String output) throws Exception {
+
+		BufferedReader reader = null;
+
+		try {
+			reader = new BufferedReader(new FileReader(pendingFile));
+
+			String line = reader.readLine();
+			if (line != null && Integer.parseInt(line.trim()) == state.size()) {
+
+				if (ClusterWriter.isFolder(output)) {
+
+					// Trees to add to each cluster
+					Map<Integer, List<String>> additions = new LinkedHashMap<Integer, List<String>>();
+
+					while ((line = reader.readLine()) != null) {
+						String[] tokens = line.split(Commons.TAB, 3);
+						int id = Integer.parseInt(tokens[1]);
+						if (tokens[0].equals(PENDING_MERGE)) {
+							move(folder(outfolder, id), folder(outfolder, Integer.parseInt(tokens[2])));
+						} else {
+							List<String> trees = additions.get(Integer.valueOf(id));
+							if (trees == null) {
+								trees = new ArrayList<String>();
+								additions.put(Integer.valueOf(id), trees);
+							}
+							trees.add(tokens[2]);
+						}
+					}
+
+					for (Map.Entry<Integer, List<String>> entry : additions.entrySet()) {
+						ClusterWriter.add(infolder, folder(outfolder, entry.getKey().intValue()), entry.getValue(), output);
+					}
+
+				} else {
+					manifest(outfolder, state, output.equalsIgnoreCase(ClusterWriter.OUTPUT_BINARY));
+				}
+			}
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Exception e) {
+					String msg = "Failed closing pending changes: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+
+		if (!pendingFile.delete()) {
+			throw new IOException("Failed deleting " + pendingFile.getPath());
+		}
+	}
+
+	/**
+	 * Recovers the state from the temporary file of a save, which is complete
+	 * if the save was interrupted after deleting the state file (where it
+	 * cannot be renamed over it)
+	 * 
+	 * @return The recovered state, or null if there is none
+	 */
+	private static ClusterState recover(File stateFile) {
+
+		File temporary = new File(stateFile.getPath() + ".tmp");
+		if (!temporary.exists()) {
+			return null;
+		}
+
+		try {
+			ClusterState state = ClusterState.load(temporary);
+			Commons.replace(temporary, stateFile);
+			logger.warning("Recovered the cluster state from " + temporary.getPath());
+			return state;
+		} catch (Exception e) {
+			String msg = "Ignoring the incomplete cluster state " + temporary.getPath() + ": " + e.getMessage();
+			logger.log(Level.WARNING, msg, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether an output folder already holds clusters
+	 */
+	private static boolean hasClusters(File odir) {
+		for (String name : odir.list()) {
+			if (name.startsWith(PhyloCluster.CLUSTER_PREFIX) || name.equals(ClusterWriter.MANIFEST_FILE_NAME) || name.equals(ClusterWriter.BINARY_FILE_NAME)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the pending changes to a temporary file, which replaces the
+	 * pending file once complete
+	 */
+	private static void writePending(File file, int size, List<String> pending) throws Exception {
+
+		File temporary = new File(file.getPath() + ".tmp");
+
+		BufferedWriter writer = null;
+
+		try {
+			writer = new BufferedWriter(new FileWriter(temporary));
+			writer.write(Integer.toString(size));
+			writer.newLine();
+			for (String line : pending) {
+				writer.write(line);
+				writer.newLine();
+			}
+			writer.close();
+			writer = null;
+
+			Commons.replace(temporary, file);
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing pending changes: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the trees of a merged cluster into the cluster that absorbed it
+	 */
+	private static void move(File from, File to) throws Exception {
+		if (from.isDirectory()) {
+			to.mkdir();
+			for (String tree : from.list()) {
+				Commons.move(new File(from, tree), new File(to, tree));
+			}
+			if (!from.delete()) {
+				logger.warning("Failed deleting " + from.getPath());
+			}
+		}
+	}
+
+	/**
+	 * Writes the manifest of all the clusters of a state, with their ids
+	 */
+	private static void manifest(String outfolder, ClusterState state, boolean binary) throws Exception {
+
+		int[] counts = state.getTaxonCounts();
+
+		Map<Integer, List<String>> clusters = new TreeMap<Integer, List<String>>();
+		Map<String, Integer> taxa = new HashMap<String, Integer>();
+
+		for (int tree = 0, n = state.size(); tree < n; tree++) {
+			Integer id = Integer.valueOf(state.getCluster(tree));
+			List<String> cluster = clusters.get(id);
+			if (cluster == null) {
+				cluster = new ArrayList<String>();
+				clusters.put(id, cluster);
+			}
+			cluster.add(state.getName(tree));
+			taxa.put(state.getName(tree), Integer.valueOf(counts[tree]));
+		}
+
+		int[] ids = new int[clusters.size()];
+		int i = 0;
+		for (Integer id : clusters.keySet()) {
+			ids[i++] = id.intValue();
+		}
+
+		ClusterWriter.manifest(outfolder, new ArrayList<List<String>>(clusters.values()), ids, taxa, FORMAT, binary);
+	}
+
+	/**
+	 * Returns the folder of a cluster
+	 */
+	private static File folder(String outfolder, int id) {
+		return new File(outfolder + Commons.getFileSeparator() + FORMAT.format(id));
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Majority-rule (or any threshold) consensus of a set of trees, for example
+ * bootstrap replicates.
+ * 
+ * The trees are streamed one by one from a file (any number of trees, each
+ * terminated by a semicolon) or from all the files of a folder, and their
+ * splits are counted in a {@link SplitCounter}. A split is kept if its
+ * frequency is above the threshold (0.5 gives the majority-rule consensus,
+ * 1.0 the strict consensus). Below 0.5, the kept splits are added greedily by
+ * decreasing frequency as long as they are compatible with the ones already
+ * added. The support of each clade is written as a percentage in the internal
+ * node label, which is what the PhyloSort bootstrap filter reads.
+ * 
+ * All trees should have the same taxa. Trees with other taxa than the first
+ * tree are skipped.
+ * 
+ * @version $Revision$
+ */
+public class PhyloConsensus {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Default threshold (majority rule)
+	 */
+	public static final float DEFAULT_THRESHOLD = 0.5f;
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 2 || args.length == 3) {
+			try {
+				String in = args[0]; // Tree file or folder
+				String out = args[1]; // Consensus tree file
+				float threshold = DEFAULT_THRESHOLD;
+				if (args.length == 3) {
+					threshold = Float.parseFloat(args[2]);
+				}
+
+				TreeNode consensus = consensus(new File(in), threshold);
+
+				TreeNodeUtil.save(consensus, out);
+
+			} catch (Exception e) {
+				String msg = "Failed building consensus tree: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infile|infolder outfile [threshold]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Builds the majority-rule consensus of the trees in a file or a folder
+	 * 
+	 * @param in
+	 *            Tree file or folder
+	 * @return {@link TreeNode} root of the consensus tree
+	 * @throws Exception
+	 */
+	public static TreeNode consensus(File in) throws Exception {
+		return consensus(in, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Builds the consensus of the trees in a file or a folder
+	 * 
+	 * @param in
+	 *            Tree file or folder
+	 * @param threshold
+	 *            Minimum frequency (exclusive, except for 1.0) of a split
+	 * @return {@link TreeNode} root of the consensus tree
+	 * @throws Exception
+	 */
+	public static TreeNode consensus(File in, float threshold) throws Exception {
+
+		long start = System.currentTimeMillis();
+
+		TaxonDictionary dictionary = new TaxonDictionary();
+		SplitCounter counter = new SplitCounter();
+
+		long[][] taxa = new long[1][];
+
+		if (in.isDirectory()) {
+			String[] list = in.list();
+			Arrays.sort(list);
+			for (String name : list) {
+				File file = new File(in + Commons.getFileSeparator() + name);
+				if (file.isFile() && file.canRead()) {
+					count(file, dictionary, counter, taxa);
+				}
+			}
+		} else {
+			count(in, dictionary, counter, taxa);
+		}
+
+		if (taxa[0] == null) {
+			throw new Exception("No trees found in " + in.getPath());
+		}
+
+		logger.info("Counted " + counter.size() + " distinct splits in " + counter.getTreeCount() + " trees in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+		return build(counter, taxa[0], dictionary, threshold);
+	}
+
+	/**
+	 * Counts the splits of all the trees in a file
+	 */
+	private static void count(File file, TaxonDictionary dictionary, SplitCounter counter, long[][] taxa) throws Exception {
+
+		NewickReader reader = new NewickReader(file);
+
+		try {
+			String str = null;
+			int index = 0;
+			while ((str = reader.next()) != null) {
+				index++;
+				TreeNode tree = null;
+				try {
+					tree = NewickParser.parse(str);
+				} catch (Exception e) {
+					logger.warning("Failed parsing tree #" + index + " in " + file.getName() + ": " + e.getMessage());
+					continue;
+				}
+				SplitTable table = SplitTable.build(tree, dictionary);
+				if (taxa[0] == null) {
+					taxa[0] = table.getTaxa();
+				} else if (!SplitTable.equals(taxa[0], table.getTaxa())) {
+					logger.warning("Skipping tree #" + index + " in " + file.getName() + ": different taxa");
+					continue;
+				}
+				counter.add(table);
+			}
+		} finally {
+			try {
+				reader.close();
+			} catch (Exception silent) {
+				String msg = "Failed closing input file: " + silent.getMessage();
+				logger.log(Level.WARNING, msg, silent);
+			}
+		}
+	}
+
+	/**
+	 * Builds the consensus tree from the counted splits
+	 * 
+	 * @param counter
+	 *            {@link SplitCounter} of the trees
+	 * @param taxa
+	 *            All taxa of the trees
+	 * @param dictionary
+	 *            {@link TaxonDictionary} of the taxon ids
+	 * @param threshold
+	 *            Minimum frequency (exclusive, except for 1.0) of a split
+	 * @return {@link TreeNode} root of the consensus tree
+	 */
+	public static TreeNode build(final SplitCounter counter, long[] taxa, TaxonDictionary dictionary, float threshold) {
+
+		int total = counter.getTreeCount();
+
+		List<Integer> candidates = new ArrayList<Integer>();
+		for (int slot = 0, n = counter.capacity(); slot < n; slot++) {
+			int count = counter.getCount(slot);
+			if (count > 0 && (count > threshold * total || count == total)) {
+				candidates.add(Integer.valueOf(slot));
+			}
+		}
+
+		// Most frequent splits first, then larger clades first
+		Collections.sort(candidates, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = counter.getCount(b.intValue()) - counter.getCount(a.intValue());
+				if (c != 0) {
+					return c;
+				}
+				return SplitTable.cardinality(counter.getSplit(b.intValue())) - SplitTable.cardinality(counter.getSplit(a.intValue()));
+			}
+		});
+
+		// All normalized splits exclude the same (smallest) taxon, so they
+		// are compatible if they are nested or disjoint
+		List<long[]> clades = new ArrayList<long[]>();
+		List<Integer> supports = new ArrayList<Integer>();
+
+		for (Integer slot : candidates) {
+			long[] split = counter.getSplit(slot.intValue());
+			boolean compatible = true;
+			for (int i = 0, n = clades.size(); i < n && compatible; i++) {
+				compatible = isCompatible(split, clades.get(i));
+			}
+			if (compatible) {
+				clades.add(split);
+				supports.add(Integer.valueOf(Math.round(100f * counter.getCount(slot.intValue()) / total)));
+			}
+		}
+
+		// Attach every clade and every taxon to the smallest clade holding it
+		int n = clades.size();
+
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		final List<long[]> _clades = clades;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return SplitTable.cardinality(_clades.get(b.intValue())) - SplitTable.cardinality(_clades.get(a.intValue()));
+			}
+		});
+
+		TreeNode root = new TreeNode();
+		TreeNode[] nodes = new TreeNode[n];
+
+		for (int k = 0; k < n; k++) {
+			int i = order[k].intValue();
+			TreeNode parent = root;
+			for (int l = k - 1; l >= 0; l--) {
+				int j = order[l].intValue();
+				if (isSubset(clades.get(i), clades.get(j))) {
+					parent = nodes[j];
+					break;
+				}
+			}
+			nodes[i] = new TreeNode();
+			nodes[i].setLabel(supports.get(i).toString());
+			parent.addChild(nodes[i]);
+		}
+
+		for (int w = 0; w < taxa.length; w++) {
+			long word = taxa[w];
+			while (word != 0) {
+				int id = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				TreeNode parent = root;
+				for (int l = n - 1; l >= 0; l--) {
+					int j = order[l].intValue();
+					if (SplitTable.get(clades.get(j), id)) {
+						parent = nodes[j];
+						break;
+					}
+				}
+				TreeNode leaf = new TreeNode();
+				leaf.setLabel(dictionary.getTaxon(id));
+				parent.addChild(leaf);
+			}
+		}
+
+		root.preprocess();
+
+		return root;
+	}
+
+	/**
+	 * Checks whether two splits that exclude the same taxon are compatible
+	 */
+	private static boolean isCompatible(long[] a, long[] b) {
+		return isSubset(a, b) || isSubset(b, a) || isDisjoint(a, b);
+	}
+
+	/**
+	 * Checks whether a bitset is a subset of another one
+	 */
+	private static boolean isSubset(long[] a, long[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if ((a[i] & ~(i < b.length ? b[i] : 0)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether two bitsets are disjoint
+	 */
+	private static boolean isDisjoint(long[] a, long[] b) {
+		for (int i = 0, n = Math.min(a.length, b.length); i < n; i++) {
+			if ((a[i] & b[i]) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Duplicate tree detection tool.
+ * 
+ * Groups the trees of a folder that have the same canonical form (see
+ * {@link CanonicalTree}) and writes one line per tree with its file name, the
+ * file name of the representative of its group (the first one in file name
+ * order) and the structural hash of the group. By default branch lengths and
+ * internal node labels are ignored.
+ * 
+ * @version $Revision$
+ */
+public class PhyloDedup {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Option to compare branch lengths
+	 */
+	public static final String OPTION_LENGTHS = "lengths";
+
+	/**
+	 * Option to compare internal node labels
+	 */
+	public static final String OPTION_LABELS = "labels";
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length >= 2 && args.length <= 4) {
+			try {
+				String ifolder = args[0]; // Folder with input trees
+				String ofile = args[1]; // Output report
+
+				boolean lengths = false;
+				boolean labels = false;
+				for (int i = 2; i < args.length; i++) {
+					if (args[i].equalsIgnoreCase(OPTION_LENGTHS)) {
+						lengths = true;
+					} else if (args[i].equalsIgnoreCase(OPTION_LABELS)) {
+						labels = true;
+					} else {
+						throw new Exception("Invalid option: " + args[i]);
+					}
+				}
+
+				Map<String, String> keys = new HashMap<String, String>();
+				Map<String, List<String>> groups = groups(ifolder, lengths, labels, keys);
+
+				int trees = 0;
+				for (List<String> group : groups.values()) {
+					trees += group.size();
+				}
+
+				write(groups, keys, ofile);
+
+				System.out.println(ifolder + Commons.TAB + trees + Commons.TAB + groups.size());
+
+			} catch (Exception e) {
+				String msg = "Failed grouping trees: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infolder outfile [" + OPTION_LENGTHS + "] [" + OPTION_LABELS + "]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Groups the identical trees of a folder
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param lengths
+	 *            Whether trees with different branch lengths differ
+	 * @param labels
+	 *            Whether trees with different internal node labels differ
+	 * @return The file names of the trees of each group, keyed by the file
+	 *         name of the representative of the group (which is also the
+	 *         first one of the group)
+	 * @throws Exception
+	 */
+	public static Map<String, List<String>> groups(String infolder, boolean lengths, boolean labels) throws Exception {
+		return groups(infolder, lengths, labels, null);
+	}
+
+	/**
+	 * Groups the identical trees of a folder
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param lengths
+	 *            Whether trees with different branch lengths differ
+	 * @param labels
+	 *            Whether trees with different internal node labels differ
+	 * @param keys
+	 *            Optional map to fill with the hash of each representative
+	 * @return The file names of the trees of each group, keyed by the file
+	 *         name of the representative of the group
+	 * @throws Exception
+	 */
+	private static Map<String, List<String>> groups(String infolder, boolean lengths, boolean labels, Map<String, String> keys) throws Exception {
+		try {
+
+			long start = System.currentTimeMillis();
+
+			String[] files = new File(infolder).list();
+			Arrays.sort(files);
+
+			Map<String, String> representatives = new HashMap<String, String>();
+			Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+
+			for (String filename : files) {
+				File infile = new File(infolder + Commons.getFileSeparator() + filename);
+				if (infile.isFile() && infile.canRead()) {
+
+					TreeNode tree = null;
+					try {
+						tree = TreeNodeUtil.load(infile);
+					} catch (Exception e) {
+						logger.warning("Failed loading tree from " + filename + ": " + e.getMessage());
+						continue;
+					}
+
+					String key = CanonicalTree.key(tree, lengths, labels);
+
+					String representative = representatives.get(key);
+					if (representative == null) {
+						representatives.put(key, filename);
+						List<String> group = new ArrayList<String>();
+						group.add(filename);
+						groups.put(filename, group);
+						if (keys != null) {
+							keys.put(filename, key);
+						}
+					} else {
+						groups.get(representative).add(filename);
+					}
+				}
+			}
+
+			logger.info("Found " + groups.size() + " distinct trees in " + infolder + " in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return groups;
+
+		} catch (Exception exception) {
+			String msg = "Failed grouping trees: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		}
+	}
+
+	/**
+	 * Writes one line (tree, representative and hash) per tree
+	 */
+	private static void write(Map<String, List<String>> groups, Map<String, String> keys, String filename) throws Exception {
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(filename));
+			for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
+				String representative = entry.getKey();
+				for (String tree : entry.getValue()) {
+					writer.write(tree + Commons.TAB + representative + Commons.TAB + keys.get(representative));
+					writer.newLine();
+				}
+			}
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing report: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+}
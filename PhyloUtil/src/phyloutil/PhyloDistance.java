@@ -0,0 +1,292 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * All-pairs Robinson-Foulds distances between the trees of a folder.
+ * 
+ * The distances are written as a packed lower triangular matrix of 32-bit
+ * (big-endian) floats: the distance between trees <code>i</code> and
+ * <code>j</code> (<code>i &gt; j</code>) is at float index
+ * <code>i * (i - 1) / 2 + j</code>. The names of the trees, in matrix order,
+ * are written one per line next to the matrix (with a <code>.names</code>
+ * suffix). Trees that fail loading get NaN distances.
+ * 
+ * @version $Revision$
+ */
+public class PhyloDistance {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Suffix of the tree names file
+	 */
+	public static final String NAMES_SUFFIX = ".names";
+
+	/**
+	 * Normalized distance option
+	 */
+	public static final String OPTION_NORMALIZED = "nrf";
+
+	/**
+	 * Maximum number of bytes mapped at once
+	 */
+	private static final long MAXIMUM_BLOCK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length == 2 || args.length == 3) {
+			try {
+				String ifolder = args[0]; // Folder with input trees
+				String ofile = args[1]; // Output matrix file
+				boolean normalized = args.length == 3 && args[2].equalsIgnoreCase(OPTION_NORMALIZED);
+
+				int n = distances(ifolder, ofile, normalized);
+
+				System.out.println(ifolder + Commons.TAB + n + Commons.TAB + ((long) n * (n - 1) / 2));
+
+			} catch (Exception e) {
+				String msg = "Failed computing distances: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infolder outfile [" + OPTION_NORMALIZED + "]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Computes the Robinson-Foulds distances between all pairs of trees in a
+	 * folder using all the available processors
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfile
+	 *            Output matrix file
+	 * @param normalized
+	 *            Whether to write normalized distances
+	 * @return Number of trees
+	 * @throws Exception
+	 */
+	public static int distances(String infolder, String outfile, boolean normalized) throws Exception {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+
+			long start = System.currentTimeMillis();
+
+			String[] list = new File(infolder).list();
+			Arrays.sort(list);
+
+			List<String> names = new ArrayList<String>();
+			for (String filename : list) {
+				File file = new File(infolder + Commons.getFileSeparator() + filename);
+				if (file.isFile() && file.canRead()) {
+					names.add(filename);
+				}
+			}
+
+			int n = names.size();
+
+			logger.info("Loading " + n + " trees using " + threads + " threads...");
+
+			final TaxonDictionary dictionary = new TaxonDictionary();
+
+			List<Future<RobinsonFoulds.Profile>> futures = new ArrayList<Future<RobinsonFoulds.Profile>>();
+			for (String name : names) {
+				final File file = new File(infolder + Commons.getFileSeparator() + name);
+				futures.add(executor.submit(new Callable<RobinsonFoulds.Profile>() {
+					public RobinsonFoulds.Profile call() {
+						try {
+							return RobinsonFoulds.profile(TreeNodeUtil.load(file), dictionary);
+						} catch (Exception e) {
+							logger.warning("Failed loading tree from " + file.getName() + ": " + e.getMessage());
+							return null;
+						}
+					}
+				}));
+			}
+
+			final RobinsonFoulds.Profile[] profiles = new RobinsonFoulds.Profile[n];
+			for (int i = 0; i < n; i++) {
+				profiles[i] = futures.get(i).get();
+			}
+
+			logger.info("Loaded " + n + " trees with " + dictionary.size() + " taxa in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			writeNames(names, outfile + NAMES_SUFFIX);
+
+			long size = 4L * n * (n - 1) / 2;
+
+			RandomAccessFile raf = new RandomAccessFile(outfile, "rw");
+
+			try {
+
+				raf.setLength(size);
+				final FileChannel channel = raf.getChannel();
+
+				// Split the rows into blocks of about the same size, small
+				// enough to be mapped and to keep all threads busy
+				long target = Math.max(4096, Math.min(MAXIMUM_BLOCK_SIZE, size / (4L * threads)));
+
+				List<Future<Object>> blocks = new ArrayList<Future<Object>>();
+				final boolean _normalized = normalized;
+
+				int first = 1;
+				while (first < n) {
+					int last = first;
+					while (last < n && 4 * (offset(last + 1) - offset(first)) <= target) {
+						last++;
+					}
+					if (last == first) {
+						last++;
+					}
+					final int from = first;
+					final int to = last;
+					blocks.add(executor.submit(new Callable<Object>() {
+						public Object call() throws Exception {
+							fill(channel, profiles, from, to, _normalized);
+							return null;
+						}
+					}));
+					first = last;
+				}
+
+				for (Future<Object> block : blocks) {
+					block.get();
+				}
+
+			} finally {
+				try {
+					raf.close();
+				} catch (Exception e) {
+					String msg = "Failed closing matrix file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+
+			logger.info("Finished computing " + ((long) n * (n - 1) / 2) + " distances in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return n;
+
+		} catch (Exception exception) {
+			String msg = "Failed computing distances: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the float index of the first entry of a row in the packed
+	 * matrix
+	 * 
+	 * @param row
+	 *            Row index
+	 * @return Float index of the row
+	 */
+	public static long offset(int row) {
+		return (long) row * (row - 1) / 2;
+	}
+
+	/**
+	 * Computes the distances of the rows <code>from</code> (inclusive) to
+	 * <code>to</code> (exclusive) into a mapped block of the matrix file
+	 */
+	private static void fill(FileChannel channel, RobinsonFoulds.Profile[] profiles, int from, int to, boolean normalized) throws Exception {
+
+		long base = offset(from);
+		long length = 4 * (offset(to) - base);
+
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 4 * base, length);
+
+		int index = 0;
+
+		for (int i = from; i < to; i++) {
+			for (int j = 0; j < i; j++) {
+				float distance = Float.NaN;
+				if (profiles[i] != null && profiles[j] != null) {
+					if (normalized) {
+						distance = RobinsonFoulds.normalized(profiles[i], profiles[j]);
+					} else {
+						distance = RobinsonFoulds.distance(profiles[i], profiles[j]);
+					}
+				}
+				buffer.putFloat(index, distance);
+				index += 4;
+			}
+		}
+
+		buffer.force();
+	}
+
+	/**
+	 * Writes the tree names in matrix order
+	 */
+	static void writeNames(List<String> names, String filename) throws Exception {
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(filename));
+			for (String name : names) {
+				writer.write(name);
+				writer.newLine();
+			}
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing names file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+}
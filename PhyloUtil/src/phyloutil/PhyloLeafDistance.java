@@ -0,0 +1,304 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * All-pairs distances between the leaves of a tree (see
+ * {@link LeafDistances}).
+ * 
+ * By default the distances are written in the format of
+ * {@link PhyloDistance}: a packed lower triangular matrix of 32-bit
+ * (big-endian) floats, with the leaf labels, in leaf order, in a file with a
+ * <code>.names</code> suffix. They can also be written as a square PHYLIP
+ * distance matrix (with full length labels).
+ * 
+ * @version $Revision$
+ */
+public class PhyloLeafDistance {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Topological distance option (number of branches)
+	 */
+	public static final String OPTION_TOPOLOGICAL = "topological";
+
+	/**
+	 * PHYLIP output option
+	 */
+	public static final String OPTION_PHYLIP = "phylip";
+
+	/**
+	 * Maximum number of bytes mapped at once
+	 */
+	private static final long MAXIMUM_BLOCK_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Number of PHYLIP rows formatted by a task
+	 */
+	private static final int PHYLIP_BLOCK_SIZE = 64;
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length >= 2 && args.length <= 4) {
+			try {
+				String infile = args[0]; // Input tree
+				String outfile = args[1]; // Output matrix file
+
+				boolean topological = false;
+				boolean phylip = false;
+				for (int i = 2; i < args.length; i++) {
+					if (args[i].equalsIgnoreCase(OPTION_TOPOLOGICAL)) {
+						topological = true;
+					} else if (args[i].equalsIgnoreCase(OPTION_PHYLIP)) {
+						phylip = true;
+					} else {
+						throw new Exception("Invalid option: " + args[i]);
+					}
+				}
+
+				int n = distances(infile, outfile, topological, phylip);
+
+				System.out.println(infile + Commons.TAB + n + Commons.TAB + ((long) n * (n - 1) / 2));
+
+			} catch (Exception e) {
+				String msg = "Failed computing distances: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infile outfile [" + OPTION_TOPOLOGICAL + "] [" + OPTION_PHYLIP + "]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Computes the distances between all pairs of leaves of a tree using all
+	 * the available processors
+	 * 
+	 * @param infile
+	 *            Input tree file
+	 * @param outfile
+	 *            Output matrix file
+	 * @param topological
+	 *            Whether to count the branches instead of summing their
+	 *            lengths
+	 * @param phylip
+	 *            Whether to write a PHYLIP matrix instead of a packed binary
+	 *            one
+	 * @return Number of leaves
+	 * @throws Exception
+	 */
+	public static int distances(String infile, String outfile, boolean topological, boolean phylip) throws Exception {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+
+			long start = System.currentTimeMillis();
+
+			LeafDistances distances = new LeafDistances(TreeNodeUtil.load(new File(infile)));
+
+			int n = distances.size();
+
+			logger.info("Loaded " + n + " leaves in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			if (phylip) {
+				writePhylip(executor, threads, distances, outfile, topological);
+			} else {
+				List<String> names = new ArrayList<String>();
+				for (int i = 0; i < n; i++) {
+					names.add(distances.getLeaf(i).getLabel());
+				}
+				PhyloDistance.writeNames(names, outfile + PhyloDistance.NAMES_SUFFIX);
+				writeBinary(executor, threads, distances, outfile, topological);
+			}
+
+			logger.info("Finished computing " + ((long) n * (n - 1) / 2) + " distances in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return n;
+
+		} catch (Exception exception) {
+			String msg = "Failed computing distances: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Writes the packed lower triangular matrix, in mapped blocks of rows
+	 * filled in parallel
+	 */
+	private static void writeBinary(ExecutorService executor, int threads, final LeafDistances distances, String outfile, final boolean topological) throws Exception {
+
+		int n = distances.size();
+
+		long size = 4 * PhyloDistance.offset(n);
+
+		RandomAccessFile raf = new RandomAccessFile(outfile, "rw");
+
+		try {
+
+			raf.setLength(size);
+			final FileChannel channel = raf.getChannel();
+
+			// Split the rows into blocks of about the same size, small enough
+			// to be mapped and to keep all threads busy
+			long target = Math.max(4096, Math.min(MAXIMUM_BLOCK_SIZE, size / (4L * threads)));
+
+			List<Future<Object>> blocks = new ArrayList<Future<Object>>();
+
+			int first = 1;
+			while (first < n) {
+				int last = first;
+				while (last < n && 4 * (PhyloDistance.offset(last + 1) - PhyloDistance.offset(first)) <= target) {
+					last++;
+				}
+				if (last == first) {
+					last++;
+				}
+				final int from = first;
+				final int to = last;
+				blocks.add(executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						long base = PhyloDistance.offset(from);
+						long length = 4 * (PhyloDistance.offset(to) - base);
+						MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 4 * base, length);
+						FloatBuffer floats = buffer.asFloatBuffer();
+						float[] row = new float[to - 1];
+						for (int i = from; i < to; i++) {
+							distances.getRow(i, topological, row);
+							floats.put(row, 0, i);
+						}
+						buffer.force();
+						return null;
+					}
+				}));
+				first = last;
+			}
+
+			for (Future<Object> block : blocks) {
+				block.get();
+			}
+
+		} finally {
+			try {
+				raf.close();
+			} catch (Exception e) {
+				String msg = "Failed closing matrix file: " + e.getMessage();
+				logger.log(Level.WARNING, msg, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the square PHYLIP matrix, with blocks of rows formatted in
+	 * parallel and written in order
+	 */
+	private static void writePhylip(ExecutorService executor, int threads, final LeafDistances distances, String outfile, final boolean topological) throws Exception {
+
+		final int n = distances.size();
+
+		BufferedWriter writer = null;
+
+		try {
+			writer = new BufferedWriter(new FileWriter(outfile));
+			writer.write(Integer.toString(n));
+			writer.newLine();
+
+			LinkedList<Future<String>> futures = new LinkedList<Future<String>>();
+
+			int first = 0;
+			while (first < n || !futures.isEmpty()) {
+
+				// Keeps a bounded number of formatted blocks in memory
+				while (first < n && futures.size() < 2 * threads) {
+					final int from = first;
+					final int to = Math.min(n, first + PHYLIP_BLOCK_SIZE);
+					futures.add(executor.submit(new Callable<String>() {
+						public String call() {
+							StringBuffer buffer = new StringBuffer();
+							float[] row = new float[n];
+							for (int i = from; i < to; i++) {
+								distances.getRow(i, topological, row);
+								buffer.append(distances.getLeaf(i).getLabel());
+								for (int j = 0; j < n; j++) {
+									buffer.append(' ');
+									if (topological) {
+										buffer.append((int) row[j]);
+									} else {
+										buffer.append(row[j]);
+									}
+								}
+								buffer.append(Commons.getLineSeparator());
+							}
+							return buffer.toString();
+						}
+					}));
+					first = to;
+				}
+
+				if (!futures.isEmpty()) {
+					writer.write(futures.removeFirst().get());
+				}
+			}
+
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing matrix file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+}
@@ -4,22 +4,67 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+/**
+ * Keeps or removes a list of leaves from a tree and prints the tree before and
+ * after (see {@link TreePruner}). The arguments are the tree file, the file of
+ * names (one per line), then optionally {@link #OPTION_REMOVE} (default) or
+ * {@link #OPTION_KEEP}, and the matching (prefix by default).
+ * 
+ * Since the switch to {@link TreePruner}, removing a name removes every leaf
+ * whose label starts with it, and never an internal node. The reducer used to
+ * go through {@link TreeNodeUtil#removeNode(TreeNode, List)}, which removed
+ * only the first node in preorder whose label started with each name, so it
+ * could remove an internal node with its whole subtree and leave the other
+ * matching leaves in the tree.
+ * 
+ * @version $Revision$
+ */
 public class PhyloReducer {
 
+	/**
+	 * Option to keep the listed leaves (and remove the others)
+	 */
+	public static final String OPTION_KEEP = "keep";
+
+	/**
+	 * Option to remove the listed leaves
+	 */
+	public static final String OPTION_REMOVE = "remove";
+
 	public static void main(String[] args) {
 		try {
 			
 			String treefilename = args[0];
 			String listfilename = args[1];
 			
-			BufferedReader in = new BufferedReader(new FileReader(listfilename));
+			boolean keep = false;
+			if (args.length > 2) {
+				if (args[2].equalsIgnoreCase(OPTION_KEEP)) {
+					keep = true;
+				} else if (!args[2].equalsIgnoreCase(OPTION_REMOVE)) {
+					throw new Exception("Invalid option: " + args[2]);
+				}
+			}
+			
+			String match = TreePruner.DEFAULT_MATCH;
+			if (args.length > 3) {
+				match = args[3];
+			}
 			
 			List<String> list = new ArrayList<String>();
-			String line = null;
-			while ((line = in.readLine()) != null) {
-				list.add(line);
+			BufferedReader in = new BufferedReader(new FileReader(listfilename));
+			try {
+				String line = null;
+				while ((line = in.readLine()) != null) {
+					if (line.length() > 0) {
+						list.add(line);
+					}
+				}
+			} finally {
+				in.close();
 			}
 			
 			TreeNode original = TreeNodeUtil.load(new File(treefilename));
@@ -27,13 +72,32 @@ public class PhyloReducer {
 			System.out.println ("Before:");
 			System.out.println (original.toString());
 			
-			TreeNode reduced = TreeNodeUtil.removeNode(original, list);
+			TreeNode reduced = reduce(original, list, match, keep);
 			
 			System.out.println ("After:");
-			System.out.println (reduced.toString());
+			System.out.println (reduced == null ? "" : reduced.toString());
 			
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Keeps or removes a list of leaves from a tree in a single pass (see
+	 * {@link TreePruner})
+	 * 
+	 * @param tree
+	 *            Root of the tree (left unchanged)
+	 * @param list
+	 *            Names, prefixes or regular expressions of the leaves
+	 * @param match
+	 *            {@link TreePruner#MATCH_EXACT}, {@link TreePruner#MATCH_PREFIX}
+	 *            or {@link TreePruner#MATCH_REGEX}
+	 * @param keep
+	 *            Whether to keep the listed leaves or to remove them
+	 * @return Root of the reduced tree, or null if no leaf is left
+	 */
+	public static TreeNode reduce(TreeNode tree, Collection<String> list, String match, boolean keep) {
+		return new TreePruner(list, match, keep).prune(tree);
+	}
 }
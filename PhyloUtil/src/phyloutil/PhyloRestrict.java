@@ -0,0 +1,289 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Restricts every tree of a folder to a panel of taxa (see
+ * {@link TreePruner}).
+ * 
+ * The restricted trees are written either to a single file, one tree per line
+ * in file name order, with their file names in a file with a
+ * <code>.names</code> suffix (as in {@link PhyloDistance}), or to a folder
+ * with the same file names. Trees with no taxon of the panel are left out.
+ * 
+ * @version $Revision$
+ */
+public class PhyloRestrict {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Output of all the trees to a single file
+	 */
+	public static final String OUTPUT_TREES = "trees";
+
+	/**
+	 * Output of each tree to a file of the same name in an output folder
+	 */
+	public static final String OUTPUT_FOLDER = "folder";
+
+	/**
+	 * Default output
+	 */
+	public static final String DEFAULT_OUTPUT = OUTPUT_TREES;
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length >= 3 && args.length <= 5) {
+			try {
+				String ifolder = args[0]; // Folder with input trees
+				String panel = args[1]; // File with the taxa to keep
+				String output = args[2]; // Output file or folder
+
+				String mode = DEFAULT_OUTPUT;
+				if (args.length > 3) {
+					mode = args[3];
+				}
+				if (!mode.equalsIgnoreCase(OUTPUT_TREES) && !mode.equalsIgnoreCase(OUTPUT_FOLDER)) {
+					throw new Exception("Invalid output: " + mode);
+				}
+
+				String match = TreePruner.MATCH_EXACT;
+				if (args.length > 4) {
+					match = args[4];
+				}
+
+				int n = restrict(ifolder, readPanel(panel), output, mode.equalsIgnoreCase(OUTPUT_FOLDER), match);
+
+				System.out.println(ifolder + Commons.TAB + n);
+
+			} catch (Exception e) {
+				String msg = "Failed restricting trees: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infolder panel output [" + OUTPUT_TREES + "|" + OUTPUT_FOLDER + "] [" + TreePruner.MATCH_EXACT + "|" + TreePruner.MATCH_PREFIX + "|"
+					+ TreePruner.MATCH_REGEX + "]");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Restricts the trees of a folder to a panel of taxa using all the
+	 * available processors
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param panel
+	 *            Names, prefixes or regular expressions of the taxa to keep
+	 * @param output
+	 *            Output file or folder
+	 * @param folder
+	 *            Whether to write a folder of trees instead of a single file
+	 * @param match
+	 *            {@link TreePruner#MATCH_EXACT}, {@link TreePruner#MATCH_PREFIX}
+	 *            or {@link TreePruner#MATCH_REGEX}
+	 * @return Number of trees written
+	 * @throws Exception
+	 */
+	public static int restrict(String infolder, List<String> panel, String output, final boolean folder, String match) throws Exception {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		BufferedWriter writer = null;
+
+		try {
+
+			long start = System.currentTimeMillis();
+
+			final TreePruner pruner = new TreePruner(panel, match, true);
+
+			String[] files = new File(infolder).list();
+			Arrays.sort(files);
+
+			final File outfolder = new File(output);
+			if (folder) {
+				if (!outfolder.exists() && !outfolder.mkdirs()) {
+					throw new Exception("Failed creating output folder " + output);
+				}
+			} else {
+				writer = new BufferedWriter(new FileWriter(output));
+			}
+
+			logger.info("Restricting " + files.length + " trees to " + panel.size() + " taxa using " + threads + " threads...");
+
+			List<String> names = new ArrayList<String>();
+
+			LinkedList<Future<String>> futures = new LinkedList<Future<String>>();
+			LinkedList<String> pending = new LinkedList<String>();
+
+			int i = 0;
+			while (i < files.length || !futures.isEmpty()) {
+
+				// Keeps a bounded number of trees in memory
+				while (i < files.length && futures.size() < 4 * threads) {
+					final String name = files[i++];
+					final File infile = new File(infolder + Commons.getFileSeparator() + name);
+					if (!infile.isFile() || !infile.canRead()) {
+						continue;
+					}
+					pending.add(name);
+					futures.add(executor.submit(new Callable<String>() {
+						public String call() throws Exception {
+							TreeNode tree = null;
+							try {
+								tree = pruner.prune(TreeNodeUtil.load(infile));
+							} catch (Exception e) {
+								logger.warning("Failed loading tree from " + name + ": " + e.getMessage());
+								return null;
+							}
+							if (tree == null) {
+								return null;
+							}
+							String newick = tree.toString();
+							if (folder) {
+								write(newick, new File(outfolder, name));
+								return "";
+							}
+							return newick;
+						}
+					}));
+				}
+
+				if (!futures.isEmpty()) {
+					String name = pending.removeFirst();
+					String tree = futures.removeFirst().get();
+					if (tree != null) {
+						names.add(name);
+						if (writer != null) {
+							writer.write(tree);
+							writer.newLine();
+						}
+					}
+				}
+			}
+
+			if (!folder) {
+				PhyloDistance.writeNames(names, output + PhyloDistance.NAMES_SUFFIX);
+			}
+
+			logger.info("Finished restricting " + names.size() + " trees in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return names.size();
+
+		} catch (Exception exception) {
+			String msg = "Failed restricting trees: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			executor.shutdown();
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing trees file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a panel of taxa, one per line
+	 * 
+	 * @param filename
+	 *            Panel file
+	 * @return The taxa
+	 * @throws Exception
+	 */
+	public static List<String> readPanel(String filename) throws Exception {
+		List<String> panel = new ArrayList<String>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(filename));
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith(Commons.COMMENT_STARTER)) {
+					panel.add(line);
+				}
+			}
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Exception e) {
+					String msg = "Failed closing panel file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+		return panel;
+	}
+
+	/**
+	 * Writes a tree to a file
+	 */
+	private static void write(String tree, File file) throws Exception {
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new FileWriter(file));
+			writer.write(tree);
+			writer.newLine();
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (Exception e) {
+					String msg = "Failed closing tree file: " + e.getMessage();
+					logger.log(Level.WARNING, msg, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
+
+/**
+ * Rewrites every tree file of a folder through a chain of steps (see
+ * {@link NewickRewriter}), in parallel and in a single JVM.
+ * 
+ * The steps are applied in the order given on the command line:
+ * <code>clean=X</code> (removes the bootstrap values below X, as
+ * {@link TreeNodeUtil#clean(TreeNode, float)}), <code>scale=F</code>
+ * (multiplies the branch lengths by F), <code>log10</code> or
+ * <code>log10=S</code> (as {@link TreeNodeUtil#transform(TreeNode, float)}),
+ * <code>strip</code> (removes the branch lengths) and <code>rename=file</code>
+ * (renames the leaves from a tab-separated file of old and new names, see
+ * {@link NameTable}). Each output file is written to a temporary file first
+ * and renamed over it when complete, so the output folder may be the input
+ * folder; the trees of an in-place run that was interrupted while replacing
+ * them are restored by the next run. The number of nodes and the time taken
+ * by each file are printed in file name order.
+ * 
+ * @version $Revision$
+ */
+public class PhyloRewrite {
+
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Steps
+	 */
+	public static final String STEP_CLEAN = "clean";
+	public static final String STEP_SCALE = "scale";
+	public static final String STEP_LOG10 = "log10";
+	public static final String STEP_STRIP = "strip";
+	public static final String STEP_RENAME = "rename";
+
+	/**
+	 * Separator between a step and its argument
+	 */
+	public static final String STEP_SEPARATOR = "=";
+
+	/**
+	 * Suffix of the files being written
+	 */
+	public static final String TEMPORARY_SUFFIX = ".tmp";
+
+	/**
+	 * @param args
+	 *            The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length >= 3) {
+			try {
+				String ifolder = args[0]; // Folder with input trees
+				String ofolder = args[1]; // Folder for output trees
+
+				NewickRewriter rewriter = new NewickRewriter();
+				for (int i = 2; i < args.length; i++) {
+					rewriter.add(step(args[i]));
+				}
+
+				int n = rewrite(ifolder, ofolder, rewriter, System.out);
+
+				logger.info(ifolder + Commons.TAB + n);
+
+			} catch (Exception e) {
+				String msg = "Failed rewriting trees: " + e.getMessage();
+				logger.log(Level.SEVERE, msg, e);
+				System.exit(1);
+			}
+		} else {
+			logger.severe("Invalid number of arguments: " + args.length);
+			System.err.println("Expected: infolder outfolder step [step ...]");
+			System.err.println("Steps: " + STEP_CLEAN + STEP_SEPARATOR + "min " + STEP_SCALE + STEP_SEPARATOR + "factor " + STEP_LOG10 + "[" + STEP_SEPARATOR + "scale] "
+					+ STEP_STRIP + " " + STEP_RENAME + STEP_SEPARATOR + "file");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Returns the rewrite of a command line step
+	 * 
+	 * @param step
+	 *            Step, with its argument after {@link #STEP_SEPARATOR} if any
+	 * @return The rewrite
+	 * @throws Exception
+	 */
+	public static NewickRewriter.Rewrite step(String step) throws Exception {
+
+		String name = step;
+		String argument = null;
+		int separator = step.indexOf(STEP_SEPARATOR);
+		if (separator != -1) {
+			name = step.substring(0, separator);
+			argument = step.substring(separator + STEP_SEPARATOR.length());
+		}
+
+		if (name.equalsIgnoreCase(STEP_CLEAN) && argument != null) {
+			return NewickRewriter.bootstrap(Float.parseFloat(argument));
+		} else if (name.equalsIgnoreCase(STEP_SCALE) && argument != null) {
+			return NewickRewriter.scale(Float.parseFloat(argument));
+		} else if (name.equalsIgnoreCase(STEP_LOG10)) {
+			return NewickRewriter.log10(argument == null ? 1 : Float.parseFloat(argument));
+		} else if (name.equalsIgnoreCase(STEP_STRIP) && argument == null) {
+			return NewickRewriter.strip();
+		} else if (name.equalsIgnoreCase(STEP_RENAME) && argument != null) {
+			return NewickRewriter.rename(NameTable.load(argument));
+		}
+
+		throw new Exception("Invalid step: " + step);
+	}
+
+	/**
+	 * Rewrites the trees of a folder into another folder (possibly the same)
+	 * using all the available processors
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param outfolder
+	 *            Output folder
+	 * @param rewriter
+	 *            Rewriter (shared by the threads)
+	 * @param out
+	 *            Stream for the number of nodes and the milliseconds taken by
+	 *            each file
+	 * @return Number of files rewritten
+	 * @throws Exception
+	 */
+	public static int rewrite(String infolder, String outfolder, final NewickRewriter rewriter, PrintStream out) throws Exception {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try {
+
+			long start = System.currentTimeMillis();
+
+			final File folder = new File(outfolder);
+			if (!folder.exists() && !folder.mkdirs()) {
+				throw new Exception("Failed creating output folder " + outfolder);
+			}
+
+			if (folder.getCanonicalFile().equals(new File(infolder).getCanonicalFile())) {
+				restore(folder);
+			}
+
+			String[] files = new File(infolder).list();
+			Arrays.sort(files);
+
+			logger.info("Rewriting " + files.length + " files using " + threads + " threads...");
+
+			int count = 0;
+
+			LinkedList<Future<String>> futures = new LinkedList<Future<String>>();
+
+			int i = 0;
+			while (i < files.length || !futures.isEmpty()) {
+
+				while (i < files.length && futures.size() < 4 * threads) {
+					final String name = files[i++];
+					final File infile = new File(infolder + Commons.getFileSeparator() + name);
+					// Leftovers of an interrupted run are not trees
+					if (!infile.isFile() || !infile.canRead() || name.endsWith(TEMPORARY_SUFFIX)) {
+						continue;
+					}
+					futures.add(executor.submit(new Callable<String>() {
+						public String call() throws Exception {
+							return rewrite(rewriter, infile, new File(folder, name));
+						}
+					}));
+				}
+
+				if (!futures.isEmpty()) {
+					String row = futures.removeFirst().get();
+					if (row != null) {
+						out.println(row);
+						count++;
+					}
+				}
+			}
+
+			logger.info("Finished rewriting " + count + " files in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return count;
+
+		} catch (Exception exception) {
+			String msg = "Failed rewriting trees: " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Rewrites a file through a temporary file
+	 * 
+	 * @return The timing row of the file, or null if it failed
+	 */
+	private static String rewrite(NewickRewriter rewriter, File infile, File outfile) {
+
+		File temporary = new File(outfile.getPath() + TEMPORARY_SUFFIX);
+
+		long start = System.nanoTime();
+
+		long nodes = 0;
+		try {
+			nodes = rewriter.rewrite(infile, temporary);
+		} catch (Exception e) {
+			logger.warning("Failed rewriting " + infile.getName() + ": " + e.getMessage());
+			if (temporary.exists() && !temporary.delete()) {
+				logger.warning("Failed deleting " + temporary.getPath());
+			}
+			return null;
+		}
+
+		try {
+			Commons.replace(temporary, outfile);
+		} catch (Exception e) {
+			// Once the output is gone the temporary file is the only copy
+			if (outfile.exists()) {
+				logger.warning("Failed replacing " + outfile.getName() + ": " + e.getMessage());
+				if (temporary.exists() && !temporary.delete()) {
+					logger.warning("Failed deleting " + temporary.getPath());
+				}
+			} else {
+				logger.severe("Failed replacing " + outfile.getName() + ", the rewritten tree is left in " + temporary.getPath() + ": " + e.getMessage());
+			}
+			return null;
+		}
+
+		long milliseconds = (System.nanoTime() - start) / 1000000;
+
+		return infile.getName() + Commons.TAB + nodes + Commons.TAB + milliseconds;
+	}
+
+	/**
+	 * Renames back the complete temporary files of an interrupted run that
+	 * rewrote a folder in place: a temporary file whose tree is missing was
+	 * only left after the tree was deleted to be replaced
+	 */
+	private static void restore(File folder) throws Exception {
+		for (String name : folder.list()) {
+			if (name.endsWith(TEMPORARY_SUFFIX)) {
+				File file = new File(folder, name.substring(0, name.length() - TEMPORARY_SUFFIX.length()));
+				if (!file.exists()) {
+					logger.warning("Restoring " + file.getName() + " from an interrupted run");
+					Commons.replace(new File(folder, name), file);
+				}
+			}
+		}
+	}
+}
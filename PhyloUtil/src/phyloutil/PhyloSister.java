@@ -1,14 +1,44 @@
 package phyloutil;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import phyloutil.misc.Commons;
+import phyloutil.misc.SingleLogger;
 
 public class PhyloSister {
 
+	/**
+	 * Logger
+	 */
+	private static final Logger logger = SingleLogger.getLogger();
+
+	/**
+	 * Queries all the leaves of the tree
+	 */
+	public static final String OPTION_ALL = "-all";
+
+	/**
+	 * Prefix of a file of queries (one label per line)
+	 */
+	public static final String FILE_PREFIX = "@";
+
 	public static void main(String[] args) {
 		String filename = null;
 		String nodename = null;
@@ -32,42 +62,252 @@ public class PhyloSister {
 
 			}
 
-			TreeNode tree = TreeNodeUtil.load(new File(filename));
+			if (new File(filename).isDirectory()) {
+				sisters(filename, nodename, skipset, System.out);
+			} else {
+				TreeNode tree = TreeNodeUtil.load(new File(filename));
 
-			TreeNode node = tree.find(nodename);
+				for (String row : sisters(tree, nodename, skipset)) {
+					System.out.println(row);
+				}
+			}
+
+		} catch (Exception e) {
+			System.err.println("Error in " + filename);
+			e.printStackTrace();
 
-			TreeNode sibling = TreeNodeUtil.getNearest(node, skipset);
+		}
+	}
 
-			String bootstrap = "";
+	/**
+	 * Finds the nearest sister of one or more nodes of a tree. The nearest
+	 * sisters of all the leaves are found in a single pass (see
+	 * {@link SisterFinder}).
+	 * 
+	 * @param tree
+	 *            Root of the tree
+	 * @param nodename
+	 *            A node label, a comma separated list of node labels,
+	 *            {@link #OPTION_ALL} for all the leaves, or {@link #FILE_PREFIX}
+	 *            followed by a file of node labels
+	 * @param skipset
+	 *            Leaves to skip (any leaf whose label contains one of the
+	 *            strings)
+	 * @return One tab separated line per node: the node label, the label of
+	 *         its nearest sister and the bootstrap of their lowest common
+	 *         ancestor (the last two are empty if there is no sister)
+	 * @throws Exception
+	 */
+	public static List<String> sisters(TreeNode tree, String nodename, Set<String> skipset) throws Exception {
 
-			if (sibling != null) {
+		List<String> queries = new ArrayList<String>();
+		List<TreeNode> nodes = new ArrayList<TreeNode>();
 
-				List<TreeNode> list = new ArrayList<TreeNode>();
-				list.add(node);
-				list.add(sibling);
+		if (nodename.equals(OPTION_ALL)) {
+			for (TreeNode leaf : tree.getLeaves()) {
+				queries.add(leaf.getLabel());
+				nodes.add(leaf);
+			}
+		} else {
+			LabelIndex index = tree.getLabelIndex();
+			for (String query : labels(nodename)) {
+				queries.add(query);
+				nodes.add(index.find(query));
+			}
+		}
 
-				int id = TreeNodeUtil.lca(list);
-				TreeNode lca = tree.getNode(id);
+		return sisters(tree, queries, nodes, skipset);
+	}
 
-				if (lca != null) {
-					String _bootstrap = lca.getLabel();
+	/**
+	 * Finds the nearest sister of the matching leaves of every tree of a
+	 * folder. The trees are loaded and searched in parallel, and the rows are
+	 * written in file name order as soon as they are ready.
+	 * 
+	 * @param infolder
+	 *            Input folder
+	 * @param pattern
+	 *            Regular expression matching the whole labels of the query
+	 *            leaves, or {@link #OPTION_ALL} for all the leaves
+	 * @param skipset
+	 *            Leaves to skip (any leaf whose label contains one of the
+	 *            strings)
+	 * @param out
+	 *            Output of the rows: the tree file name followed by the
+	 *            columns of {@link #sisters(TreeNode, String, Set)}
+	 * @return The number of rows
+	 * @throws Exception
+	 */
+	public static int sisters(String infolder, String pattern, final Set<String> skipset, PrintStream out) throws Exception {
+		try {
 
-					if (_bootstrap == "") {
-						bootstrap = "0.0";
-					} else {
-						bootstrap = _bootstrap;
+			long start = System.currentTimeMillis();
+
+			final Pattern regex = pattern.equals(OPTION_ALL) ? null : Pattern.compile(pattern);
+
+			String[] files = new File(infolder).list();
+			Arrays.sort(files);
+
+			int threads = Runtime.getRuntime().availableProcessors();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+			int rows = 0;
+			int trees = 0;
+
+			try {
+				LinkedList<Future<List<String>>> futures = new LinkedList<Future<List<String>>>();
+
+				int i = 0;
+				while (i < files.length || !futures.isEmpty()) {
+
+					// Keeps a bounded number of trees in memory
+					while (i < files.length && futures.size() < 4 * threads) {
+						final File infile = new File(infolder + Commons.getFileSeparator() + files[i++]);
+						if (!infile.isFile() || !infile.canRead()) {
+							continue;
+						}
+						futures.add(executor.submit(new Callable<List<String>>() {
+							public List<String> call() {
+								return sisters(infile, regex, skipset);
+							}
+						}));
 					}
 
+					if (!futures.isEmpty()) {
+						List<String> lines = futures.removeFirst().get();
+						StringBuffer buffer = new StringBuffer();
+						for (String line : lines) {
+							buffer.append(line);
+							buffer.append(Commons.getLineSeparator());
+						}
+						out.print(buffer.toString());
+						rows += lines.size();
+						trees++;
+					}
 				}
-
+			} finally {
+				executor.shutdown();
+				out.flush();
 			}
 
-			System.out.println(nodename + "\t" + (sibling != null ? sibling.getLabel() : "") + "\t" + bootstrap);
+			logger.info("Finished " + rows + " queries in " + trees + " trees in " + (System.currentTimeMillis() - start) + " milliseconds");
+
+			return rows;
+
+		} catch (Exception exception) {
+			String msg = "Failed finding sisters in " + infolder + ": " + exception.getMessage();
+			logger.log(Level.SEVERE, msg, exception);
+			throw new Exception(msg, exception);
+		}
+	}
+
+	/**
+	 * Returns the rows of the matching leaves of a tree file, each starting
+	 * with the file name (none if the tree fails to load)
+	 */
+	private static List<String> sisters(File infile, Pattern regex, Set<String> skipset) {
+
+		List<String> rows = new ArrayList<String>();
+
+		try {
+			TreeNode tree = TreeNodeUtil.load(infile);
+
+			List<String> queries = new ArrayList<String>();
+			List<TreeNode> nodes = new ArrayList<TreeNode>();
+			for (TreeNode leaf : tree.getLeaves()) {
+				if (regex == null || regex.matcher(leaf.getLabel()).matches()) {
+					queries.add(leaf.getLabel());
+					nodes.add(leaf);
+				}
+			}
 
+			if (!nodes.isEmpty()) {
+				for (String row : sisters(tree, queries, nodes, skipset)) {
+					rows.add(infile.getName() + Commons.TAB + row);
+				}
+			}
 		} catch (Exception e) {
-			System.err.println("Error in " + filename);
-			e.printStackTrace();
+			String msg = "Failed finding sisters in " + infile.getName() + ": " + e.getMessage();
+			logger.log(Level.SEVERE, msg, e);
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Returns the rows of a list of queries and their nodes (null for the
+	 * queries not found)
+	 */
+	private static List<String> sisters(TreeNode tree, List<String> queries, List<TreeNode> nodes, Set<String> skipset) {
+
+		List<String> rows = new ArrayList<String>();
+
+		SisterFinder finder = new SisterFinder(tree, skipset);
+
+		for (int i = 0, n = queries.size(); i < n; i++) {
 
+			TreeNode node = nodes.get(i);
+
+			TreeNode sibling = null;
+			TreeNode lca = null;
+
+			if (node == null) {
+				// Not found
+			} else if (node.isLeaf()) {
+				sibling = finder.getSister(node);
+				lca = finder.getAncestor(node);
+			} else {
+				sibling = TreeNodeUtil.getNearest(node, skipset);
+				if (sibling != null) {
+					List<TreeNode> list = new ArrayList<TreeNode>();
+					list.add(node);
+					list.add(sibling);
+					lca = tree.getNode(TreeNodeUtil.lca(list));
+				}
+			}
+
+			String bootstrap = "";
+
+			if (lca != null) {
+				bootstrap = lca.getLabel().length() == 0 ? "0.0" : lca.getLabel();
+			}
+
+			rows.add(queries.get(i) + Commons.TAB + (sibling != null ? sibling.getLabel() : "") + Commons.TAB + bootstrap);
 		}
+
+		return rows;
+	}
+
+	/**
+	 * Returns the node labels of a query
+	 */
+	private static List<String> labels(String nodename) throws Exception {
+
+		List<String> labels = new ArrayList<String>();
+
+		if (nodename.startsWith(FILE_PREFIX)) {
+			BufferedReader reader = null;
+			try {
+				reader = new BufferedReader(new FileReader(nodename.substring(FILE_PREFIX.length())));
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith(Commons.COMMENT_STARTER)) {
+						labels.add(line);
+					}
+				}
+			} finally {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+		} else {
+			StringTokenizer tokenizer = new StringTokenizer(nodename, ",");
+			while (tokenizer.hasMoreTokens()) {
+				labels.add(tokenizer.nextToken());
+			}
+		}
+
+		return labels;
 	}
 }
@@ -472,6 +472,9 @@ public class PhyloSort {
 
 			Config config = Config.getInstance();
 
+			// Result of each distinct tree when deduplicating
+			Map<String, Boolean> outcomes = new HashMap<String, Boolean>();
+
 			if (config.isMinimumBootstrapSupportOn()) {
 
 				for (String filename : files) {
@@ -496,75 +499,103 @@ public class PhyloSort {
 
 							TreeNode tree = TreeNodeUtil.load(infile);
 
-							int size = Config.DEFAULT_MINIMUM_NUMBER_OF_TAXA;
+							String key = null;
+							Boolean outcome = null;
 
-							if (config.isMaximumNumberOfTaxaOn() || config.isMinimumNumberOfTaxaOn()) {
-								size = tree.size();
+							if (config.isDeduplicate()) {
+								// Identical trees (up to the order of the children
+								// and, unless the root depends on them, the branch
+								// lengths) give the same result
+								key = CanonicalTree.key(tree, config.isMidpoint(), true);
+								if (config.isQueryRequired()) {
+									key = key + Commons.TAB + query;
+								}
+								outcome = outcomes.get(key);
 							}
 
-							float copies = Config.DEFAULT_MAXIMUM_AVERAGE_NUMBER_OF_COPIES;
+							if (outcome == null) {
 
-							if (config.isMaximumAverageNumberOfCopiesOn()) {
-								copies = TreeNodeUtil.getAverageNumberOfCopies(tree);
-							}
+								boolean matched = false;
 
-							if ((!config.isMinimumNumberOfTaxaOn() || (config.isMinimumNumberOfTaxaOn() && size >= config.getMinimumNumberOfTaxa()))
-									&& (!config.isMaximumNumberOfTaxaOn() || (config.isMaximumNumberOfTaxaOn() && size <= config.getMaximumNumberOfTaxa()))
-									&& (!config.isMaximumAverageNumberOfCopiesOn() || (config.isMaximumAverageNumberOfCopiesOn() && copies <= config.getMaximumAverageNumberOfCopies()))) {
+								int size = Config.DEFAULT_MINIMUM_NUMBER_OF_TAXA;
 
-								Collection<TreeNode> monophyletic = null;
-								TreeNode tree2 = tree;
+								if (config.isMaximumNumberOfTaxaOn() || config.isMinimumNumberOfTaxaOn()) {
+									size = tree.size();
+								}
 
-								if (Config.getInstance().isOutgroup()) {
-									TreeNode outgroup = TreeNodeUtil.findOutgroup(tree, set);
-									if (outgroup != null) {
-										TreeNode rerooted = TreeNodeUtil.reroot(outgroup);
-										// System.out.println ("Rerooted: " + rerooted.toString());
-										tree2 = rerooted;
-									}
+								float copies = Config.DEFAULT_MAXIMUM_AVERAGE_NUMBER_OF_COPIES;
+
+								if (config.isMaximumAverageNumberOfCopiesOn()) {
+									copies = TreeNodeUtil.getAverageNumberOfCopies(tree);
 								}
 
-								monophyletic = TreeNodeUtil.getAllMonophyleticNodes(tree2, taxa, config.isExclusive(), query);
+								if ((!config.isMinimumNumberOfTaxaOn() || (config.isMinimumNumberOfTaxaOn() && size >= config.getMinimumNumberOfTaxa()))
+										&& (!config.isMaximumNumberOfTaxaOn() || (config.isMaximumNumberOfTaxaOn() && size <= config.getMaximumNumberOfTaxa()))
+										&& (!config.isMaximumAverageNumberOfCopiesOn() || (config.isMaximumAverageNumberOfCopiesOn() && copies <= config.getMaximumAverageNumberOfCopies()))) {
+
+									Collection<TreeNode> monophyletic = null;
+									TreeNode tree2 = tree;
 
-								if (monophyletic != null) {
+									if (Config.getInstance().isOutgroup()) {
+										TreeNode outgroup = TreeNodeUtil.findOutgroup(tree, set);
+										if (outgroup != null) {
+											TreeNode rerooted = TreeNodeUtil.reroot(outgroup);
+											// System.out.println ("Rerooted: " + rerooted.toString());
+											tree2 = rerooted;
+										}
+									} else if (Config.getInstance().isMidpoint()) {
+										tree2 = new TreeDiameter(tree).getMidpointRoot();
+									}
 
-									Iterator<TreeNode> iterator = monophyletic.iterator();
-									boolean found = false;
+									monophyletic = TreeNodeUtil.getAllMonophyleticNodes(tree2, taxa, config.isExclusive(), query);
 
-									while (iterator.hasNext() && !found) {
+									if (monophyletic != null) {
 
-										TreeNode node = iterator.next();
+										Iterator<TreeNode> iterator = monophyletic.iterator();
+										boolean found = false;
 
-										float bootstrap = 0;
+										while (iterator.hasNext() && !found) {
 
-										if (!node.isLeaf()) {
-											try {
-												String label = node.getLabel();
-												bootstrap = Float.parseFloat(label);
-											} catch (Exception silent) {
-												String msg = "Failed parsing bootstrap from tree: " + silent.getMessage();
-												logger.log(Level.WARNING, msg, silent);
+											TreeNode node = iterator.next();
+
+											float bootstrap = 0;
+
+											if (!node.isLeaf()) {
+												bootstrap = node.getSupport();
+											} else {
+												logger.warning("Matching monophyletic clade is single node. There is no bootstrap.");
 											}
-										} else {
-											logger.warning("Matching monophyletic clade is single node. There is no bootstrap.");
-										}
 
-										if (bootstrap >= config.getMinimumBootstrapSupport()) {
-											if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_COPY)) {
-												File outfile = new File(outfullpath);
-												Commons.copy(infile, outfile);
-											} else if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_MOVE)) {
-												File outfile = new File(outfullpath);
-												Commons.move(infile, outfile);
+											if (bootstrap >= config.getMinimumBootstrapSupport()) {
+												found = true;
 											}
-											found = true;
-											match++;
+
 										}
 
+										matched = found;
 									}
 
 								}
 
+								outcome = Boolean.valueOf(matched);
+
+								if (key != null) {
+									outcomes.put(key, outcome);
+								}
+
+							} else {
+								logger.info(filename + " is identical to an already evaluated tree");
+							}
+
+							if (outcome.booleanValue()) {
+								if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_COPY)) {
+									File outfile = new File(outfullpath);
+									Commons.copy(infile, outfile);
+								} else if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_MOVE)) {
+									File outfile = new File(outfullpath);
+									Commons.move(infile, outfile);
+								}
+								match++;
 							}
 
 							long end2 = System.currentTimeMillis();
@@ -597,49 +628,81 @@ public class PhyloSort {
 
 							TreeNode tree = TreeNodeUtil.load(infile);
 
-							int size = Config.DEFAULT_MINIMUM_NUMBER_OF_TAXA;
+							String key = null;
+							Boolean outcome = null;
 
-							if (config.isMaximumNumberOfTaxaOn() || config.isMinimumNumberOfTaxaOn()) {
-								size = tree.size();
+							if (config.isDeduplicate()) {
+								// Identical trees (up to the order of the children
+								// and, unless the root depends on them, the branch
+								// lengths) give the same result
+								key = CanonicalTree.key(tree, config.isMidpoint(), false);
+								if (config.isQueryRequired()) {
+									key = key + Commons.TAB + query;
+								}
+								outcome = outcomes.get(key);
 							}
 
-							float copies = Config.DEFAULT_MAXIMUM_AVERAGE_NUMBER_OF_COPIES;
+							if (outcome == null) {
 
-							if (config.isMaximumAverageNumberOfCopiesOn()) {
-								copies = TreeNodeUtil.getAverageNumberOfCopies(tree);
-							}
+								boolean matched = false;
 
-							if ((!config.isMinimumNumberOfTaxaOn() || (config.isMinimumNumberOfTaxaOn() && size >= config.getMinimumNumberOfTaxa()))
-									&& (!config.isMaximumNumberOfTaxaOn() || (config.isMaximumNumberOfTaxaOn() && size <= config.getMaximumNumberOfTaxa()))
-									&& (!config.isMaximumAverageNumberOfCopiesOn() || (config.isMaximumAverageNumberOfCopiesOn() && copies <= config.getMaximumAverageNumberOfCopies()))) {
+								int size = Config.DEFAULT_MINIMUM_NUMBER_OF_TAXA;
 
-								Collection<TreeNode> monophyletic = null;
-								TreeNode tree2 = tree;
+								if (config.isMaximumNumberOfTaxaOn() || config.isMinimumNumberOfTaxaOn()) {
+									size = tree.size();
+								}
 
-								if (Config.getInstance().isOutgroup()) {
-									TreeNode outgroup = TreeNodeUtil.findOutgroup(tree, set);
-									if (outgroup != null) {
-										TreeNode rerooted = TreeNodeUtil.reroot(outgroup);
-										// System.out.println ("Rerooted: " + rerooted.toString());
-										tree2 = rerooted;
-									}
+								float copies = Config.DEFAULT_MAXIMUM_AVERAGE_NUMBER_OF_COPIES;
+
+								if (config.isMaximumAverageNumberOfCopiesOn()) {
+									copies = TreeNodeUtil.getAverageNumberOfCopies(tree);
 								}
 
-								monophyletic = TreeNodeUtil.getAllMonophyleticNodes(tree2, taxa, config.isExclusive(), query);
+								if ((!config.isMinimumNumberOfTaxaOn() || (config.isMinimumNumberOfTaxaOn() && size >= config.getMinimumNumberOfTaxa()))
+										&& (!config.isMaximumNumberOfTaxaOn() || (config.isMaximumNumberOfTaxaOn() && size <= config.getMaximumNumberOfTaxa()))
+										&& (!config.isMaximumAverageNumberOfCopiesOn() || (config.isMaximumAverageNumberOfCopiesOn() && copies <= config.getMaximumAverageNumberOfCopies()))) {
 
-								if (monophyletic != null) {
+									Collection<TreeNode> monophyletic = null;
+									TreeNode tree2 = tree;
 
-									if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_COPY)) {
-										File outfile = new File(outfullpath);
-										Commons.copy(infile, outfile);
-									} else if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_MOVE)) {
-										File outfile = new File(outfullpath);
-										Commons.move(infile, outfile);
+									if (Config.getInstance().isOutgroup()) {
+										TreeNode outgroup = TreeNodeUtil.findOutgroup(tree, set);
+										if (outgroup != null) {
+											TreeNode rerooted = TreeNodeUtil.reroot(outgroup);
+											// System.out.println ("Rerooted: " + rerooted.toString());
+											tree2 = rerooted;
+										}
+									} else if (Config.getInstance().isMidpoint()) {
+										tree2 = new TreeDiameter(tree).getMidpointRoot();
 									}
 
-									match++;
+									monophyletic = TreeNodeUtil.getAllMonophyleticNodes(tree2, taxa, config.isExclusive(), query);
+
+									if (monophyletic != null) {
+										matched = true;
+									}
+
+								}
+
+								outcome = Boolean.valueOf(matched);
+
+								if (key != null) {
+									outcomes.put(key, outcome);
 								}
 
+							} else {
+								logger.info(filename + " is identical to an already evaluated tree");
+							}
+
+							if (outcome.booleanValue()) {
+								if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_COPY)) {
+									File outfile = new File(outfullpath);
+									Commons.copy(infile, outfile);
+								} else if (config.getOnMatchAction().equalsIgnoreCase(Config.PROPERTY_ON_MATCH_ACTION_MOVE)) {
+									File outfile = new File(outfullpath);
+									Commons.move(infile, outfile);
+								}
+								match++;
 							}
 
 							long end2 = System.currentTimeMillis();
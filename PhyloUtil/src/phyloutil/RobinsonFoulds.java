@@ -0,0 +1,403 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.Arrays;
+
+/**
+ * Robinson-Foulds (RF) distance between unrooted trees, computed on hashed
+ * bipartitions and restricted to the taxa shared by the two trees.
+ * 
+ * Each tree is first reduced to a {@link Profile}: its sorted taxon ids, the
+ * sorted hashes of its non-trivial splits (from {@link SplitTable}) and its
+ * clades as bitsets over its own taxa. When two trees have the same taxa, the
+ * distance is a merge of the two hash lists. Otherwise the clades are
+ * restricted to the shared taxa and hashed again before the merge.
+ * 
+ * @version $Revision$
+ */
+public final class RobinsonFoulds {
+
+	/**
+	 * Seed of the first half of the restricted split hash
+	 */
+	private static final long SEED1 = 0x2545F4914F6CDD1DL;
+
+	/**
+	 * Seed of the second half of the restricted split hash
+	 */
+	private static final long SEED2 = 0x61C8864680B583EBL;
+
+	/**
+	 * Hidden constructor
+	 */
+	private RobinsonFoulds() {
+
+	}
+
+	/**
+	 * Compact split profile of one tree
+	 */
+	public static final class Profile {
+
+		/**
+		 * Sorted taxon ids of the tree
+		 */
+		private final int[] taxa;
+
+		/**
+		 * Sorted unique hashes (first and last 64 bits interleaved) of the
+		 * non-trivial splits of the tree
+		 */
+		private final long[] hashes;
+
+		/**
+		 * Clades as bitsets over the local taxon indices (one block of
+		 * <code>words</code> longs per clade)
+		 */
+		private final long[] clades;
+
+		/**
+		 * Number of words per clade
+		 */
+		private final int words;
+
+		/**
+		 * Hidden constructor
+		 */
+		private Profile(int[] taxa, long[] hashes, long[] clades, int words) {
+			this.taxa = taxa;
+			this.hashes = hashes;
+			this.clades = clades;
+			this.words = words;
+		}
+
+		/**
+		 * Returns the number of taxa in the tree
+		 * 
+		 * @return The number of taxa
+		 */
+		public int getTaxaCount() {
+			return taxa.length;
+		}
+
+		/**
+		 * Returns the number of distinct non-trivial splits in the tree
+		 * 
+		 * @return The number of splits
+		 */
+		public int getSplitCount() {
+			return hashes.length / 2;
+		}
+	}
+
+	/**
+	 * Builds the split profile of a tree
+	 * 
+	 * @param tree
+	 *            {@link TreeNode} root of the tree
+	 * @param dictionary
+	 *            {@link TaxonDictionary} shared by all the compared trees
+	 * @return {@link Profile} of the tree
+	 */
+	public static Profile profile(TreeNode tree, TaxonDictionary dictionary) {
+
+		SplitTable table = SplitTable.build(tree, dictionary);
+
+		long[] all = table.getTaxa();
+		int[] taxa = new int[SplitTable.cardinality(all)];
+		int t = 0;
+		for (int i = 0; i < all.length; i++) {
+			long word = all[i];
+			while (word != 0) {
+				taxa[t++] = (i << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+			}
+		}
+
+		int words = SplitTable.words(taxa.length);
+		int n = table.size();
+
+		long[] clades = new long[n * words];
+		long[] hashes = new long[2 * n];
+		int count = 0;
+
+		for (int c = 0; c < n; c++) {
+			long[] clade = table.getClade(c);
+			for (int i = 0; i < clade.length; i++) {
+				long word = clade[i];
+				while (word != 0) {
+					int local = Arrays.binarySearch(taxa, (i << 6) + Long.numberOfTrailingZeros(word));
+					clades[c * words + (local >>> 6)] |= 1L << local;
+					word &= word - 1;
+				}
+			}
+			if (!table.isTrivial(c)) {
+				hashes[2 * count] = table.getHash1(c);
+				hashes[2 * count + 1] = table.getHash2(c);
+				count++;
+			}
+		}
+
+		return new Profile(taxa, unique(hashes, count), clades, words);
+	}
+
+	/**
+	 * Returns the RF distance between two trees
+	 * 
+	 * @param tree1
+	 *            First tree
+	 * @param tree2
+	 *            Second tree
+	 * @return The number of splits found in only one of the trees
+	 */
+	public static int distance(TreeNode tree1, TreeNode tree2) {
+		TaxonDictionary dictionary = new TaxonDictionary();
+		return distance(profile(tree1, dictionary), profile(tree2, dictionary));
+	}
+
+	/**
+	 * Returns the RF distance between two profiles
+	 * 
+	 * @param profile1
+	 *            First {@link Profile}
+	 * @param profile2
+	 *            Second {@link Profile}
+	 * @return The number of splits found in only one of the trees
+	 */
+	public static int distance(Profile profile1, Profile profile2) {
+		long[][] splits = splits(profile1, profile2);
+		return difference(splits[0], splits[1]);
+	}
+
+	/**
+	 * Returns the normalized RF distance between two profiles, i.e. the RF
+	 * distance divided by the total number of splits in both trees (which is
+	 * 2(n - 3) for two binary trees on n shared taxa)
+	 * 
+	 * @param profile1
+	 *            First {@link Profile}
+	 * @param profile2
+	 *            Second {@link Profile}
+	 * @return The normalized distance between 0 and 1
+	 */
+	public static float normalized(Profile profile1, Profile profile2) {
+		long[][] splits = splits(profile1, profile2);
+		int total = (splits[0].length + splits[1].length) / 2;
+		if (total == 0) {
+			return 0;
+		}
+		return difference(splits[0], splits[1]) / (float) total;
+	}
+
+	/**
+	 * Returns the normalized RF distance between two trees
+	 * 
+	 * @param tree1
+	 *            First tree
+	 * @param tree2
+	 *            Second tree
+	 * @return The normalized distance between 0 and 1
+	 */
+	public static float normalized(TreeNode tree1, TreeNode tree2) {
+		TaxonDictionary dictionary = new TaxonDictionary();
+		return normalized(profile(tree1, dictionary), profile(tree2, dictionary));
+	}
+
+	/**
+	 * Returns the split hashes of two profiles restricted to their shared taxa
+	 */
+	private static long[][] splits(Profile profile1, Profile profile2) {
+
+		if (Arrays.equals(profile1.taxa, profile2.taxa)) {
+			return new long[][] { profile1.hashes, profile2.hashes };
+		}
+
+		long[] mask1 = new long[profile1.words];
+		long[] mask2 = new long[profile2.words];
+
+		// Merge the sorted taxon ids to find the shared ones
+		int shared = 0;
+		int pivot = -1;
+		for (int i = 0, j = 0; i < profile1.taxa.length && j < profile2.taxa.length;) {
+			int a = profile1.taxa[i];
+			int b = profile2.taxa[j];
+			if (a < b) {
+				i++;
+			} else if (a > b) {
+				j++;
+			} else {
+				if (pivot == -1) {
+					pivot = a;
+				}
+				mask1[i >>> 6] |= 1L << i;
+				mask2[j >>> 6] |= 1L << j;
+				shared++;
+				i++;
+				j++;
+			}
+		}
+
+		if (shared < 4) {
+			return new long[][] { new long[0], new long[0] };
+		}
+
+		return new long[][] { restrict(profile1, mask1, shared, pivot), restrict(profile2, mask2, shared, pivot) };
+	}
+
+	/**
+	 * Hashes the clades of a profile restricted to a set of shared taxa. A
+	 * restricted split is hashed as the sum of random values of its taxa and
+	 * normalized to the side without the pivot (smallest shared) taxon.
+	 */
+	private static long[] restrict(Profile profile, long[] mask, int shared, int pivot) {
+
+		long total1 = 0;
+		long total2 = 0;
+		for (int i = 0; i < mask.length; i++) {
+			long word = mask[i];
+			while (word != 0) {
+				int id = profile.taxa[(i << 6) + Long.numberOfTrailingZeros(word)];
+				total1 += random(id, SEED1);
+				total2 += random(id, SEED2);
+				word &= word - 1;
+			}
+		}
+
+		int local = Arrays.binarySearch(profile.taxa, pivot);
+
+		int n = profile.clades.length / Math.max(profile.words, 1);
+		long[] hashes = new long[2 * n];
+		int count = 0;
+
+		for (int c = 0; c < n; c++) {
+			int offset = c * profile.words;
+			long hash1 = 0;
+			long hash2 = 0;
+			int size = 0;
+			for (int i = 0; i < profile.words; i++) {
+				long word = profile.clades[offset + i] & mask[i];
+				while (word != 0) {
+					int id = profile.taxa[(i << 6) + Long.numberOfTrailingZeros(word)];
+					hash1 += random(id, SEED1);
+					hash2 += random(id, SEED2);
+					size++;
+					word &= word - 1;
+				}
+			}
+			if (size < 2 || shared - size < 2) {
+				continue;
+			}
+			if ((profile.clades[offset + (local >>> 6)] & (1L << local)) != 0) {
+				hash1 = total1 - hash1;
+				hash2 = total2 - hash2;
+			}
+			hashes[2 * count] = hash1;
+			hashes[2 * count + 1] = hash2;
+			count++;
+		}
+
+		return unique(hashes, count);
+	}
+
+	/**
+	 * Returns the random value of a taxon id
+	 */
+	private static long random(int id, long seed) {
+		return SplitTable.mix(seed + 0x9E3779B97F4A7C15L * (id + 1));
+	}
+
+	/**
+	 * Returns the number of hashes found in only one of two sorted lists
+	 */
+	private static int difference(long[] hashes1, long[] hashes2) {
+		int common = 0;
+		for (int i = 0, j = 0; i < hashes1.length && j < hashes2.length;) {
+			int c = SplitTable.compare(hashes1[i], hashes1[i + 1], hashes2[j], hashes2[j + 1]);
+			if (c < 0) {
+				i += 2;
+			} else if (c > 0) {
+				j += 2;
+			} else {
+				common++;
+				i += 2;
+				j += 2;
+			}
+		}
+		return (hashes1.length + hashes2.length) / 2 - 2 * common;
+	}
+
+	/**
+	 * Sorts interleaved 128-bit hashes and drops the duplicates
+	 */
+	private static long[] unique(long[] hashes, int count) {
+		sort(hashes, 0, count - 1);
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (n == 0 || hashes[2 * i] != hashes[2 * (n - 1)] || hashes[2 * i + 1] != hashes[2 * (n - 1) + 1]) {
+				hashes[2 * n] = hashes[2 * i];
+				hashes[2 * n + 1] = hashes[2 * i + 1];
+				n++;
+			}
+		}
+		long[] result = new long[2 * n];
+		System.arraycopy(hashes, 0, result, 0, 2 * n);
+		return result;
+	}
+
+	/**
+	 * Sorts the interleaved 128-bit hashes from index <code>low</code> to
+	 * index <code>high</code> (inclusive)
+	 */
+	private static void sort(long[] hashes, int low, int high) {
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			long pivot1 = hashes[2 * middle];
+			long pivot2 = hashes[2 * middle + 1];
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (SplitTable.compare(hashes[2 * i], hashes[2 * i + 1], pivot1, pivot2) < 0) {
+					i++;
+				}
+				while (SplitTable.compare(hashes[2 * j], hashes[2 * j + 1], pivot1, pivot2) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					long t1 = hashes[2 * i];
+					long t2 = hashes[2 * i + 1];
+					hashes[2 * i] = hashes[2 * j];
+					hashes[2 * i + 1] = hashes[2 * j + 1];
+					hashes[2 * j] = t1;
+					hashes[2 * j + 1] = t2;
+					i++;
+					j--;
+				}
+			}
+			// Recurse into the smaller part only to bound the stack depth
+			if (j - low < high - i) {
+				sort(hashes, low, j);
+				low = i;
+			} else {
+				sort(hashes, i, high);
+				high = j;
+			}
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * Nearest leaf of every leaf of a tree, as found by
+ * {@link TreeNodeUtil#getNearest(TreeNode, Set)}: the closest leaf (fewest
+ * branches, then shortest length, then first in leaf order) under the lowest
+ * ancestor that has a leaf other than the query, leaving out the leaves whose
+ * labels contain a string of the skip set.
+ * 
+ * All the leaves are answered in O(n log n) time. The best leaf under each
+ * node, and the best two children of each node, are found in one bottom-up
+ * pass. The lowest ancestor of each leaf with another leaf under it is then
+ * found with a binary search on the path from the root, since the number of
+ * leaves under the ancestors only grows towards the root.
+ * 
+ * @version $Revision$
+ */
+public final class SisterFinder {
+
+	/**
+	 * Nodes in preorder
+	 */
+	private final TreeNode[] nodes;
+
+	/**
+	 * Preorder index of each node
+	 */
+	private final Map<TreeNode, Integer> indices = new IdentityHashMap<TreeNode, Integer>();
+
+	/**
+	 * Nearest leaf of each leaf (-1 if none)
+	 */
+	private final int[] sisters;
+
+	/**
+	 * Lowest common ancestor of each leaf and its nearest leaf (-1 if none)
+	 */
+	private final int[] ancestors;
+
+	/**
+	 * Finds the nearest leaf of every leaf of a tree
+	 * 
+	 * @param tree
+	 *            Root of the tree
+	 * @param skipset
+	 *            Leaves to skip (any leaf whose label contains one of the
+	 *            strings)
+	 */
+	public SisterFinder(TreeNode tree, Set<String> skipset) {
+
+		// Preorder, with the depth of each node
+		List<TreeNode> list = new ArrayList<TreeNode>();
+		List<Integer> levels = new ArrayList<Integer>();
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		Stack<Integer> depths = new Stack<Integer>();
+		stack.push(tree);
+		depths.push(Integer.valueOf(0));
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			Integer depth = depths.pop();
+			indices.put(node, Integer.valueOf(list.size()));
+			list.add(node);
+			levels.add(depth);
+			if (!node.isLeaf()) {
+				List<TreeNode> children = new ArrayList<TreeNode>();
+				for (TreeNode child : node.getChildren()) {
+					children.add(child);
+				}
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+					depths.push(Integer.valueOf(depth.intValue() + 1));
+				}
+			}
+		}
+
+		int n = list.size();
+
+		nodes = list.toArray(new TreeNode[n]);
+
+		// Number of kept leaves under each node
+		int[] counts = new int[n];
+
+		// Best kept leaf under each node, with its distance to the node
+		int[] best = new int[n];
+		int[] bestDepths = new int[n];
+		float[] bestLengths = new float[n];
+
+		// Best two children of each node (-1 if none)
+		int[] first = new int[n];
+		int[] second = new int[n];
+
+		for (int v = n - 1; v >= 0; v--) {
+
+			TreeNode node = nodes[v];
+
+			first[v] = -1;
+			second[v] = -1;
+			best[v] = -1;
+
+			if (node.isLeaf()) {
+				if (!skip(node, skipset)) {
+					counts[v] = 1;
+					best[v] = v;
+				}
+				continue;
+			}
+
+			for (TreeNode child : node.getChildren()) {
+				int c = indices.get(child).intValue();
+				counts[v] += counts[c];
+				if (best[c] == -1) {
+					continue;
+				}
+				// Children are visited in order, so ties keep the first one
+				if (first[v] == -1 || closer(bestDepths, bestLengths, nodes, c, first[v])) {
+					second[v] = first[v];
+					first[v] = c;
+				} else if (second[v] == -1 || closer(bestDepths, bestLengths, nodes, c, second[v])) {
+					second[v] = c;
+				}
+			}
+
+			if (first[v] != -1) {
+				int c = first[v];
+				best[v] = best[c];
+				bestDepths[v] = bestDepths[c] + 1;
+				bestLengths[v] = bestLengths[c] + nodes[c].getLength();
+			}
+		}
+
+		sisters = new int[n];
+		ancestors = new int[n];
+		Arrays.fill(sisters, -1);
+		Arrays.fill(ancestors, -1);
+
+		// Ancestors of the current node, from the root
+		int[] path = new int[n];
+
+		for (int v = 0; v < n; v++) {
+
+			int depth = levels.get(v).intValue();
+			path[depth] = v;
+
+			if (!nodes[v].isLeaf() || depth == 0) {
+				continue;
+			}
+
+			// Deepest ancestor with a kept leaf other than this one
+			int minimum = counts[v] + 1;
+			if (counts[path[0]] < minimum) {
+				continue;
+			}
+			int low = 0;
+			int high = depth - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (counts[path[middle]] >= minimum) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+
+			int ancestor = path[low];
+			int child = path[low + 1];
+			int sister = first[ancestor] != child ? first[ancestor] : second[ancestor];
+
+			sisters[v] = best[sister];
+			ancestors[v] = ancestor;
+		}
+	}
+
+	/**
+	 * Returns the nearest leaf of a leaf
+	 * 
+	 * @param leaf
+	 *            Leaf of the tree
+	 * @return The nearest leaf, or null if there is none
+	 */
+	public TreeNode getSister(TreeNode leaf) {
+		Integer v = indices.get(leaf);
+		return v == null || sisters[v.intValue()] == -1 ? null : nodes[sisters[v.intValue()]];
+	}
+
+	/**
+	 * Returns the lowest common ancestor of a leaf and its nearest leaf
+	 * 
+	 * @param leaf
+	 *            Leaf of the tree
+	 * @return The lowest common ancestor, or null if there is no nearest leaf
+	 */
+	public TreeNode getAncestor(TreeNode leaf) {
+		Integer v = indices.get(leaf);
+		return v == null || ancestors[v.intValue()] == -1 ? null : nodes[ancestors[v.intValue()]];
+	}
+
+	/**
+	 * Checks whether the best leaf under one child is closer than the best
+	 * leaf under another child, from their parent
+	 */
+	private static boolean closer(int[] depths, float[] lengths, TreeNode[] nodes, int c1, int c2) {
+		if (depths[c1] != depths[c2]) {
+			return depths[c1] < depths[c2];
+		}
+		return lengths[c1] + nodes[c1].getLength() < lengths[c2] + nodes[c2].getLength();
+	}
+
+	/**
+	 * Checks whether a leaf is skipped
+	 */
+	private static boolean skip(TreeNode leaf, Set<String> skipset) {
+		for (String skip : skipset) {
+			if (leaf.getLabel().contains(skip)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+/**
+ * Counts splits by their 128-bit hash in an open addressing table of
+ * primitive arrays. One bitset is kept per distinct split (the normalized
+ * side of the first occurrence), so the memory is bounded by the number of
+ * distinct splits, not by the number of counted trees.
+ * 
+ * @version $Revision$
+ */
+public final class SplitCounter {
+
+	/**
+	 * Initial capacity (power of two)
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Hash keys (first and last 64 bits interleaved)
+	 */
+	private long[] keys;
+
+	/**
+	 * Counts (zero for empty slots)
+	 */
+	private int[] counts;
+
+	/**
+	 * Normalized split of each slot
+	 */
+	private long[][] splits;
+
+	/**
+	 * Number of the last tree that counted each slot
+	 */
+	private int[] stamps;
+
+	/**
+	 * Number of distinct splits
+	 */
+	private int size = 0;
+
+	/**
+	 * Number of counted trees
+	 */
+	private int trees = 0;
+
+	/**
+	 * Default constructor
+	 */
+	public SplitCounter() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Counts every distinct non-trivial split of a split table once
+	 * 
+	 * @param table
+	 *            {@link SplitTable} of a tree
+	 */
+	public void add(SplitTable table) {
+		trees++;
+		long[] taxa = table.getTaxa();
+		for (int i = 0, n = table.size(); i < n; i++) {
+			if (table.isTrivial(i)) {
+				continue;
+			}
+			long hash1 = table.getHash1(i);
+			long hash2 = table.getHash2(i);
+			int slot = slot(hash1, hash2);
+			if (counts[slot] == 0) {
+				keys[2 * slot] = hash1;
+				keys[2 * slot + 1] = hash2;
+				splits[slot] = SplitTable.normalize(table.getClade(i), taxa);
+				size++;
+			} else if (stamps[slot] == trees) {
+				// The two children of a bifurcating root hold the same split
+				continue;
+			}
+			counts[slot]++;
+			stamps[slot] = trees;
+			if (2 * size > counts.length) {
+				allocate(2 * counts.length);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of counted trees
+	 * 
+	 * @return The number of counted trees
+	 */
+	public int getTreeCount() {
+		return trees;
+	}
+
+	/**
+	 * Returns the number of distinct splits
+	 * 
+	 * @return The number of distinct splits
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the capacity of the table. Slots with a zero count are empty.
+	 * 
+	 * @return The capacity of the table
+	 */
+	public int capacity() {
+		return counts.length;
+	}
+
+	/**
+	 * Returns the count of a slot
+	 * 
+	 * @param slot
+	 *            Slot index
+	 * @return The count (zero for an empty slot)
+	 */
+	public int getCount(int slot) {
+		return counts[slot];
+	}
+
+	/**
+	 * Returns the normalized split of a slot
+	 * 
+	 * @param slot
+	 *            Slot index
+	 * @return The bitset of the split or null for an empty slot
+	 */
+	public long[] getSplit(int slot) {
+		return splits[slot];
+	}
+
+	/**
+	 * Returns the count of a split
+	 * 
+	 * @param hash1
+	 *            The first 64 bits of the split hash
+	 * @param hash2
+	 *            The last 64 bits of the split hash
+	 * @return The count of the split
+	 */
+	public int getCount(long hash1, long hash2) {
+		return counts[slot(hash1, hash2)];
+	}
+
+	/**
+	 * Returns the slot of a hash (either its current slot or the empty slot
+	 * where it would go)
+	 */
+	private int slot(long hash1, long hash2) {
+		int mask = counts.length - 1;
+		int slot = (int) hash1 & mask;
+		while (counts[slot] != 0 && (keys[2 * slot] != hash1 || keys[2 * slot + 1] != hash2)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Allocates (or grows) the table
+	 */
+	private void allocate(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		long[][] oldSplits = splits;
+		int[] oldStamps = stamps;
+
+		keys = new long[2 * capacity];
+		counts = new int[capacity];
+		splits = new long[capacity][];
+		stamps = new int[capacity];
+
+		if (oldCounts != null) {
+			for (int i = 0; i < oldCounts.length; i++) {
+				if (oldCounts[i] != 0) {
+					int slot = slot(oldKeys[2 * i], oldKeys[2 * i + 1]);
+					keys[2 * slot] = oldKeys[2 * i];
+					keys[2 * slot + 1] = oldKeys[2 * i + 1];
+					counts[slot] = oldCounts[i];
+					splits[slot] = oldSplits[i];
+					stamps[slot] = oldStamps[i];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,544 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Bipartition (split) encoding of a tree. For each internal edge (i.e. each
+ * internal node other than the root) the table holds the clade below the edge
+ * as a bitset over the ids of a {@link TaxonDictionary}, and a 128-bit hash of
+ * the unrooted split. A split is normalized to the side that does not hold
+ * the smallest taxon id of the tree, so a clade and its complement have the
+ * same hash.
+ * 
+ * Taxa are extracted from the leaf labels through {@link TreeNode#getTaxon(boolean)},
+ * so several leaves of the same taxon share one bit.
+ * 
+ * @version $Revision$
+ */
+public final class SplitTable {
+
+	/**
+	 * Seed of the first half of the hash
+	 */
+	private static final long SEED1 = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Seed of the second half of the hash
+	 */
+	private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+
+	/**
+	 * Dictionary of the taxon ids
+	 */
+	private final TaxonDictionary dictionary;
+
+	/**
+	 * All taxa of the tree
+	 */
+	private final long[] taxa;
+
+	/**
+	 * Clade below each internal edge
+	 */
+	private final long[][] clades;
+
+	/**
+	 * Id of the node below each internal edge
+	 */
+	private final int[] nodes;
+
+	/**
+	 * First 64 bits of the hash of each split
+	 */
+	private final long[] hashes1;
+
+	/**
+	 * Last 64 bits of the hash of each split
+	 */
+	private final long[] hashes2;
+
+	/**
+	 * Split indices sorted by hash
+	 */
+	private final int[] order;
+
+	/**
+	 * Hidden constructor
+	 */
+	private SplitTable(TaxonDictionary dictionary, long[] taxa, long[][] clades, int[] nodes) {
+		this.dictionary = dictionary;
+		this.taxa = taxa;
+		this.clades = clades;
+		this.nodes = nodes;
+
+		int n = clades.length;
+
+		this.hashes1 = new long[n];
+		this.hashes2 = new long[n];
+
+		for (int i = 0; i < n; i++) {
+			long[] split = normalize(clades[i], taxa);
+			hashes1[i] = hash(split, SEED1);
+			hashes2[i] = hash(split, SEED2);
+		}
+
+		this.order = sort(hashes1, hashes2);
+	}
+
+	/**
+	 * Builds the split table of a tree in one post-order pass
+	 * 
+	 * @param tree
+	 *            {@link TreeNode} root of the tree
+	 * @param dictionary
+	 *            {@link TaxonDictionary} to get the taxon ids from (new taxa
+	 *            are added to it)
+	 * @return {@link SplitTable} of the tree
+	 */
+	public static SplitTable build(TreeNode tree, TaxonDictionary dictionary) {
+
+		// Register the taxa first, so that all bitsets have the same length
+		List<TreeNode> preorder = new ArrayList<TreeNode>();
+		List<TreeNode> internals = new ArrayList<TreeNode>();
+
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(tree);
+
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			preorder.add(node);
+			if (node.isLeaf()) {
+				dictionary.add(node.getTaxon(true));
+			} else {
+				if (node != tree) {
+					internals.add(node);
+				}
+				for (TreeNode child : node.getChildren()) {
+					stack.push(child);
+				}
+			}
+		}
+
+		int words = words(dictionary.size());
+
+		Map<TreeNode, long[]> bitsets = new IdentityHashMap<TreeNode, long[]>();
+		for (TreeNode node : internals) {
+			bitsets.put(node, new long[words]);
+		}
+
+		long[] taxa = new long[words];
+		bitsets.put(tree, taxa);
+
+		// Children come after their parents in pre-order, so walking it
+		// backwards completes each clade before it is merged into its parent
+		for (int i = preorder.size() - 1; i >= 0; i--) {
+			TreeNode node = preorder.get(i);
+			TreeNode parent = node.getParent();
+			if (node == tree || parent == null) {
+				continue;
+			}
+			long[] target = bitsets.get(parent);
+			if (node.isLeaf()) {
+				int id = dictionary.getId(node.getTaxon(true));
+				target[id >>> 6] |= 1L << id;
+			} else {
+				or(target, bitsets.get(node));
+			}
+		}
+
+		int n = internals.size();
+		long[][] clades = new long[n][];
+		int[] nodes = new int[n];
+
+		for (int i = 0; i < n; i++) {
+			TreeNode node = internals.get(i);
+			clades[i] = bitsets.get(node);
+			nodes[i] = node.getId();
+		}
+
+		return new SplitTable(dictionary, taxa, clades, nodes);
+	}
+
+	/**
+	 * Returns the dictionary of the taxon ids
+	 * 
+	 * @return {@link TaxonDictionary}
+	 */
+	public TaxonDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Returns the number of splits (internal edges) in the table
+	 * 
+	 * @return The number of splits
+	 */
+	public int size() {
+		return clades.length;
+	}
+
+	/**
+	 * Returns the bitset of all taxa in the tree
+	 * 
+	 * @return The bitset of all taxa in the tree
+	 */
+	public long[] getTaxa() {
+		return taxa;
+	}
+
+	/**
+	 * Returns the number of taxa in the tree
+	 * 
+	 * @return The number of taxa in the tree
+	 */
+	public int getTaxaCount() {
+		return cardinality(taxa);
+	}
+
+	/**
+	 * Returns the clade below an internal edge
+	 * 
+	 * @param index
+	 *            Split index
+	 * @return The bitset of the taxa below the edge
+	 */
+	public long[] getClade(int index) {
+		return clades[index];
+	}
+
+	/**
+	 * Returns the id of the node below an internal edge
+	 * 
+	 * @param index
+	 *            Split index
+	 * @return The node id
+	 */
+	public int getNodeId(int index) {
+		return nodes[index];
+	}
+
+	/**
+	 * Returns the first 64 bits of the hash of a split
+	 * 
+	 * @param index
+	 *            Split index
+	 * @return The first 64 bits of the hash
+	 */
+	public long getHash1(int index) {
+		return hashes1[index];
+	}
+
+	/**
+	 * Returns the last 64 bits of the hash of a split
+	 * 
+	 * @param index
+	 *            Split index
+	 * @return The last 64 bits of the hash
+	 */
+	public long getHash2(int index) {
+		return hashes2[index];
+	}
+
+	/**
+	 * Returns true if a split is trivial (i.e. one of its sides has less than
+	 * two taxa)
+	 * 
+	 * @param index
+	 *            Split index
+	 * @return True if the split is trivial, otherwise false
+	 */
+	public boolean isTrivial(int index) {
+		int count = cardinality(clades[index]);
+		return count < 2 || getTaxaCount() - count < 2;
+	}
+
+	/**
+	 * Finds a split by its hash
+	 * 
+	 * @param hash1
+	 *            The first 64 bits of the hash
+	 * @param hash2
+	 *            The last 64 bits of the hash
+	 * @return The index of the split or -1 if not found
+	 */
+	public int find(long hash1, long hash2) {
+		int low = 0;
+		int high = order.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int index = order[middle];
+			int c = compare(hashes1[index], hashes2[index], hash1, hash2);
+			if (c < 0) {
+				low = middle + 1;
+			} else if (c > 0) {
+				high = middle - 1;
+			} else {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether the tree has a split separating a set of taxa from the
+	 * rest of its taxa (unrooted)
+	 * 
+	 * @param side
+	 *            Taxa on one side of the split
+	 * @return True if the tree has the split, otherwise false
+	 */
+	public boolean containsSplit(Iterable<String> side) {
+		long[] split = toBitset(side);
+		if (split == null) {
+			return false;
+		}
+		long[] normalized = normalize(split, taxa);
+		int index = find(hash(normalized, SEED1), hash(normalized, SEED2));
+		return index != -1 && equals(normalize(clades[index], taxa), normalized);
+	}
+
+	/**
+	 * Checks whether the tree has an internal node rooting exactly a set of
+	 * taxa (rooted)
+	 * 
+	 * @param clade
+	 *            Taxa of the clade
+	 * @return True if the tree has the clade, otherwise false
+	 */
+	public boolean containsClade(Iterable<String> clade) {
+		long[] split = toBitset(clade);
+		if (split == null) {
+			return false;
+		}
+		long[] normalized = normalize(split, taxa);
+		long hash1 = hash(normalized, SEED1);
+		long hash2 = hash(normalized, SEED2);
+		int index = find(hash1, hash2);
+		if (index == -1) {
+			return false;
+		}
+		// The clade and its complement share the hash, so check both of the
+		// equal entries
+		int first = lowerBound(hash1, hash2);
+		for (int i = first; i < order.length; i++) {
+			int j = order[i];
+			if (hashes1[j] != hash1 || hashes2[j] != hash2) {
+				break;
+			}
+			if (equals(clades[j], split)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Converts a set of taxa to a bitset
+	 * 
+	 * @param taxa
+	 *            Taxa
+	 * @return The bitset or null if one of the taxa is not in the tree
+	 */
+	private long[] toBitset(Iterable<String> taxa) {
+		long[] bitset = new long[this.taxa.length];
+		for (String taxon : taxa) {
+			int id = dictionary.getId(taxon);
+			if (id == TaxonDictionary.INVALID_TAXON_ID || !get(this.taxa, id)) {
+				return null;
+			}
+			bitset[id >>> 6] |= 1L << id;
+		}
+		return bitset;
+	}
+
+	/**
+	 * Returns the position of the first split with a given hash in the
+	 * sorted order
+	 */
+	private int lowerBound(long hash1, long hash2) {
+		int low = 0;
+		int high = order.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int index = order[middle];
+			if (compare(hashes1[index], hashes2[index], hash1, hash2) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of 64-bit words needed for a number of bits
+	 * 
+	 * @param bits
+	 *            Number of bits
+	 * @return Number of words
+	 */
+	static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	/**
+	 * Checks whether a bit is set
+	 */
+	static boolean get(long[] bitset, int bit) {
+		int word = bit >>> 6;
+		return word < bitset.length && (bitset[word] & (1L << bit)) != 0;
+	}
+
+	/**
+	 * ORs a bitset into another one
+	 */
+	static void or(long[] target, long[] source) {
+		for (int i = 0, n = Math.min(target.length, source.length); i < n; i++) {
+			target[i] |= source[i];
+		}
+	}
+
+	/**
+	 * Returns the number of set bits
+	 */
+	static int cardinality(long[] bitset) {
+		int count = 0;
+		for (long word : bitset) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Compares two bitsets, ignoring trailing zero words
+	 */
+	static boolean equals(long[] a, long[] b) {
+		int n = Math.max(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			long x = i < a.length ? a[i] : 0;
+			long y = i < b.length ? b[i] : 0;
+			if (x != y) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Normalizes a split to the side that does not hold the smallest taxon of
+	 * the tree
+	 * 
+	 * @param split
+	 *            One side of the split
+	 * @param taxa
+	 *            All taxa of the tree
+	 * @return The normalized side (may be the split itself)
+	 */
+	static long[] normalize(long[] split, long[] taxa) {
+		for (int i = 0; i < taxa.length; i++) {
+			if (taxa[i] != 0) {
+				long lowest = Long.lowestOneBit(taxa[i]);
+				if (i < split.length && (split[i] & lowest) != 0) {
+					long[] complement = new long[taxa.length];
+					for (int j = 0; j < taxa.length; j++) {
+						complement[j] = taxa[j] & ~(j < split.length ? split[j] : 0);
+					}
+					return complement;
+				}
+				return split;
+			}
+		}
+		return split;
+	}
+
+	/**
+	 * Hashes a bitset. Zero words do not contribute to the hash, so bitsets
+	 * built with different dictionary sizes hash the same.
+	 * 
+	 * @param bitset
+	 *            Bitset to hash
+	 * @param seed
+	 *            Hash seed
+	 * @return 64-bit hash
+	 */
+	static long hash(long[] bitset, long seed) {
+		long h = seed;
+		for (int i = 0; i < bitset.length; i++) {
+			if (bitset[i] != 0) {
+				h += mix(bitset[i] ^ mix(seed + i));
+			}
+		}
+		return mix(h);
+	}
+
+	/**
+	 * 64-bit finalizer of MurmurHash3
+	 */
+	static long mix(long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Compares two 128-bit hashes
+	 */
+	static int compare(long a1, long a2, long b1, long b2) {
+		if (a1 != b1) {
+			return a1 < b1 ? -1 : 1;
+		}
+		if (a2 != b2) {
+			return a2 < b2 ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the indices of 128-bit hashes in sorted order
+	 */
+	private static int[] sort(final long[] hashes1, final long[] hashes2) {
+		int n = hashes1.length;
+		Integer[] boxed = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			boxed[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(boxed, new Comparator<Integer>() {
+			public int compare(Integer i, Integer j) {
+				return SplitTable.compare(hashes1[i], hashes2[i], hashes1[j], hashes2[j]);
+			}
+		});
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = boxed[i].intValue();
+		}
+		return order;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A run-wide dictionary that maps taxa to dense integer ids (0, 1, 2, ...).
+ * The ids are used as bit positions in {@link SplitTable} and as indices in
+ * the other id-based structures. A dictionary can be shared between threads.
+ * 
+ * @version $Revision$
+ */
+public final class TaxonDictionary {
+
+	/**
+	 * Invalid taxon id (for example, taxon not found)
+	 */
+	public static final int INVALID_TAXON_ID = -1;
+
+	/**
+	 * Taxon to id map
+	 */
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Taxa ordered by their ids
+	 */
+	private final List<String> taxa = new ArrayList<String>();
+
+	/**
+	 * Returns the id of a taxon, adding the taxon to the dictionary if it is
+	 * not there yet
+	 * 
+	 * @param taxon
+	 *            Taxon
+	 * @return The id of the taxon
+	 */
+	public int add(String taxon) {
+		Integer id = ids.get(taxon);
+		if (id != null) {
+			return id.intValue();
+		}
+		synchronized (taxa) {
+			id = ids.get(taxon);
+			if (id == null) {
+				id = Integer.valueOf(taxa.size());
+				taxa.add(taxon);
+				ids.put(taxon, id);
+			}
+			return id.intValue();
+		}
+	}
+
+	/**
+	 * Returns the id of a taxon without adding it
+	 * 
+	 * @param taxon
+	 *            Taxon
+	 * @return The id of the taxon or {@link #INVALID_TAXON_ID} if the taxon is
+	 *         not in the dictionary
+	 */
+	public int getId(String taxon) {
+		Integer id = ids.get(taxon);
+		return id == null ? INVALID_TAXON_ID : id.intValue();
+	}
+
+	/**
+	 * Returns the taxon of an id
+	 * 
+	 * @param id
+	 *            Taxon id
+	 * @return The taxon
+	 */
+	public String getTaxon(int id) {
+		synchronized (taxa) {
+			return taxa.get(id);
+		}
+	}
+
+	/**
+	 * Returns the number of taxa in the dictionary
+	 * 
+	 * @return The number of taxa in the dictionary
+	 */
+	public int size() {
+		return ids.size();
+	}
+}
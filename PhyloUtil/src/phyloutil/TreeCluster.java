@@ -20,9 +20,7 @@ package phyloutil;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +29,12 @@ import phyloutil.misc.SingleLogger;
 /**
  * A cluster of overlapping phylogenetic trees.
  * 
+ * The trees and the taxa of a cluster are kept as sets of dense ids (see
+ * {@link IntSet}) from two dictionaries, one for the tree file names and one
+ * for the taxa. Clusters sharing the same dictionaries are compared and
+ * merged a word of ids at a time. All the clusters created with the default
+ * constructor share the same dictionaries.
+ * 
  * @author Ahmed Moustafa
  * @version $Revision: 1.5 $
  */
@@ -48,14 +52,72 @@ public class TreeCluster {
 	public static final int DEFAULT_MINIMUM_OVERLAP = 1;
 
 	/**
-	 * Set of trees file names in the cluster
+	 * Default dictionary of the taxa
+	 */
+	private static final TaxonDictionary TAXA = new TaxonDictionary();
+
+	/**
+	 * Default dictionary of the tree file names
+	 */
+	private static final TaxonDictionary TREES = new TaxonDictionary();
+
+	/**
+	 * Dictionary of the taxa
+	 */
+	private final TaxonDictionary taxonIds;
+
+	/**
+	 * Dictionary of the tree file names
+	 */
+	private final TaxonDictionary treeIds;
+
+	/**
+	 * Ids of the trees file names in the cluster
+	 */
+	private final IntSet trees = new IntSet();
+
+	/**
+	 * Ids of the taxa in all trees in the cluster
+	 */
+	private final IntSet taxa = new IntSet();
+
+	/**
+	 * Creates an empty cluster with the default dictionaries
+	 */
+	public TreeCluster() {
+		this(TAXA, TREES);
+	}
+
+	/**
+	 * Creates an empty cluster
+	 * 
+	 * @param taxonIds
+	 *            Dictionary of the taxa
+	 * @param treeIds
+	 *            Dictionary of the tree file names
+	 */
+	public TreeCluster(TaxonDictionary taxonIds, TaxonDictionary treeIds) {
+		this.taxonIds = taxonIds;
+		this.treeIds = treeIds;
+	}
+
+	/**
+	 * Returns the dictionary of the taxa
+	 * 
+	 * @return The dictionary of the taxa
 	 */
-	private final Set<String> trees = new HashSet<String>();
+	public TaxonDictionary getTaxonDictionary() {
+		return taxonIds;
+	}
 
 	/**
-	 * Set of taxa in all trees in the cluster
+	 * Returns the dictionary of the tree file names
+	 * 
+	 * @return The dictionary of the tree file names
 	 */
-	private final Set<String> taxa = new HashSet<String>();
+	public TaxonDictionary getTreeDictionary() {
+		return treeIds;
+	}
 
 	/**
 	 * Returns true if cluster contains a specific taxon
@@ -65,7 +127,7 @@ public class TreeCluster {
 	 * @return True if cluster contain a specific taxon, otherwise returns false
 	 */
 	public boolean contains(String taxon) {
-		return this.taxa.contains(taxon);
+		return this.taxa.contains(taxonIds.getId(taxon));
 	}
 
 	/**
@@ -177,11 +239,19 @@ public class TreeCluster {
 	 */
 	public void add(File file, TreeNode tree) {
 
-		this.trees.add(file.getName());
+		this.trees.add(treeIds.add(file.getName()));
 
+		List<String> labels = new ArrayList<String>();
 		for (TreeNode node : tree.iterator()) {
-			taxa.add(node.getLabel());
+			labels.add(node.getLabel());
+		}
+
+		int[] ids = new int[labels.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = taxonIds.add(labels.get(i));
 		}
+
+		taxa.addAll(IntSet.of(ids));
 	}
 
 	/**
@@ -223,7 +293,10 @@ public class TreeCluster {
 	 *         taxa, otherwise returns false
 	 */
 	public boolean overlaps(TreeCluster other, int minimumOverlap) {
-		return contains(other.taxa, minimumOverlap);
+		if (other.taxonIds == taxonIds) {
+			return taxa.intersect(other.taxa, minimumOverlap) >= minimumOverlap;
+		}
+		return contains(other.getTaxa(), minimumOverlap);
 	}
 
 	/**
@@ -234,12 +307,20 @@ public class TreeCluster {
 	 */
 	public void merge(TreeCluster other) {
 
-		for (String tree : other.trees) {
-			this.trees.add(tree);
+		if (other.treeIds == treeIds) {
+			this.trees.addAll(other.trees);
+		} else {
+			for (String tree : other.getFiles()) {
+				this.trees.add(treeIds.add(tree));
+			}
 		}
 
-		for (String taxon : other.taxa) {
-			this.taxa.add(taxon);
+		if (other.taxonIds == taxonIds) {
+			this.taxa.addAll(other.taxa);
+		} else {
+			for (String taxon : other.getTaxa()) {
+				this.taxa.add(taxonIds.add(taxon));
+			}
 		}
 
 	}
@@ -250,7 +331,7 @@ public class TreeCluster {
 	 * @return A list of the tree files in the cluster
 	 */
 	public Iterable<String> getFiles() {
-		return this.trees;
+		return names(this.trees, treeIds);
 	}
 
 	/**
@@ -259,7 +340,26 @@ public class TreeCluster {
 	 * @return A list of the taxa in the cluster
 	 */
 	public Iterable<String> getTaxa() {
-		return this.taxa;
+		return names(this.taxa, taxonIds);
+	}
+
+	/**
+	 * Returns the ids of the taxa in the cluster (see
+	 * {@link #getTaxonDictionary()})
+	 * 
+	 * @return The ids of the taxa in increasing order
+	 */
+	public int[] getTaxonIds() {
+		return this.taxa.toArray();
+	}
+
+	/**
+	 * Returns the number of distinct taxa in the cluster
+	 * 
+	 * @return The number of taxa
+	 */
+	public int getTaxonCount() {
+		return this.taxa.size();
 	}
 
 	/**
@@ -270,4 +370,15 @@ public class TreeCluster {
 	public int size() {
 		return this.trees.size();
 	}
+
+	/**
+	 * Returns the names of a set of ids
+	 */
+	private static List<String> names(IntSet ids, TaxonDictionary dictionary) {
+		List<String> names = new ArrayList<String>(ids.size());
+		for (int id : ids.toArray()) {
+			names.add(dictionary.getTaxon(id));
+		}
+		return names;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,370 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/**
+ * Farthest leaves of a tree by branch length: the farthest leaf of every
+ * leaf, the diameter (the longest path between two leaves) and the midpoint
+ * of the diameter, all in linear time.
+ * 
+ * The farthest leaf under each node is found in a bottom-up pass, keeping the
+ * best two children of each node, and the farthest leaf outside each node in
+ * a top-down pass (rerooting), so the farthest leaf of a leaf is the farthest
+ * one outside it. The diameter takes two sweeps: the farthest leaf from the
+ * farthest leaf of any leaf.
+ * 
+ * @version $Revision$
+ */
+public final class TreeDiameter {
+
+	/**
+	 * Nodes in preorder
+	 */
+	private final TreeNode[] nodes;
+
+	/**
+	 * Preorder index of the parent of each node (-1 for the root)
+	 */
+	private final int[] parents;
+
+	/**
+	 * Preorder index of each node
+	 */
+	private final Map<TreeNode, Integer> indices = new IdentityHashMap<TreeNode, Integer>();
+
+	/**
+	 * Farthest leaf outside each node (-1 if none), and its distance
+	 */
+	private final int[] outside;
+	private final double[] outsideLengths;
+
+	/**
+	 * Number of branches from the root to each node
+	 */
+	private final int[] depths;
+
+	/**
+	 * Ends of the diameter (-1 if the tree has a single leaf)
+	 */
+	private int end1 = -1;
+	private int end2 = -1;
+
+	/**
+	 * Finds the farthest leaf of every leaf of a tree
+	 * 
+	 * @param tree
+	 *            Root of the tree
+	 */
+	public TreeDiameter(TreeNode tree) {
+
+		List<TreeNode> list = new ArrayList<TreeNode>();
+		List<Integer> parentList = new ArrayList<Integer>();
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		Stack<Integer> stackParents = new Stack<Integer>();
+		stack.push(tree);
+		stackParents.push(Integer.valueOf(-1));
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			Integer parent = stackParents.pop();
+			indices.put(node, Integer.valueOf(list.size()));
+			list.add(node);
+			parentList.add(parent);
+			if (!node.isLeaf()) {
+				List<TreeNode> children = new ArrayList<TreeNode>();
+				for (TreeNode child : node.getChildren()) {
+					children.add(child);
+				}
+				Integer index = Integer.valueOf(list.size() - 1);
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+					stackParents.push(index);
+				}
+			}
+		}
+
+		int n = list.size();
+
+		nodes = list.toArray(new TreeNode[n]);
+		parents = new int[n];
+		depths = new int[n];
+		for (int v = 0; v < n; v++) {
+			parents[v] = parentList.get(v).intValue();
+			if (v > 0) {
+				depths[v] = depths[parents[v]] + 1;
+			}
+		}
+
+		// Farthest leaf under each node, and the best two children
+		int[] inside = new int[n];
+		double[] insideLengths = new double[n];
+		int[] first = new int[n];
+		int[] second = new int[n];
+		for (int v = 0; v < n; v++) {
+			first[v] = -1;
+			second[v] = -1;
+			inside[v] = nodes[v].isLeaf() ? v : -1;
+		}
+		for (int c = n - 1; c > 0; c--) {
+			int v = parents[c];
+			if (inside[c] == -1) {
+				continue;
+			}
+			double length = insideLengths[c] + nodes[c].getLength();
+			// Children are visited backwards, so ties keep the first one
+			if (first[v] == -1 || length >= down(insideLengths, first[v])) {
+				second[v] = first[v];
+				first[v] = c;
+			} else if (second[v] == -1 || length >= down(insideLengths, second[v])) {
+				second[v] = c;
+			}
+			if (first[v] == c) {
+				inside[v] = inside[c];
+				insideLengths[v] = length;
+			}
+		}
+
+		// Farthest leaf outside each node, through its parent
+		outside = new int[n];
+		outsideLengths = new double[n];
+		outside[0] = -1;
+		for (int c = 1; c < n; c++) {
+			int v = parents[c];
+			int best = outside[v];
+			double length = outsideLengths[v];
+			int sibling = first[v] != c ? first[v] : second[v];
+			if (sibling != -1 && (best == -1 || down(insideLengths, sibling) > length)) {
+				best = inside[sibling];
+				length = down(insideLengths, sibling);
+			}
+			outside[c] = best;
+			outsideLengths[c] = best == -1 ? 0 : length + nodes[c].getLength();
+		}
+
+		// Two sweeps from the first leaf
+		for (int v = 0; v < n && end1 == -1; v++) {
+			if (nodes[v].isLeaf() && outside[v] != -1) {
+				end1 = outside[v];
+				end2 = outside[end1];
+			}
+		}
+	}
+
+	/**
+	 * Returns the farthest leaf of a leaf
+	 * 
+	 * @param leaf
+	 *            Leaf of the tree
+	 * @return The farthest leaf, or null if there is none
+	 */
+	public TreeNode getFarthest(TreeNode leaf) {
+		Integer v = indices.get(leaf);
+		return v == null || outside[v.intValue()] == -1 ? null : nodes[outside[v.intValue()]];
+	}
+
+	/**
+	 * Returns the distance from a leaf to its farthest leaf
+	 * 
+	 * @param leaf
+	 *            Leaf of the tree
+	 * @return The distance to the farthest leaf, or 0 if there is none
+	 */
+	public float getFarthestLength(TreeNode leaf) {
+		Integer v = indices.get(leaf);
+		return v == null ? 0 : (float) outsideLengths[v.intValue()];
+	}
+
+	/**
+	 * Returns the two ends of the diameter
+	 * 
+	 * @return The two leaves farthest from each other, or null if the tree
+	 *         has a single leaf
+	 */
+	public TreeNode[] getDiameterEnds() {
+		return end1 == -1 ? null : new TreeNode[] { nodes[end1], nodes[end2] };
+	}
+
+	/**
+	 * Returns the length of the diameter
+	 * 
+	 * @return The length of the longest path between two leaves
+	 */
+	public float getDiameter() {
+		return end1 == -1 ? 0 : (float) outsideLengths[end1];
+	}
+
+	/**
+	 * Returns a copy of the tree rooted at the midpoint of its diameter. The
+	 * old root is removed if it is left with a single child, and the support
+	 * values move with their branches.
+	 * 
+	 * @return The rerooted copy, or a plain copy if the tree has a single leaf
+	 */
+	public TreeNode getMidpointRoot() {
+
+		if (end1 == -1) {
+			TreeNode copy = copy(nodes[0]);
+			copy.preprocess();
+			return copy;
+		}
+
+		double half = outsideLengths[end1] / 2;
+
+		// Walks up from the end whose side of the path holds the midpoint
+		int u = end1;
+		double lengthU = 0;
+		double lengthW = 0;
+		int a = end1;
+		int b = end2;
+		while (a != b) {
+			if (depths[a] >= depths[b]) {
+				lengthU += nodes[a].getLength();
+				a = parents[a];
+			} else {
+				lengthW += nodes[b].getLength();
+				b = parents[b];
+			}
+		}
+		if (lengthW > lengthU) {
+			u = end2;
+		}
+
+		double walked = 0;
+		while (walked + nodes[u].getLength() < half) {
+			walked += nodes[u].getLength();
+			u = parents[u];
+		}
+
+		return reroot(u, (float) (half - walked));
+	}
+
+	/**
+	 * Returns the length of the path from a node to its farthest leaf below,
+	 * plus its own branch
+	 */
+	private double down(double[] insideLengths, int c) {
+		return insideLengths[c] + nodes[c].getLength();
+	}
+
+	/**
+	 * Copies the tree with a new root on the branch above a node, at a given
+	 * distance from the node
+	 */
+	private TreeNode reroot(int node, float length) {
+
+		TreeNode root = new TreeNode();
+
+		// Side of the node
+		TreeNode below = copy(nodes[node]);
+		below.setLength(length);
+		root.addChild(below);
+
+		// Side of the parent, with the branches on the path to the old root
+		// turned upside down
+		int from = node;
+		int v = parents[node];
+		TreeNode target = root;
+		float branch = nodes[node].getLength() - length;
+		String label = nodes[node].isLeaf() ? "" : nodes[node].getLabel();
+
+		while (v != -1) {
+
+			int count = 0;
+			for (TreeNode child : nodes[v].getChildren()) {
+				if (child != nodes[from]) {
+					count++;
+				}
+			}
+
+			if (parents[v] == -1 && count == 1) {
+				// Old root with a single child left: joins the two branches
+				for (TreeNode child : nodes[v].getChildren()) {
+					if (child != nodes[from]) {
+						TreeNode copy = copy(child);
+						copy.setLength(branch + child.getLength());
+						if (!child.isLeaf() && (label == null || label.length() == 0)) {
+							label = child.getLabel();
+						}
+						if (!child.isLeaf()) {
+							copy.setLabel(label);
+						}
+						target.addChild(copy);
+					}
+				}
+				break;
+			}
+
+			TreeNode copy = new TreeNode();
+			copy.setLabel(label);
+			copy.setLength(branch);
+			target.addChild(copy);
+
+			for (TreeNode child : nodes[v].getChildren()) {
+				if (child != nodes[from]) {
+					copy.addChild(copy(child));
+				}
+			}
+
+			branch = nodes[v].getLength();
+			label = nodes[v].getLabel();
+			target = copy;
+			from = v;
+			v = parents[v];
+		}
+
+		root.preprocess();
+
+		return root;
+	}
+
+	/**
+	 * Copies a subtree with its labels and branch lengths
+	 */
+	private static TreeNode copy(TreeNode node) {
+
+		TreeNode copy = new TreeNode();
+
+		Stack<TreeNode> originals = new Stack<TreeNode>();
+		Stack<TreeNode> copies = new Stack<TreeNode>();
+		originals.push(node);
+		copies.push(copy);
+
+		while (!originals.isEmpty()) {
+			TreeNode original = originals.pop();
+			TreeNode target = copies.pop();
+			target.setLabel(original.getLabel());
+			target.setLength(original.getLength());
+			if (!original.isLeaf()) {
+				for (TreeNode child : original.getChildren()) {
+					TreeNode next = new TreeNode();
+					target.addChild(next);
+					originals.push(child);
+					copies.push(next);
+				}
+			}
+		}
+
+		return copy;
+	}
+}
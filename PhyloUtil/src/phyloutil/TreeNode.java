@@ -76,6 +76,16 @@ public class TreeNode {
 	 */
 	private String label = "";
 
+	/**
+	 * Support value of an internal node, read from a numeric label
+	 */
+	private float support = 0;
+
+	/**
+	 * Whether the label is numeric (and the support value set)
+	 */
+	private boolean hasSupport = false;
+
 	/**
 	 * Branch length. Default value is zero
 	 */
@@ -91,6 +101,16 @@ public class TreeNode {
 	 */
 	private int level = DEFAULT_ROOT_LEVEL;
 
+	/**
+	 * Optional split table of the tree rooted at this node
+	 */
+	private SplitTable splits = null;
+
+	/**
+	 * Optional label index of the tree rooted at this node
+	 */
+	private LabelIndex index = null;
+
 	/**
 	 * Default constructor
 	 */
@@ -141,6 +161,15 @@ public class TreeNode {
 	 * @return an iterorator to the sorted children
 	 */
 	public Iterable<TreeNode> getSortedChildren() {
+		return sortChildren();
+	}
+
+	/**
+	 * Returns a list of the children sorted by their branch lengths
+	 * 
+	 * @return a list of the sorted children
+	 */
+	private List<TreeNode> sortChildren() {
 		List<TreeNode> sorted = new ArrayList<TreeNode>();
 		for (TreeNode node : this.children) {
 			sorted.add(node);
@@ -179,6 +208,80 @@ public class TreeNode {
 	 */
 	public void setLabel(String label) {
 		this.label = label;
+		hasSupport = isNumber(label);
+		support = hasSupport ? NewickNumbers.parseFloat(label, 0, label.length()) : 0;
+	}
+
+	/**
+	 * Returns the support value of the node, read from its label when the
+	 * label is a decimal number (such as a bootstrap value)
+	 * 
+	 * @return the support value, or zero if the label is not numeric
+	 */
+	public float getSupport() {
+		return support;
+	}
+
+	/**
+	 * Checks whether the label of the node is a support value
+	 * 
+	 * @return True if the label is a decimal number, otherwise false
+	 */
+	public boolean hasSupport() {
+		return hasSupport;
+	}
+
+	/**
+	 * Checks whether a label is a decimal number (with an optional sign,
+	 * fraction and exponent), so that parsing it cannot fail
+	 * 
+	 * @param label
+	 *            Label
+	 * @return True if the label is a decimal number, otherwise false
+	 */
+	static boolean isNumber(String label) {
+		int n = label.length();
+		int i = 0;
+		if (i < n && (label.charAt(i) == '+' || label.charAt(i) == '-')) {
+			i++;
+		}
+		int digits = 0;
+		while (i < n && isDigit(label.charAt(i))) {
+			i++;
+			digits++;
+		}
+		if (i < n && label.charAt(i) == '.') {
+			i++;
+			while (i < n && isDigit(label.charAt(i))) {
+				i++;
+				digits++;
+			}
+		}
+		if (digits == 0) {
+			return false;
+		}
+		if (i < n && (label.charAt(i) == 'e' || label.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (label.charAt(i) == '+' || label.charAt(i) == '-')) {
+				i++;
+			}
+			int exponent = 0;
+			while (i < n && isDigit(label.charAt(i))) {
+				i++;
+				exponent++;
+			}
+			if (exponent == 0) {
+				return false;
+			}
+		}
+		return i == n;
+	}
+
+	/**
+	 * Checks whether a character is an ASCII digit
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
 	}
 
 	/**
@@ -238,6 +341,50 @@ public class TreeNode {
 		this.level = level;
 	}
 
+	/**
+	 * Returns the split table of the tree rooted at this node. The table is
+	 * built on the first call and kept with the node for later calls with the
+	 * same dictionary, so it does not reflect later changes to the tree.
+	 * 
+	 * @param dictionary
+	 *            {@link TaxonDictionary} of the taxon ids
+	 * @return {@link SplitTable} of the tree
+	 */
+	public SplitTable getSplitTable(TaxonDictionary dictionary) {
+		if (splits == null || splits.getDictionary() != dictionary) {
+			splits = SplitTable.build(this, dictionary);
+		}
+		return splits;
+	}
+
+	/**
+	 * Drops the split table kept with this node (if any)
+	 */
+	public void clearSplitTable() {
+		this.splits = null;
+	}
+
+	/**
+	 * Returns the label index of the tree rooted at this node. The index is
+	 * built on the first call and kept with the node for later calls, so it
+	 * does not reflect later changes to the tree.
+	 * 
+	 * @return {@link LabelIndex} of the tree
+	 */
+	public LabelIndex getLabelIndex() {
+		if (index == null) {
+			index = new LabelIndex(this);
+		}
+		return index;
+	}
+
+	/**
+	 * Drops the label index kept with this node (if any)
+	 */
+	public void clearLabelIndex() {
+		this.index = null;
+	}
+
 	/**
 	 * Returns true if the nodes does not have any children
 	 * 
@@ -301,30 +448,59 @@ public class TreeNode {
 
 		StringBuffer buffer = new StringBuffer();
 
-		if (!this.isLeaf()) {
-			Iterator<TreeNode> iterator = this.getSortedChildren().iterator();
+		// Each open internal node is represented by an iterator over its
+		// remaining (sorted) children
+		Stack<Iterator<TreeNode>> stack = new Stack<Iterator<TreeNode>>();
+		Stack<TreeNode> nodes = new Stack<TreeNode>();
 
-			TreeNode node = null;
+		TreeNode next = this;
 
-			buffer.append(NewickConstants.RIGHT_PARENTHESIS);
+		while (next != null || !stack.isEmpty()) {
 
-			if (iterator.hasNext()) {
-				// Get the first child here and handle the rest in the while
-				// loop in order to avoid checking the requirement of adding a
-				// comma or not
-				node = iterator.next();
-				buffer.append(node.depthFirstSearch());
-			}
+			if (next != null) {
 
-			while (iterator.hasNext()) {
-				node = iterator.next();
-				buffer.append(NewickConstants.COMMA);
-				buffer.append(node.depthFirstSearch());
+				if (!next.isLeaf()) {
+					buffer.append(NewickConstants.RIGHT_PARENTHESIS);
+					stack.push(next.getSortedChildren().iterator());
+					nodes.push(next);
+					next = null;
+					continue;
+				}
+
+				next.appendLabel(buffer);
+				next = null;
+
+				if (stack.isEmpty()) {
+					break;
+				}
 			}
 
-			buffer.append(NewickConstants.LEFT_PARENTHESIS);
+			Iterator<TreeNode> iterator = stack.peek();
+
+			if (iterator.hasNext()) {
+				if (buffer.charAt(buffer.length() - 1) != NewickConstants.RIGHT_PARENTHESIS) {
+					buffer.append(NewickConstants.COMMA);
+				}
+				next = iterator.next();
+			} else {
+				stack.pop();
+				buffer.append(NewickConstants.LEFT_PARENTHESIS);
+				nodes.pop().appendLabel(buffer);
+			}
 		}
 
+		return buffer.toString();
+	}
+
+	/**
+	 * Appends the label and the branch length of this node (and the semicolon
+	 * if this is the root) to a buffer
+	 * 
+	 * @param buffer
+	 *            {@link StringBuffer} to append to
+	 */
+	private void appendLabel(StringBuffer buffer) {
+
 		buffer.append(this.label);
 		buffer.append(NewickConstants.COLON);
 		buffer.append(this.length);
@@ -332,8 +508,6 @@ public class TreeNode {
 		if (this.isRoot()) {
 			buffer.append(NewickConstants.SEMI_COLON);
 		}
-
-		return buffer.toString();
 	}
 
 	/**
@@ -362,17 +536,31 @@ public class TreeNode {
 	 * @return int The node id
 	 */
 	public int preprocess(int id, int level) {
-		this.setId(id);
+
+		int childId = id - 1;
+
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+
 		this.setLevel(level);
+		stack.push(this);
 
-		int childId = id;
+		while (!stack.isEmpty()) {
 
-		if (!this.isLeaf()) {
-			for (TreeNode node : this.children) {
-				childId = node.preprocess(childId + 1, level + 1);
+			TreeNode node = stack.pop();
+			node.setId(++childId);
+
+			if (!node.isLeaf()) {
+				// Push the children in reverse order to number them in order
+				List<TreeNode> list = new ArrayList<TreeNode>(node.children);
+				for (int i = list.size() - 1; i >= 0; i--) {
+					TreeNode child = list.get(i);
+					child.setLevel(node.getLevel() + 1);
+					stack.push(child);
+				}
 			}
 		}
-		return childId++;
+
+		return childId;
 	}
 
 	/**
@@ -384,25 +572,25 @@ public class TreeNode {
 	 */
 	public TreeNode getNode(int id) {
 
-		if (this.id == id) {
-
-			return this;
-
-		} else {
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(this);
 
-			if (!this.isLeaf()) {
+		while (!stack.isEmpty()) {
 
-				for (TreeNode node : this.getSortedChildren()) {
+			TreeNode node = stack.pop();
 
-					TreeNode node2 = node.getNode(id);
+			if (node.id == id) {
+				return node;
+			}
 
-					if (node2 != null) {
-						return node2;
-					}
+			if (!node.isLeaf()) {
+				for (TreeNode child : node.children) {
+					stack.push(child);
 				}
 			}
-			return null;
 		}
+
+		return null;
 	}
 
 	/**
@@ -412,26 +600,22 @@ public class TreeNode {
 	 */
 	public int getMaximumId() {
 
-		if (this.isLeaf()) {
-
-			return this.id;
-
-		} else {
-
-			int maximumId = Integer.MIN_VALUE;
-			int currentId = Integer.MIN_VALUE;
+		// Ids are assigned in pre-order, so the maximum id is the one of the
+		// last leaf reached by following the last child at each level
+		TreeNode node = this;
 
-			for (TreeNode child : this.children) {
+		while (!node.isLeaf()) {
 
-				currentId = child.getMaximumId();
+			TreeNode last = null;
 
-				if (currentId > maximumId) {
-					maximumId = currentId;
-				}
+			for (TreeNode child : node.children) {
+				last = child;
 			}
 
-			return currentId;
+			node = last;
 		}
+
+		return node.id;
 	}
 
 	/**
@@ -539,16 +723,26 @@ public class TreeNode {
 	 * @return the number of terminal nodes in a tree
 	 */
 	public int size() {
-		if (this.isLeaf()) {
-			return 1;
-		} else {
-			int sum = 0;
 
-			for (TreeNode child : this.children) {
-				sum += child.size();
+		int sum = 0;
+
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(this);
+
+		while (!stack.isEmpty()) {
+
+			TreeNode node = stack.pop();
+
+			if (node.isLeaf()) {
+				sum++;
+			} else {
+				for (TreeNode child : node.children) {
+					stack.push(child);
+				}
 			}
-			return sum;
 		}
+
+		return sum;
 	}
 
 	/**
@@ -560,11 +754,22 @@ public class TreeNode {
 
 		List<TreeNode> leaves = new ArrayList<TreeNode>();
 
-		if (this.isLeaf()) {
-			leaves.add(this);
-		} else {
-			for (TreeNode child : this.getChildren()) {
-				leaves.addAll(child.getLeaves());
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(this);
+
+		while (!stack.isEmpty()) {
+
+			TreeNode node = stack.pop();
+
+			if (node.isLeaf()) {
+				leaves.add(node);
+			} else {
+				// Push the children in reverse order to keep the leaves in
+				// order
+				List<TreeNode> list = new ArrayList<TreeNode>(node.children);
+				for (int i = list.size() - 1; i >= 0; i--) {
+					stack.push(list.get(i));
+				}
 			}
 		}
 
@@ -657,26 +862,34 @@ public class TreeNode {
 	 * @return {@link TreeNode} with query label
 	 */
 	public static TreeNode find(TreeNode tree, String query, boolean regexp) {
-		String label = tree.getLabel();
-		if (regexp) {
-			if (Pattern.matches(query, label)) {
-				return tree;
-			}
-		} else {
-			// if (label.equalsIgnoreCase(query)) {
-			if (label.startsWith(query)) {
-				return tree;
-			}
-		}
 
-		if (tree.isLeaf()) {
-			return null;
-		}
+		Pattern pattern = regexp ? Pattern.compile(query) : null;
 
-		for (TreeNode child : tree.children) {
-			TreeNode node = TreeNode.find(child, query, regexp);
-			if (node != null) {
-				return node;
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(tree);
+
+		while (!stack.isEmpty()) {
+
+			TreeNode node = stack.pop();
+
+			String label = node.getLabel();
+			if (regexp) {
+				if (pattern.matcher(label).matches()) {
+					return node;
+				}
+			} else {
+				// if (label.equalsIgnoreCase(query)) {
+				if (label.startsWith(query)) {
+					return node;
+				}
+			}
+
+			if (!node.isLeaf()) {
+				// Push the children in reverse order to search them in order
+				List<TreeNode> list = new ArrayList<TreeNode>(node.children);
+				for (int i = list.size() - 1; i >= 0; i--) {
+					stack.push(list.get(i));
+				}
 			}
 		}
 
@@ -736,18 +949,25 @@ public class TreeNode {
 	 */
 	public Iterable<TreeNode> getNodes() {
 		List<TreeNode> nodes = new ArrayList<TreeNode>();
-		nodes.add(this);
-		if (!this.isLeaf()) {
-			Iterator<TreeNode> iterator = this.getSortedChildren().iterator();
-			TreeNode node = null;
-			while (iterator.hasNext()) {
-				node = iterator.next();
-				Iterable<TreeNode> nodes2 = node.getNodes();
-				for (TreeNode node2 : nodes2) {
-					nodes.add(node2);
+
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(this);
+
+		while (!stack.isEmpty()) {
+
+			TreeNode node = stack.pop();
+			nodes.add(node);
+
+			if (!node.isLeaf()) {
+				// Push the sorted children in reverse order to visit them in
+				// order
+				List<TreeNode> sorted = node.sortChildren();
+				for (int i = sorted.size() - 1; i >= 0; i--) {
+					stack.push(sorted.get(i));
 				}
 			}
 		}
+
 		return nodes;
 	}
 }
\ No newline at end of file
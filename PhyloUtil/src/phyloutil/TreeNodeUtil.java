@@ -65,21 +65,30 @@ public final class TreeNodeUtil {
 	 * @return True if the set of all OTUs is a subset of taxa, otherwise false
 	 */
 	public static boolean belongs(TreeNode node, Set<String> taxa) {
-		if (node.isLeaf()) {
 
-			String taxon = node.getTaxon();
-			return taxa.contains(taxon);
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(node);
 
-		} else {
+		while (!stack.isEmpty()) {
+
+			TreeNode current = stack.pop();
 
-			for (TreeNode child : node.getChildren()) {
-				if (!belongs(child, taxa)) {
+			if (current.isLeaf()) {
+
+				String taxon = current.getTaxon();
+				if (!taxa.contains(taxon)) {
 					return false;
 				}
-			}
 
-			return true;
+			} else {
+
+				for (TreeNode child : current.getChildren()) {
+					stack.push(child);
+				}
+			}
 		}
+
+		return true;
 	}
 
 	/**
@@ -94,25 +103,32 @@ public final class TreeNodeUtil {
 	 *         false
 	 */
 	public static int contains(TreeNode node, Set<String> taxa) {
-		if (node.isLeaf()) {
 
-			String taxon = node.getTaxon();
-			if (taxa.contains(taxon)) {
-				return 1;
-			} else {
-				return 0;
-			}
+		int sum = 0;
 
-		} else {
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(node);
 
-			int sum = 0;
+		while (!stack.isEmpty()) {
 
-			for (TreeNode child : node.getChildren()) {
-				sum += contains(child, taxa);
-			}
+			TreeNode current = stack.pop();
+
+			if (current.isLeaf()) {
 
-			return sum;
+				String taxon = current.getTaxon();
+				if (taxa.contains(taxon)) {
+					sum++;
+				}
+
+			} else {
+
+				for (TreeNode child : current.getChildren()) {
+					stack.push(child);
+				}
+			}
 		}
+
+		return sum;
 	}
 
 	/**
@@ -131,17 +147,26 @@ public final class TreeNodeUtil {
 			return true;
 		}
 
-		if (node.isLeaf()) {
-			String OTU = node.getLabel();
-			return query.equalsIgnoreCase(OTU);
-		} else {
-			for (TreeNode child : node.getChildren()) {
-				if (contains(child, query)) {
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(node);
+
+		while (!stack.isEmpty()) {
+
+			TreeNode current = stack.pop();
+
+			if (current.isLeaf()) {
+				String OTU = current.getLabel();
+				if (query.equalsIgnoreCase(OTU)) {
 					return true;
 				}
+			} else {
+				for (TreeNode child : current.getChildren()) {
+					stack.push(child);
+				}
 			}
-			return false;
 		}
+
+		return false;
 	}
 
 	/**
@@ -383,54 +408,56 @@ public final class TreeNodeUtil {
 	 */
 	public static int hasMonophyly(TreeNode node, Set<String> extended, List<Set<String>> sets, Set<Integer> excluded, String query) {
 
-		if (excluded.contains(node.getId())) {
+		TreeNode current = node;
 
-			return TreeNode.INVALID_NODE_ID;
+		// Climb towards the root until a node has a full coverage of the groups
+		while (!excluded.contains(current.getId())) {
 
-		}
+			if (belongs(current, extended)) {
 
-		if (belongs(node, extended)) {
+				boolean fullCoverage = true;
 
-			boolean fullCoverage = true;
+				Iterator<Set<String>> iterator = sets.iterator();
 
-			Iterator<Set<String>> iterator = sets.iterator();
+				while (fullCoverage && iterator.hasNext()) {
 
-			while (fullCoverage && iterator.hasNext()) {
+					int count = contains(current, iterator.next());
 
-				int count = contains(node, iterator.next());
+					if (count < Config.getInstance().getMinimumGroupSize()) {
 
-				if (count < Config.getInstance().getMinimumGroupSize()) {
+						fullCoverage = false;
 
-					fullCoverage = false;
+					}
 
 				}
 
-			}
+				if (fullCoverage) {
 
-			if (fullCoverage) {
+					return current.getId();
 
-				return node.getId();
-
-			} else {
-				if (!node.isRoot()) {
+				} else {
+					if (!current.isRoot()) {
 
-					return hasMonophyly(node.getParent(), extended, sets, excluded, query);
+						current = current.getParent();
 
-				} else {
+					} else {
 
-					excluded.add(node.getId());
+						excluded.add(current.getId());
 
-					return TreeNode.INVALID_NODE_ID;
+						return TreeNode.INVALID_NODE_ID;
+					}
 				}
-			}
 
-		} else {
+			} else {
 
-			excluded.add(node.getId());
+				excluded.add(current.getId());
 
-			return TreeNode.INVALID_NODE_ID;
+				return TreeNode.INVALID_NODE_ID;
 
+			}
 		}
+
+		return TreeNode.INVALID_NODE_ID;
 	}
 
 	/**
@@ -443,24 +470,26 @@ public final class TreeNodeUtil {
 	public static Set<String> getTaxa(TreeNode node) {
 		Set<String> taxa = new HashSet<String>();
 
-		if (node.isLeaf()) {
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(node);
 
-			String taxon = node.getTaxon();
+		while (!stack.isEmpty()) {
 
-			if (!taxa.contains(taxon)) {
+			TreeNode current = stack.pop();
 
-				taxa.add(taxon);
+			if (current.isLeaf()) {
 
-			}
+				taxa.add(current.getTaxon());
 
-		} else {
+			} else {
 
-			for (TreeNode child : node.getChildren()) {
+				for (TreeNode child : current.getChildren()) {
 
-				taxa.addAll(getTaxa(child));
+					stack.push(child);
 
-			}
+				}
 
+			}
 		}
 
 		return taxa;
@@ -543,18 +572,12 @@ public final class TreeNodeUtil {
 
 		List<TreeNode> list = new ArrayList<TreeNode>();
 
-		if (node.isLeaf()) {
+		for (TreeNode leaf : node.getLeaves()) {
 
-			String taxon = node.getTaxon();
+			String taxon = leaf.getTaxon();
 
 			if (taxa.contains(taxon) == equal) {
-				list.add(node);
-			}
-
-		} else {
-
-			for (TreeNode child : node.getChildren()) {
-				list.addAll(getNodesByTaxa(child, taxa, equal));
+				list.add(leaf);
 			}
 
 		}
@@ -775,41 +798,51 @@ public final class TreeNodeUtil {
 
 		TreeNode copy = new TreeNode();
 
-		if (root == exclude) {
-			return copy;
-		}
+		// Pairs of (original, copy) nodes that still need to be filled in
+		Stack<TreeNode> originals = new Stack<TreeNode>();
+		Stack<TreeNode> copies = new Stack<TreeNode>();
+
+		originals.push(root);
+		copies.push(copy);
 
-		copy.setId(root.getId());
-		copy.setLabel(root.getLabel());
-		copy.setLevel(root.getLevel());
-
-		if (!root.isLeaf()) {
-			for (TreeNode child : root.getChildren()) {
-				if (child != exclude) {
-					if (child.isLeaf()) {
-						TreeNode node = copy(child, exclude);
-						node.setParent(copy);
-						copy.addChild(node);
-						copy.setLength(child.getLength());
-					} else if (child.getChildrenCount() == 1) {
-						TreeNode child2 = null;
-						for (TreeNode child3 : child.getChildren()) {
-							child2 = child3;
+		while (!originals.isEmpty()) {
+
+			TreeNode original = originals.pop();
+			TreeNode target = copies.pop();
+
+			if (original == exclude) {
+				continue;
+			}
+
+			target.setId(original.getId());
+			target.setLabel(original.getLabel());
+			target.setLevel(original.getLevel());
+
+			if (!original.isLeaf()) {
+				for (TreeNode child : original.getChildren()) {
+					if (child != exclude) {
+						TreeNode source = null;
+						float length = 0;
+						if (child.isLeaf() || child.getChildrenCount() >= 2) {
+							source = child;
+							length = child.getLength();
+						} else if (child.getChildrenCount() == 1) {
+							for (TreeNode child3 : child.getChildren()) {
+								source = child3;
+							}
+							length = child.getLength() + source.getLength();
 						}
-						TreeNode node = copy(child2, exclude);
-						node.setParent(copy);
-						copy.addChild(node);
-						copy.setLength(child.getLength() + child2.getLength());
-					} else if (child.getChildrenCount() >= 2) {
-						TreeNode node = copy(child, exclude);
-						node.setParent(copy);
-						copy.addChild(node);
-						copy.setLength(child.getLength());
+						TreeNode node = new TreeNode();
+						node.setParent(target);
+						target.addChild(node);
+						target.setLength(length);
+						originals.push(source);
+						copies.push(node);
 					}
 				}
+			} else {
+				target.setLength(original.getLength());
 			}
-		} else {
-			copy.setLength(root.getLength());
 		}
 
 		return copy;
@@ -844,23 +877,14 @@ public final class TreeNodeUtil {
 	 *         found
 	 */
 	public static TreeNode findOutgroup(TreeNode node, Set<String> taxa) {
-		if (node.isLeaf()) {
-			String taxon = node.getTaxon();
+		for (TreeNode leaf : node.getLeaves()) {
+			String taxon = leaf.getTaxon();
 
 			if (!taxa.contains(taxon)) {
-				return node;
-			} else {
-				return null;
-			}
-		} else {
-			for (TreeNode child : node.getChildren()) {
-				TreeNode outgroup = findOutgroup(child, taxa);
-				if (outgroup != null) {
-					return outgroup;
-				}
+				return leaf;
 			}
-			return null;
 		}
+		return null;
 	}
 
 	/**
@@ -919,24 +943,25 @@ public final class TreeNodeUtil {
 	 */
 	public static TreeNode clean(TreeNode node, float min) {
 
-		if (!node.isLeaf()) {
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(node);
 
-			float bootstrap = 0;
-			String label = node.getLabel();
+		while (!stack.isEmpty()) {
 
-			try {
-				bootstrap = Float.parseFloat(label);
-			} catch (Exception e) {
-				String msg = "Failed parsing internal label: " + e.getMessage();
-				logger.log(Level.WARNING, msg);
-			}
+			TreeNode current = stack.pop();
 
-			if (bootstrap < min) {
-				node.setLabel("");
-			}
+			if (!current.isLeaf()) {
+
+				// Labels that are not support values count as zero
+				float bootstrap = current.hasSupport() ? current.getSupport() : 0;
 
-			for (TreeNode child : node.getChildren()) {
-				clean(child, min);
+				if (bootstrap < min) {
+					current.setLabel("");
+				}
+
+				for (TreeNode child : current.getChildren()) {
+					stack.push(child);
+				}
 			}
 		}
 
@@ -1014,6 +1039,36 @@ public final class TreeNodeUtil {
 		return new Distance(depth, length);
 	}
 
+	/**
+	 * Returns the Robinson-Foulds distance between two trees, restricted to
+	 * their shared taxa
+	 * 
+	 * @param tree1
+	 *            First tree
+	 * @param tree2
+	 *            Second tree
+	 * @return The number of splits found in only one of the trees
+	 * @see RobinsonFoulds
+	 */
+	public static int getRobinsonFoulds(TreeNode tree1, TreeNode tree2) {
+		return RobinsonFoulds.distance(tree1, tree2);
+	}
+
+	/**
+	 * Returns the normalized Robinson-Foulds distance between two trees,
+	 * restricted to their shared taxa
+	 * 
+	 * @param tree1
+	 *            First tree
+	 * @param tree2
+	 *            Second tree
+	 * @return The normalized distance between 0 and 1
+	 * @see RobinsonFoulds
+	 */
+	public static float getNormalizedRobinsonFoulds(TreeNode tree1, TreeNode tree2) {
+		return RobinsonFoulds.normalized(tree1, tree2);
+	}
+
 	/**
 	 * Returns the farthest node from a query node
 	 * 
@@ -1222,11 +1277,9 @@ public final class TreeNodeUtil {
 						child.setParent(parent.getParent());
 						parent.getParent().removeChild(parent);
 					}
-				} else {
-					System.err.println("Error: parent with more than 1 child : " + parent.getChildrenCount());
-					System.err.println(parent);
-					System.exit(1);
 				}
+				// Otherwise the parent is a polytomy and keeps its other
+				// children
 			}
 			return root;
 		} else {
@@ -1275,20 +1328,36 @@ public final class TreeNodeUtil {
 	public static TreeNode transform(TreeNode root, float scale) {
 		TreeNode log10 = new TreeNode();
 
-		log10.setId(root.getId());
-		log10.setLabel(root.getLabel());
-		log10.setLevel(root.getLevel());
+		// Pairs of (original, transformed) nodes that still need to be filled
+		// in
+		Stack<TreeNode> originals = new Stack<TreeNode>();
+		Stack<TreeNode> transformed = new Stack<TreeNode>();
+
+		originals.push(root);
+		transformed.push(log10);
+
+		while (!originals.isEmpty()) {
 
-		float lengthOriginal = root.getLength();
-		float length = lengthOriginal > 0 ? (float) Math.log10(scale * lengthOriginal) : 0;
+			TreeNode original = originals.pop();
+			TreeNode target = transformed.pop();
 
-		log10.setLength(length);
+			target.setId(original.getId());
+			target.setLabel(original.getLabel());
+			target.setLevel(original.getLevel());
 
-		if (!root.isLeaf()) {
-			for (TreeNode child : root.getChildren()) {
-				TreeNode node = transform(child, scale);
-				node.setParent(log10);
-				log10.addChild(node);
+			float lengthOriginal = original.getLength();
+			float length = lengthOriginal > 0 ? (float) Math.log10(scale * lengthOriginal) : 0;
+
+			target.setLength(length);
+
+			if (!original.isLeaf()) {
+				for (TreeNode child : original.getChildren()) {
+					TreeNode node = new TreeNode();
+					node.setParent(target);
+					target.addChild(node);
+					originals.push(child);
+					transformed.push(node);
+				}
 			}
 		}
 		return log10;
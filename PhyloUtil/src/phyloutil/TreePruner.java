@@ -0,0 +1,248 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Subtree induced by a set of leaves: keeps (or removes) the leaves whose
+ * labels match a list of names, in a single pass over the tree.
+ * 
+ * Internal nodes left with no leaves are removed, and internal nodes left with
+ * a single child are replaced by the child, adding up their branch lengths.
+ * Polytomies stay as they are. The leaves are matched by their exact labels,
+ * by label prefixes (as in {@link TreeNode#find(String)}), or by regular
+ * expressions on the whole labels.
+ * 
+ * Only leaves are matched, and every matching leaf is kept or removed. This
+ * differs from {@link TreeNodeUtil#removeNode(TreeNode, List)}, which removes
+ * only the first node in preorder whose label starts with each name; that
+ * node may be internal (taking its whole subtree with it) and the other
+ * matching leaves stay in the tree.
+ * 
+ * @version $Revision$
+ */
+public final class TreePruner {
+
+	/**
+	 * Exact label matching
+	 */
+	public static final String MATCH_EXACT = "exact";
+
+	/**
+	 * Label prefix matching
+	 */
+	public static final String MATCH_PREFIX = "prefix";
+
+	/**
+	 * Regular expression matching
+	 */
+	public static final String MATCH_REGEX = "regex";
+
+	/**
+	 * Default matching
+	 */
+	public static final String DEFAULT_MATCH = MATCH_PREFIX;
+
+	/**
+	 * Whether the matching leaves are kept (otherwise they are removed)
+	 */
+	private final boolean keep;
+
+	/**
+	 * Names (exact and prefix matching)
+	 */
+	private final Set<String> names = new HashSet<String>();
+
+	/**
+	 * Distinct name lengths, in increasing order (prefix matching)
+	 */
+	private final int[] lengths;
+
+	/**
+	 * All the regular expressions in one (regular expression matching)
+	 */
+	private final Pattern pattern;
+
+	/**
+	 * Creates a pruner
+	 * 
+	 * @param list
+	 *            Names, prefixes or regular expressions of the leaves
+	 * @param match
+	 *            {@link #MATCH_EXACT}, {@link #MATCH_PREFIX} or
+	 *            {@link #MATCH_REGEX}
+	 * @param keep
+	 *            Whether to keep the matching leaves (and remove the others)
+	 *            or to remove them
+	 */
+	public TreePruner(Collection<String> list, String match, boolean keep) {
+
+		this.keep = keep;
+
+		if (match.equalsIgnoreCase(MATCH_REGEX)) {
+			StringBuffer buffer = new StringBuffer();
+			for (String regex : list) {
+				if (buffer.length() > 0) {
+					buffer.append('|');
+				}
+				buffer.append("(?:");
+				buffer.append(regex);
+				buffer.append(')');
+			}
+			pattern = buffer.length() == 0 ? null : Pattern.compile(buffer.toString());
+			lengths = null;
+		} else if (match.equalsIgnoreCase(MATCH_PREFIX)) {
+			Set<Integer> set = new TreeSet<Integer>();
+			for (String name : list) {
+				names.add(name);
+				set.add(Integer.valueOf(name.length()));
+			}
+			lengths = new int[set.size()];
+			int i = 0;
+			for (Integer length : set) {
+				lengths[i++] = length.intValue();
+			}
+			pattern = null;
+		} else if (match.equalsIgnoreCase(MATCH_EXACT)) {
+			names.addAll(list);
+			lengths = null;
+			pattern = null;
+		} else {
+			throw new IllegalArgumentException("Invalid match: " + match);
+		}
+	}
+
+	/**
+	 * Checks whether a label matches one of the names
+	 * 
+	 * @param label
+	 *            Label
+	 * @return True if the label matches, otherwise false
+	 */
+	public boolean matches(String label) {
+		if (pattern != null) {
+			return pattern.matcher(label).matches();
+		}
+		if (lengths != null) {
+			for (int i = 0; i < lengths.length && lengths[i] <= label.length(); i++) {
+				if (names.contains(label.substring(0, lengths[i]))) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return names.contains(label);
+	}
+
+	/**
+	 * Returns the subtree induced by the kept leaves, as a new tree (the
+	 * original tree is left unchanged)
+	 * 
+	 * @param tree
+	 *            Root of the tree
+	 * @return Root of the pruned tree, or null if no leaf is kept
+	 */
+	public TreeNode prune(TreeNode tree) {
+
+		// Preorder
+		List<TreeNode> nodes = new ArrayList<TreeNode>();
+		Stack<TreeNode> stack = new Stack<TreeNode>();
+		stack.push(tree);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.pop();
+			nodes.add(node);
+			if (!node.isLeaf()) {
+				List<TreeNode> children = new ArrayList<TreeNode>();
+				for (TreeNode child : node.getChildren()) {
+					children.add(child);
+				}
+				for (int i = children.size() - 1; i >= 0; i--) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+
+		// Kept copies of the children of each node, in reverse order, filled
+		// bottom-up
+		Map<TreeNode, List<TreeNode>> kept = new IdentityHashMap<TreeNode, List<TreeNode>>();
+
+		TreeNode root = null;
+
+		for (int v = nodes.size() - 1; v >= 0; v--) {
+
+			TreeNode node = nodes.get(v);
+			TreeNode copy = null;
+
+			if (node.isLeaf()) {
+				if (matches(node.getLabel()) == keep) {
+					copy = new TreeNode();
+					copy.setLabel(node.getLabel());
+					copy.setLength(node.getLength());
+				}
+			} else {
+				// Internal nodes with no leaf left have no kept children
+				List<TreeNode> children = kept.remove(node);
+				if (children != null && children.size() == 1) {
+					// Unary node: replaced by its child
+					copy = children.get(0);
+					copy.setLength(copy.getLength() + node.getLength());
+				} else if (children != null) {
+					copy = new TreeNode();
+					copy.setLabel(node.getLabel());
+					copy.setLength(node.getLength());
+					for (int i = children.size() - 1; i >= 0; i--) {
+						copy.addChild(children.get(i));
+					}
+				}
+			}
+
+			if (copy == null) {
+				continue;
+			}
+
+			TreeNode parent = node.getParent();
+			if (node == tree) {
+				root = copy;
+			} else {
+				List<TreeNode> siblings = kept.get(parent);
+				if (siblings == null) {
+					siblings = new ArrayList<TreeNode>();
+					kept.put(parent, siblings);
+				}
+				siblings.add(copy);
+			}
+		}
+
+		if (root != null) {
+			root.preprocess();
+		}
+
+		return root;
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * $Id$
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package phyloutil;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Disjoint sets of the integers from 0 to n - 1 (union-find), with union by
+ * size and path halving, so any sequence of operations runs in nearly linear
+ * time.
+ * 
+ * @version $Revision$
+ */
+public final class UnionFind {
+
+	/**
+	 * Parent of each element (roots are their own parents)
+	 */
+	private int[] parents;
+
+	/**
+	 * Size of each set (valid for roots only)
+	 */
+	private int[] sizes;
+
+	/**
+	 * Number of elements
+	 */
+	private int size;
+
+	/**
+	 * Number of sets
+	 */
+	private int count;
+
+	/**
+	 * Creates n singleton sets
+	 * 
+	 * @param n
+	 *            Number of elements
+	 */
+	public UnionFind(int n) {
+		parents = new int[n];
+		sizes = new int[n];
+		for (int i = 0; i < n; i++) {
+			parents[i] = i;
+			sizes[i] = 1;
+		}
+		size = n;
+		count = n;
+	}
+
+	/**
+	 * Adds a new singleton set
+	 * 
+	 * @return The new element
+	 */
+	public int add() {
+		if (size == parents.length) {
+			int capacity = Math.max(16, 2 * size);
+			int[] grown = new int[capacity];
+			System.arraycopy(parents, 0, grown, 0, size);
+			parents = grown;
+			grown = new int[capacity];
+			System.arraycopy(sizes, 0, grown, 0, size);
+			sizes = grown;
+		}
+		parents[size] = size;
+		sizes[size] = 1;
+		count++;
+		return size++;
+	}
+
+	/**
+	 * Returns the root of the set of an element
+	 * 
+	 * @param element
+	 *            Element
+	 * @return The root of the set of the element
+	 */
+	public int find(int element) {
+		int i = element;
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merges the sets of two elements
+	 * 
+	 * @param element1
+	 *            First element
+	 * @param element2
+	 *            Second element
+	 * @return True if the two elements were in different sets, otherwise false
+	 */
+	public boolean union(int element1, int element2) {
+		int root1 = find(element1);
+		int root2 = find(element2);
+		if (root1 == root2) {
+			return false;
+		}
+		if (sizes[root1] < sizes[root2]) {
+			int root = root1;
+			root1 = root2;
+			root2 = root;
+		}
+		parents[root2] = root1;
+		sizes[root1] += sizes[root2];
+		count--;
+		return true;
+	}
+
+	/**
+	 * Checks whether two elements are in the same set
+	 * 
+	 * @param element1
+	 *            First element
+	 * @param element2
+	 *            Second element
+	 * @return True if the two elements are in the same set, otherwise false
+	 */
+	public boolean connected(int element1, int element2) {
+		return find(element1) == find(element2);
+	}
+
+	/**
+	 * Returns the size of the set of an element
+	 * 
+	 * @param element
+	 *            Element
+	 * @return The number of elements in the set of the element
+	 */
+	public int size(int element) {
+		return sizes[find(element)];
+	}
+
+	/**
+	 * Returns the number of elements
+	 * 
+	 * @return The number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of sets
+	 * 
+	 * @return The number of sets
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Writes the sets to a binary stream
+	 * 
+	 * @param out
+	 *            {@link DataOutput} to write to
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(count);
+		for (int i = 0; i < size; i++) {
+			out.writeInt(parents[i]);
+			out.writeInt(sizes[i]);
+		}
+	}
+
+	/**
+	 * Reads sets written by {@link #write(DataOutput)}
+	 * 
+	 * @param in
+	 *            {@link DataInput} to read from
+	 * @return {@link UnionFind} read from the stream
+	 * @throws IOException
+	 */
+	public static UnionFind read(DataInput in) throws IOException {
+		int n = in.readInt();
+		UnionFind sets = new UnionFind(n);
+		sets.count = in.readInt();
+		for (int i = 0; i < n; i++) {
+			sets.parents[i] = in.readInt();
+			sets.sizes[i] = in.readInt();
+		}
+		return sets;
+	}
+}
@@ -5,12 +5,12 @@
  * modify it under the terms of the GNU General Public License
  * as published by the Free Software Foundation; either version 2
  * of the License, or (at your option) any later version.
- *
+ * 
  * This program is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
  * GNU General Public License for more details.
- *
+ * 
  * You should have received a copy of the GNU General Public License
  * along with this program; if not, write to the Free Software
  * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
@@ -21,6 +21,7 @@ package phyloutil.misc;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.JarURLConnection;
@@ -202,6 +203,32 @@ public abstract class Commons {
 		}
 	}
 
+	/**
+	 * Replaces a file with a new version written next to it. The new version
+	 * is renamed over the file, which replaces it atomically on POSIX file
+	 * systems. Only where that rename fails (e.g. the target exists on
+	 * Windows) is the file deleted first and the rename tried again; if the
+	 * second rename fails the new version is the only copy left, so it is
+	 * never deleted here.
+	 * 
+	 * @param in
+	 *            New version
+	 * @param out
+	 *            File to replace
+	 * @throws IOException
+	 */
+	public static void replace(File in, File out) throws IOException {
+		if (in.renameTo(out)) {
+			return;
+		}
+		if (out.exists() && !out.delete()) {
+			throw new IOException("Failed replacing " + out.getPath());
+		}
+		if (!in.renameTo(out)) {
+			throw new IOException("Failed renaming " + in.getPath() + " to " + out.getPath());
+		}
+	}
+
 	/**
 	 * Copies a file from a source to a destination
 	 * 
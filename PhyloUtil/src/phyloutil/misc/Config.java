@@ -118,6 +118,26 @@ public final class Config {
 	 */
 	public static final String DEFAULT_QUERY_REQUIRED = PROPERTY_QUERY_REQUIRED_NO;
 
+	/**
+	 * Property evaluate identical trees once yes or no?
+	 */
+	public static final String PROPERTY_DEDUPLICATE = "phylosort.deduplicate";
+
+	/**
+	 * Deduplicate NO
+	 */
+	public static final String PROPERTY_DEDUPLICATE_NO = "no";
+
+	/**
+	 * Deduplicate YES
+	 */
+	public static final String PROPERTY_DEDUPLICATE_YES = "yes";
+
+	/**
+	 * Default deduplicate
+	 */
+	public static final String DEFAULT_DEDUPLICATE = PROPERTY_DEDUPLICATE_NO;
+
 	/**
 	 * System property tree rooting
 	 */
@@ -133,6 +153,11 @@ public final class Config {
 	 */
 	public static final String PROPERTY_ROOT_OUTGROUP_YES = "yes";
 
+	/**
+	 * Tree rooting at the midpoint of the longest path between two leaves
+	 */
+	public static final String PROPERTY_ROOT_MIDPOINT = "midpoint";
+
 	/**
 	 * Default tree rerooting (midpoint)
 	 */
@@ -243,6 +268,11 @@ public final class Config {
 	 */
 	private boolean outgroup = DEFAULT_ROOT.equalsIgnoreCase(PROPERTY_ROOT_OUTGROUP_YES);
 
+	/**
+	 * Midpoint tree rooting
+	 */
+	private boolean midpoint = DEFAULT_ROOT.equalsIgnoreCase(PROPERTY_ROOT_MIDPOINT);
+
 	/**
 	 * On match action flag
 	 */
@@ -288,6 +318,11 @@ public final class Config {
 	 */
 	private boolean queryRequired = DEFAULT_QUERY_REQUIRED.equalsIgnoreCase(PROPERTY_QUERY_REQUIRED_YES);
 
+	/**
+	 * Evaluate identical trees once
+	 */
+	private boolean deduplicate = DEFAULT_DEDUPLICATE.equalsIgnoreCase(PROPERTY_DEDUPLICATE_YES);
+
 	/**
 	 * Returns rooting method
 	 * 
@@ -296,6 +331,8 @@ public final class Config {
 	public String getRoot() {
 		if (isOutgroup()) {
 			return PROPERTY_ROOT_OUTGROUP_YES;
+		} else if (isMidpoint()) {
+			return PROPERTY_ROOT_MIDPOINT;
 		} else {
 			return PROPERTY_ROOT_OUTGROUP_NO;
 		}
@@ -314,6 +351,19 @@ public final class Config {
 		}
 	}
 
+	/**
+	 * Returns deduplicate flag
+	 * 
+	 * @return deduplicate flag
+	 */
+	public String getDeduplicate() {
+		if (isDeduplicate()) {
+			return PROPERTY_DEDUPLICATE_YES;
+		} else {
+			return PROPERTY_DEDUPLICATE_NO;
+		}
+	}
+
 	/**
 	 * Returns mode
 	 * 
@@ -588,11 +638,17 @@ public final class Config {
 
 			String root = properties.getProperty(PROPERTY_ROOT);
 			boolean outgroup = config.isOutgroup();
+			boolean midpoint = config.isMidpoint();
 			if (root != null) {
 				if (root.equalsIgnoreCase(PROPERTY_ROOT_OUTGROUP_YES)) {
 					outgroup = true;
+					midpoint = false;
 				} else if (root.equalsIgnoreCase(PROPERTY_ROOT_OUTGROUP_NO)) {
 					outgroup = false;
+					midpoint = false;
+				} else if (root.equalsIgnoreCase(PROPERTY_ROOT_MIDPOINT)) {
+					outgroup = false;
+					midpoint = true;
 				} else {
 					throw new Exception("Invalid " + PROPERTY_ROOT + ": " + root);
 				}
@@ -610,6 +666,18 @@ public final class Config {
 				}
 			}
 
+			String _deduplicate = properties.getProperty(PROPERTY_DEDUPLICATE);
+			boolean deduplicate = config.isDeduplicate();
+			if (_deduplicate != null) {
+				if (_deduplicate.equalsIgnoreCase(PROPERTY_DEDUPLICATE_YES)) {
+					deduplicate = true;
+				} else if (_deduplicate.equalsIgnoreCase(PROPERTY_DEDUPLICATE_NO)) {
+					deduplicate = false;
+				} else {
+					throw new Exception("Invalid " + PROPERTY_DEDUPLICATE + ": " + _deduplicate);
+				}
+			}
+
 			String _regexp = properties.getProperty(PROPERTY_REGEXP, config.getRegexp().toString());
 			Pattern regexp = Pattern.compile(_regexp);
 			
@@ -649,11 +717,13 @@ public final class Config {
 
 			// All new settings are OK. Now set them
 			instance.outgroup = outgroup;
+			instance.midpoint = midpoint;
 			instance.match = match;
 			instance.exclusive = exclusive;
 			instance.regexp = regexp;
 			instance.filenameRegexp = filenameRegexp;
 			instance.queryRequired = queryRequired;
+			instance.deduplicate = deduplicate;
 			instance.minimumNumberOfTaxa = minimumNumberOfTaxa;
 			instance.maximumNumberOfTaxa = maximumNumberOfTaxa;
 			instance.minimumBootstrapSupport = minimumBootstrapSupport;
@@ -697,6 +767,8 @@ public final class Config {
 		buffer.append(Commons.getLineSeparator());
 		buffer.append(Config.PROPERTY_MINIMUM_GROUP_SIZE + " = " + config.getMinimumGroupSize());
 		buffer.append(Commons.getLineSeparator());
+		buffer.append(Config.PROPERTY_DEDUPLICATE + " = " + config.getDeduplicate());
+		buffer.append(Commons.getLineSeparator());
 		
 
 		return buffer.toString();
@@ -749,6 +821,32 @@ public final class Config {
 	 */
 	public void setOutgroup(boolean outgroup) {
 		this.outgroup = outgroup;
+		if (outgroup) {
+			this.midpoint = false;
+		}
+	}
+
+	/**
+	 * Returns the midpoint rooting boolean flag
+	 * 
+	 * @return True if the current rooting option is midpoint, otherwise false
+	 */
+	public boolean isMidpoint() {
+		return midpoint;
+	}
+
+	/**
+	 * Sets the midpoint rooting boolean flag
+	 * 
+	 * @param midpoint
+	 *            True (=> root at the midpoint) or false (=> do not root at
+	 *            the midpoint)
+	 */
+	public void setMidpoint(boolean midpoint) {
+		this.midpoint = midpoint;
+		if (midpoint) {
+			this.outgroup = false;
+		}
 	}
 	
 	/**
@@ -768,6 +866,25 @@ public final class Config {
 	public void setQueryRequired(boolean queryRequired) {
 		this.queryRequired = queryRequired;
 	}
+
+	/**
+	 * Returns the deduplicate boolean flag
+	 * 
+	 * @return True if identical trees are evaluated once, otherwise false
+	 */
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	/**
+	 * Sets the deduplicate boolean flag
+	 * 
+	 * @param deduplicate
+	 *            True (=> evaluate identical trees once) or false
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
 	
 
 	/**
@@ -26,10 +26,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import phyloutil.NewickParser;
+import phyloutil.TreeDiameter;
 import phyloutil.TreeNode;
 import phyloutil.TreeNodeUtil;
 
@@ -213,6 +213,8 @@ public class PhyloSortRunner {
 					TreeNode rerooted = TreeNodeUtil.reroot(outgroup);
 					tree2 = rerooted;
 				}
+			} else if (Config.getInstance().isMidpoint()) {
+				tree2 = new TreeDiameter(tree).getMidpointRoot();
 			}
 
 			monophyletic = TreeNodeUtil.getAllMonophyleticNodes(tree2, this.taxa, config.isExclusive(), query);
@@ -231,13 +233,7 @@ public class PhyloSortRunner {
 						float bootstrap = 0;// Float.MAX_VALUE;
 
 						if (!node.isLeaf()) {
-							try {
-								String label = node.getLabel();
-								bootstrap = Float.parseFloat(label);
-							} catch (Exception silent) {
-								String msg = "Failed parsing bootstrap from tree: " + silent.getMessage();
-								logger.log(Level.WARNING, msg);
-							}
+							bootstrap = node.getSupport();
 						} else {
 							logger.warning("Matching monophyletic clade is single node. There is no bootstrap.");
 						}
@@ -350,6 +346,22 @@ public class PhyloSortRunner {
 	public boolean getOutgroup() {
 		return config.isOutgroup();
 	}
+
+	/**
+	 * 
+	 * @param midpoint
+	 */
+	public void setMidpoint(boolean midpoint) {
+		config.setMidpoint(midpoint);
+	}
+
+	/**
+	 * 
+	 * @return
+	 */
+	public boolean getMidpoint() {
+		return config.isMidpoint();
+	}
 	
 	/**
 	 * 
@@ -4,8 +4,7 @@ import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import phyloutil.TreeNode;
-import phyloutil.TreeNodeUtil;
+import phyloutil.NewickRewriter;
 
 public class TreeCleaner {
 
@@ -27,10 +26,9 @@ public class TreeCleaner {
 			String out = args[1];
 			float min = Float.parseFloat(args[2]);
 
-			TreeNode tree1 = TreeNodeUtil.load(new File(in));
-			TreeNode tree2 = TreeNodeUtil.clean(tree1, min);
-
-			TreeNodeUtil.save(tree2, out);
+			NewickRewriter rewriter = new NewickRewriter();
+			rewriter.add(NewickRewriter.bootstrap(min));
+			rewriter.rewrite(new File(in), new File(out));
 
 		} catch (Exception e) {
 			String msg = "Failed cleaning tree: " + e.getMessage();
@@ -4,8 +4,7 @@ import java.io.File;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import phyloutil.TreeNode;
-import phyloutil.TreeNodeUtil;
+import phyloutil.NewickRewriter;
 
 public class TreeTransformer {
 
@@ -27,31 +26,29 @@ public class TreeTransformer {
 			String ifile = args[0];
 			String ofile = args[1];
 
-			TreeNode itree = TreeNodeUtil.load(new File(ifile));
-
-			System.out.println(itree.toString());
-
-			Iterable<TreeNode> nodes = itree.getNodes();
-
-			float sum = 0;
-			float min = Float.MAX_VALUE;
-			float max = Float.MIN_VALUE;
-			int count = 0;
-
-			for (TreeNode node : nodes) {
-				System.out.println(node.getId() + "\t" + node.getLabel() + "\t" + node.getLength());
-				sum += node.getLength();
-
-				if (node.getLength() != 0 && node.getLength() < min) {
-					min = node.getLength();
+			// Branch length statistics, collected while rewriting
+			final float[] stats = { 0, Float.MAX_VALUE, Float.MIN_VALUE };
+
+			NewickRewriter rewriter = new NewickRewriter();
+			rewriter.add(new NewickRewriter.Rewrite() {
+				public float length(float length, boolean leaf) {
+					stats[0] += length;
+					if (length != 0 && length < stats[1]) {
+						stats[1] = length;
+					}
+					if (length > stats[2]) {
+						stats[2] = length;
+					}
+					return length;
 				}
+			});
+			rewriter.add(NewickRewriter.log10((float) 1e3));
 
-				if (node.getLength() > max) {
-					max = node.getLength();
-				}
+			long count = rewriter.rewrite(new File(ifile), new File(ofile));
 
-				count++;
-			}
+			float sum = stats[0];
+			float min = stats[1];
+			float max = stats[2];
 
 			float avg = sum / count;
 
@@ -71,10 +68,6 @@ public class TreeTransformer {
 
 			System.out.println(min + "\t" + offset);
 
-			TreeNode otree = TreeNodeUtil.transform(itree, (float)1e3);
-
-			TreeNodeUtil.save(otree, ofile);
-
 		} catch (Exception e) {
 			String msg = "Failed tranforming tree: " + e.getMessage();
 			logger.log(Level.SEVERE, msg, e);